@@ -0,0 +1,180 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.apiexample;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Parcelable;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.maxmpz.poweramp.player.CommandBatch;
+import com.maxmpz.poweramp.player.PowerampAPI;
+import com.maxmpz.poweramp.player.PowerampClient;
+
+/**
+ * Stand-in for Poweramp PlayerService, used to benchmark PowerampClient command delivery (bound channel vs intents) without Poweramp.
+ * Runs in a separate process (see manifest), so the bound channel is a real IPC.
+ * Logs the delivery latency and throughput once all commands of the benchmark run ({@link #EXTRA_BENCH_COUNT}) are received.<br>
+ * Started via startForegroundService on API 26+, the same way Poweramp is, thus goes foreground on start and stops itself once a started run completes
+ */
+public class CommandStandInService extends Service {
+	private static final String TAG = "CommandStandInService";
+	private static final String NOTIFICATION_CHANNEL_ID = "standin";
+	private static final int NOTIFICATION_ID = 1;
+
+	/**
+	 * {@code long} - SystemClock.elapsedRealtimeNanos() at the moment the command was sent
+	 */
+	public static final String EXTRA_BENCH_SENT_AT = "benchSentAt";
+	/**
+	 * {@code int} - total number of commands in this benchmark run
+	 */
+	public static final String EXTRA_BENCH_COUNT = "benchCount";
+
+	private final Stats mBinderStats = new Stats("binder");
+	private final Stats mIntentStats = new Stats("intent");
+	private final Stats mBatchStats = new Stats("batch");
+	private boolean mForeground;
+
+	private final Messenger mMessenger = new Messenger(new Handler() {
+		@Override
+		public void handleMessage(Message msg) {
+			switch(msg.what) {
+				case PowerampClient.MSG_PING:
+					if(msg.replyTo != null) {
+						try {
+							msg.replyTo.send(Message.obtain(null, PowerampClient.MSG_PONG));
+						} catch(RemoteException ex) {
+							Log.e(TAG, "", ex);
+						}
+					}
+					break;
+
+				case PowerampClient.MSG_API_COMMAND:
+					mBinderStats.add(msg.getData());
+					break;
+			}
+		}
+	});
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return mMessenger.getBinder();
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		startForeground();
+		boolean completed = false;
+		if(intent != null) {
+			if(intent.getIntExtra(PowerampAPI.COMMAND, 0) == CommandBatch.COMMAND_BATCH) {
+				// Execute in the batch order, the same way Poweramp does
+				Parcelable[] commands = intent.getParcelableArrayExtra(CommandBatch.EXTRA_BATCH);
+				if(commands != null) {
+					for(Parcelable command : commands) {
+						completed |= mBatchStats.add((Bundle)command);
+					}
+				}
+			} else {
+				completed = mIntentStats.add(intent.getExtras());
+			}
+		}
+		// NOTE: stopSelfResult() is no-op if more start requests are pending, e.g. the batch run queued after the intent run.
+		// The bound benchmark client keeps the service alive anyway
+		if(completed && stopSelfResult(startId)) {
+			stopForeground(true);
+			mForeground = false;
+		}
+		return START_NOT_STICKY;
+	}
+
+	private void startForeground() {
+		if(mForeground || Build.VERSION.SDK_INT < 26) {
+			return;
+		}
+		NotificationManager nm = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
+		if(nm != null) {
+			nm.createNotificationChannel(new NotificationChannel(NOTIFICATION_CHANNEL_ID, TAG, NotificationManager.IMPORTANCE_LOW));
+		}
+		Notification notification = new Notification.Builder(this, NOTIFICATION_CHANNEL_ID)
+				.setSmallIcon(R.mipmap.app_icon)
+				.setContentTitle(TAG)
+				.build();
+		startForeground(NOTIFICATION_ID, notification);
+		mForeground = true;
+	}
+
+	private static class Stats {
+		private final String mName;
+		private int mReceived;
+		private long mFirstReceivedAt;
+		private long mLatencySumNs;
+		private long mMaxLatencyNs;
+
+		Stats(String name) {
+			mName = name;
+		}
+
+		/**
+		 * @return true if this command completed the benchmark run
+		 */
+		boolean add(Bundle extras) {
+			if(extras == null) {
+				return false;
+			}
+			long now = SystemClock.elapsedRealtimeNanos();
+			if(mReceived == 0) {
+				mFirstReceivedAt = now;
+			}
+			long latency = now - extras.getLong(EXTRA_BENCH_SENT_AT);
+			mLatencySumNs += latency;
+			if(latency > mMaxLatencyNs) {
+				mMaxLatencyNs = latency;
+			}
+			mReceived++;
+
+			int count = extras.getInt(EXTRA_BENCH_COUNT);
+			if(mReceived >= count) {
+				long elapsedNs = Math.max(1, now - mFirstReceivedAt);
+				Log.w(TAG, mName + " received=" + mReceived
+						+ " avgLatencyUs=" + mLatencySumNs / mReceived / 1000
+						+ " maxLatencyUs=" + mMaxLatencyNs / 1000
+						+ " commandsPerSec=" + mReceived * 1000000000L / elapsedNs);
+				mReceived = 0;
+				mLatencySumNs = 0;
+				mMaxLatencyNs = 0;
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -20,15 +20,13 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.maxmpz.poweramp.apiexample;
 
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.List;
 import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.Cursor;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -38,23 +36,28 @@ import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
+import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
-import android.widget.SimpleCursorAdapter;
-import android.widget.SimpleCursorAdapter.ViewBinder;
 import android.widget.Spinner;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
+import com.maxmpz.poweramp.player.EqCommandStream;
+import com.maxmpz.poweramp.player.EqPreset;
+import com.maxmpz.poweramp.player.EqPresetCodec;
+import com.maxmpz.poweramp.player.EqPresetRepository;
 import com.maxmpz.poweramp.player.PowerampAPI;
 import com.maxmpz.poweramp.player.PowerampAPIHelper;
 import com.maxmpz.poweramp.player.TableDefs;
 
-public class EqActivity extends Activity implements OnClickListener, OnCheckedChangeListener, OnSeekBarChangeListener, OnItemSelectedListener {
+public class EqActivity extends Activity implements OnClickListener, OnCheckedChangeListener, OnSeekBarChangeListener, OnItemSelectedListener,
+		EqPresetRepository.Listener {
 	private static final String TAG = "EqActivity";
+	private static final boolean LOG = false; // Make it false for production.
 
 	Intent mEquIntent;
 	private boolean mEquBuilt;
@@ -62,46 +65,36 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 	private boolean mSettingEqu;
 	private boolean mSettingTone;
 	private boolean mSettingPreset;
+
+	private EqCommandStream mEqStream;
+	private EqPresetRepository mPresetRepository;
+	private PresetsAdapter mPresetsAdapter;
 	
 	/** Called when the activity is first created. */
-    @SuppressWarnings("resource")
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
         setContentView(R.layout.eq);
+
+        mEqStream = new EqCommandStream(this);
         
         ((CheckBox)findViewById(R.id.dynamic)).setOnCheckedChangeListener(this);
         findViewById(R.id.commit_eq).setOnClickListener(this);
         
-        // Create and bind spinner which binds to available Poweramp presets.
+        // Create and bind spinner which binds to available Poweramp presets. Presets are cached by EqPresetRepository, so after the first load
+        // the spinner is filled immediately.
         Spinner presetSpinner = (Spinner)findViewById(R.id.preset_spinner);
-        String[] cols = new String[] { "_id", "name" };
-		Cursor c = getContentResolver().query(PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("eq_presets").build(), 
-        			cols, null, null, "name");
-        startManagingCursor(c);
-        // Add first empty item to the merged cursor via matrix cursor with single row.
-        MatrixCursor mc = new MatrixCursor(cols);
-        mc.addRow(new Object[]{ PowerampAPI.NO_ID, "" });
-        MergeCursor mrgc = new MergeCursor(new Cursor[]{ mc, c });
-        
-        SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
-                android.R.layout.simple_spinner_dropdown_item,
-                mrgc,
-                new String[] { "name" },
-                new int[] { android.R.id.text1 }, 
-                0);
-        
-        adapter.setViewBinder(new ViewBinder() {
-			@Override
-			public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-				((TextView)view).setText(cursor.getString(1));
-				return true;
-			}
-        });
-
-        presetSpinner.setAdapter(adapter);
+        mPresetsAdapter = new PresetsAdapter();
+        presetSpinner.setAdapter(mPresetsAdapter);
         presetSpinner.setOnItemSelectedListener(this);
+
+        mPresetRepository = EqPresetRepository.getInstance(this);
+        List<EqPresetRepository.Preset> presets = mPresetRepository.getPresetsIfLoaded();
+        if(presets != null) {
+        	mPresetsAdapter.setPresets(presets);
+        }
+        mPresetRepository.addListener(this);
         
         ((CheckBox)findViewById(R.id.eq)).setOnCheckedChangeListener(this);
         ((CheckBox)findViewById(R.id.tone)).setOnCheckedChangeListener(this);
@@ -125,6 +118,7 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 	// sure no unnecessary event processing will be done for paused activity, when screen is OFF, etc.
     @Override
     protected void onPause() {
+    	mEqStream.flush();
     	unregister();
     	
     	super.onPause();
@@ -142,6 +136,7 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
     @Override
     protected void onDestroy() {
     	unregister();
+    	mPresetRepository.removeListener(this);
 
     	mEquReceiver = null;
     	
@@ -224,86 +219,70 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 		}
 	}
 	
-	private static Pattern sSemicolonSplitRe = Pattern.compile(";");
-	private static Pattern sEqualSplitRe = Pattern.compile("=");
+	private final EqPreset mEqPreset = new EqPreset(); // Reused for each EQU_CHANGED
 
 	// This method parses the equalizer serialized "presetString" and creates appropriate seekbars.
 	private void buildEquUI(String string) {
-		String[] pairs = sSemicolonSplitRe.split(string);
+		EqPreset preset = mEqPreset;
+		EqPresetCodec.parse(string, preset);
 		TableLayout equLayout = (TableLayout)findViewById(R.id.equ_layout);
 
-		for(int i = 0, pairsLength = pairs.length; i < pairsLength; i++) {
-			String[] nameValue = sEqualSplitRe.split(pairs[i], 2);
-			if(nameValue.length == 2) {
-				String name = nameValue[0];
-				
-				try {
-					float value = Float.parseFloat(nameValue[1]);
-					
-					TableRow row = new TableRow(this);
-					
-					TextView label = new TextView(this);
-					label.setText(name);
-					TableRow.LayoutParams lp = new TableRow.LayoutParams();
-					lp.height = lp.width = TableRow.LayoutParams.WRAP_CONTENT;
-					row.addView(label, lp);
-					
-					SeekBar bar = new SeekBar(this);
-					bar.setOnSeekBarChangeListener(this);
-					bar.setTag(name);
-					setBandValue(name, value, bar);
-					row.addView(bar, lp);
-					 
-					equLayout.addView(row);
-					
-				} catch(NumberFormatException ex) {
-					ex.printStackTrace();
-					Log.e(TAG, "failed to parse eq value=" + nameValue[1]);
-				}
-			}
+		for(int i = 0, count = preset.getCount(); i < count; i++) {
+			String name = preset.getName(i);
+
+			TableRow row = new TableRow(this);
+
+			TextView label = new TextView(this);
+			label.setText(name);
+			TableRow.LayoutParams lp = new TableRow.LayoutParams();
+			lp.height = lp.width = TableRow.LayoutParams.WRAP_CONTENT;
+			row.addView(label, lp);
+
+			SeekBar bar = new SeekBar(this);
+			bar.setOnSeekBarChangeListener(this);
+			bar.setTag(name);
+			setBandValue(preset.getType(i), preset.getValue(i), bar);
+			row.addView(bar, lp);
+
+			equLayout.addView(row);
 		}
 	}
 
 	// Preamp, bass/treble and equ bands have different scalling. This method ensures correct scalling is applied. 
-	void setBandValue(String name, float value, SeekBar bar) {
-		//Log.w(TAG, "name=" + name + " value=" + value);
-		if("preamp".equals(name)) {
-			bar.setMax(200);
-			bar.setProgress((int)(value * 100f));
-		} else if("bass".equals(name) || "treble".equals(name)) {
-			bar.setMax(100);
-			bar.setProgress((int)(value * 100f));
-		} else {
-			bar.setMax(200);
-			bar.setProgress((int)(value * 100f + 100f));
+	void setBandValue(int type, float value, SeekBar bar) {
+		//Log.w(TAG, "type=" + type + " value=" + value);
+		switch(type) {
+			case EqPreset.TYPE_PREAMP:
+				bar.setMax(200);
+				bar.setProgress((int)(value * 100f));
+				break;
+			case EqPreset.TYPE_BASS:
+			case EqPreset.TYPE_TREBLE:
+				bar.setMax(100);
+				bar.setProgress((int)(value * 100f));
+				break;
+			default:
+				bar.setMax(200);
+				bar.setProgress((int)(value * 100f + 100f));
+				break;
 		}
 	}
 	
 	// Almost the same as buildEquUI, just do the UI update without building it
 	private void updateEquUI(String string) {
 		Log.w(TAG, "updateEquUI!");
-		String[] pairs = sSemicolonSplitRe.split(string);
+		EqPreset preset = mEqPreset;
+		EqPresetCodec.parse(string, preset);
 		TableLayout equLayout = (TableLayout)findViewById(R.id.equ_layout);
 
-		for(int i = 0, pairsLength = pairs.length; i < pairsLength; i++) {
-			String[] nameValue = sEqualSplitRe.split(pairs[i], 2);
-			if(nameValue.length == 2) {
-				String name = nameValue[0];
-				try {
-					float value = Float.parseFloat(nameValue[1]);
-					
-					SeekBar bar = (SeekBar)((ViewGroup)equLayout.getChildAt(i)).getChildAt(1);
-					//SeekBar bar = (SeekBar)equLayout.findViewWithTag(name);
-					if(bar == null) {
-						Log.w(TAG, "no bar=" + name);
-						continue;
-					}
-					setBandValue(name, value, bar);
-				} catch(NumberFormatException ex) {
-					ex.printStackTrace();
-					Log.e(TAG, "failed to parse eq value=" + nameValue[1]);
-				}
+		for(int i = 0, count = Math.min(preset.getCount(), equLayout.getChildCount()); i < count; i++) {
+			SeekBar bar = (SeekBar)((ViewGroup)equLayout.getChildAt(i)).getChildAt(1);
+			//SeekBar bar = (SeekBar)equLayout.findViewWithTag(name);
+			if(bar == null) {
+				Log.w(TAG, "no bar=" + preset.getName(i));
+				continue;
 			}
+			setBandValue(preset.getType(i), preset.getValue(i), bar);
 		}
 	}
 	
@@ -361,27 +340,26 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 	
 	// Generates and sends presetString to Poweramp
 	private void commitEq() {
-		StringBuilder presetString = new StringBuilder();
+		EqPreset preset = new EqPreset();
 		
 		TableLayout equLayout = (TableLayout)findViewById(R.id.equ_layout);
 		int count = equLayout.getChildCount();
 		for(int i = count - 1; i >= 0; i--) {
 			SeekBar bar = (SeekBar)((ViewGroup)equLayout.getChildAt(i)).getChildAt(1);
 			String name = (String)bar.getTag();
-			float value = seekBarToValue(name, bar.getProgress());
-			presetString.append(name).append("=").append(value).append(";");
+			preset.put(name, seekBarToValue(name, bar.getProgress()));
 		}
 
 		PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND)
 							.putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SET_EQU_STRING)
-							.putExtra(PowerampAPI.VALUE, presetString.toString())
+							.putExtra(PowerampAPI.VALUE, EqPresetCodec.toString(preset))
 						);
 	}
 	
 	// Applies correct seekBar-to-float scaling. 
 	private float seekBarToValue(String name, int progress) {
 		float value;
-		if("preamp".equals(name) || "bass".equals(name) || "treble".equals(name)) {
+		if(EqPreset.typeOf(name) != EqPreset.TYPE_BAND) {
 			value = (float)progress / 100.f;
 		} else {
 			value = (float)(progress - 100) / 100.f;
@@ -391,15 +369,11 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 
 	@Override
 	public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
-		// Process Eq band change.
-		if(((CheckBox)findViewById(R.id.dynamic)).isChecked()) {
+		// Process Eq band change. NOTE: only user changes, updateEquUI() sets the bars programmatically on EQU_CHANGED, which shouldn't be echoed back
+		if(fromUser && ((CheckBox)findViewById(R.id.dynamic)).isChecked()) {
 			String name = (String)bar.getTag();
 			float value = seekBarToValue(name, bar.getProgress());
-			PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND)
-							.putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SET_EQU_BAND)
-							.putExtra(PowerampAPI.NAME, name)
-							.putExtra(PowerampAPI.VALUE, value)
-						);
+			mEqStream.setBand(name, value); // Merged and rate limited, so dragging doesn't flood Poweramp with intents
 		}
 	}
 	
@@ -410,6 +384,8 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 
 	@Override
 	public void onStopTrackingTouch(SeekBar seekBar) {
+		mEqStream.flush(); // Send the final band values right away
+		if(LOG) Log.w(TAG, "onStopTrackingTouch eq changes requested=" + mEqStream.getRequestedChanges() + " sent=" + mEqStream.getSentCommands());
 	}
 
 	// Event handler for Presets spinner
@@ -428,4 +404,48 @@ public class EqActivity extends Activity implements OnClickListener, OnCheckedCh
 	@Override
 	public void onNothingSelected(AdapterView<?> arg0) {
 	}
+
+	@Override
+	public void onEqPresetsChanged(List<EqPresetRepository.Preset> presets) {
+		mPresetsAdapter.setPresets(presets);
+		updateEqu(); // Reselect current preset
+	}
+
+	// Presets spinner adapter. First item is empty (no preset)
+	private class PresetsAdapter extends BaseAdapter {
+		private List<EqPresetRepository.Preset> mPresets = Collections.emptyList();
+
+		void setPresets(List<EqPresetRepository.Preset> presets) {
+			mPresets = presets;
+			notifyDataSetChanged();
+		}
+
+		@Override
+		public int getCount() {
+			return mPresets.size() + 1;
+		}
+
+		@Override
+		public Object getItem(int position) {
+			return position == 0 ? null : mPresets.get(position - 1);
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return position == 0 ? PowerampAPI.NO_ID : mPresets.get(position - 1).getId();
+		}
+
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) {
+			TextView view = (TextView)(convertView != null ? convertView
+					: getLayoutInflater().inflate(android.R.layout.simple_spinner_dropdown_item, parent, false));
+			if(position == 0) {
+				view.setText("");
+			} else {
+				EqPresetRepository.Preset preset = mPresets.get(position - 1);
+				view.setText(preset.getName() != null ? preset.getName() : "Preset #" + preset.getPreset());
+			}
+			return view;
+		}
+	}
 }
\ No newline at end of file
@@ -22,6 +22,8 @@ package com.maxmpz.poweramp.apiexample;
 
 import com.maxmpz.poweramp.player.PowerampAPI;
 import com.maxmpz.poweramp.player.PowerampAPIHelper;
+import com.maxmpz.poweramp.player.TypedColumns;
+import com.maxmpz.poweramp.player.TypedQuery;
 
 import android.app.ListActivity;
 import android.content.Intent;
@@ -48,10 +50,13 @@ public class FilesActivity extends ListActivity implements OnItemClickListener {
 
 		mFolderId = getIntent().getLongExtra("id", 0);
 		
-		Cursor c = this.getContentResolver().query(PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("folders").appendEncodedPath(Long.toString(mFolderId)).appendEncodedPath("files").build(), 
-				new String[]{ "folder_files._id AS _id", 
-								"folder_files.name AS name", 
-								"folder_files.title_tag AS title_tag"}, null, null, "folder_files.name COLLATE NOCASE");
+		// NOTE: CursorAdapter needs _id and the raw column names, thus, aliasing the qualified columns
+		Cursor c = new TypedQuery(TypedQuery.path(TypedQuery.FOLDERS, mFolderId, TypedQuery.FILES))
+				.selectAs(TypedColumns.Files._ID, "_id")
+				.selectAs(TypedColumns.Files.NAME, "name")
+				.selectAs(TypedColumns.Files.TITLE_TAG, "title_tag")
+				.orderBy(TypedColumns.Files.NAME, TypedQuery.ORDER_NOCASE)
+				.query(this);
 		startManagingCursor(c);
 
 		SimpleCursorAdapter adapter = new SimpleCursorAdapter(
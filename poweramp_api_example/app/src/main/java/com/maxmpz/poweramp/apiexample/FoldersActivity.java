@@ -22,6 +22,8 @@ package com.maxmpz.poweramp.apiexample;
 
 import com.maxmpz.poweramp.player.PowerampAPI;
 import com.maxmpz.poweramp.player.PowerampAPIHelper;
+import com.maxmpz.poweramp.player.TypedColumns;
+import com.maxmpz.poweramp.player.TypedQuery;
 
 import android.app.ListActivity;
 import android.content.Intent;
@@ -46,8 +48,12 @@ public class FoldersActivity extends ListActivity implements OnItemClickListener
 
 		setContentView(R.layout.folders);
 
-		Cursor c = this.getContentResolver().query(PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("folders").build(), 
-				new String[]{ "folders._id AS _id", "folders.name AS name", "folders.parent_name AS parent_name" }, null, null, "folders.name COLLATE NOCASE");
+		Cursor c = new TypedQuery(TypedQuery.FOLDERS)
+				.selectAs(TypedColumns.Folders._ID, "_id")
+				.selectAs(TypedColumns.Folders.NAME, "name")
+				.selectAs(TypedColumns.Folders.PARENT_NAME, "parent_name")
+				.orderBy(TypedColumns.Folders.NAME, TypedQuery.ORDER_NOCASE)
+				.query(this);
 		startManagingCursor(c);
 
 		SimpleCursorAdapter adapter = new SimpleCursorAdapter(
@@ -22,7 +22,9 @@ package com.maxmpz.poweramp.apiexample;
 
 import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -30,9 +32,11 @@ import android.content.IntentFilter;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -53,17 +57,29 @@ import android.widget.TableLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.maxmpz.poweramp.player.ColumnarTable;
+import com.maxmpz.poweramp.player.CommandBatch;
+import com.maxmpz.poweramp.player.EntriesBatchWriter;
+import com.maxmpz.poweramp.player.EntriesOrderManager;
+import com.maxmpz.poweramp.player.EqPresetRepository;
+import com.maxmpz.poweramp.player.EqPresetSongsIndex;
 import com.maxmpz.poweramp.player.PowerampAPI;
 import com.maxmpz.poweramp.player.PowerampAPIHelper;
+import com.maxmpz.poweramp.player.PowerampClient;
 import com.maxmpz.poweramp.player.RemoteTrackTime;
 import com.maxmpz.poweramp.player.RemoteTrackTime.TrackTimeListener;
+import com.maxmpz.poweramp.player.ScrubController;
+import com.maxmpz.poweramp.player.SeekController;
+import com.maxmpz.poweramp.player.ShufflePermutation;
 import com.maxmpz.poweramp.player.TableDefs;
+import com.maxmpz.poweramp.player.TrackSampler;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.ArrayList;
 import java.util.Set;
 
 
@@ -77,9 +93,9 @@ public class MainActivity extends AppCompatActivity implements
 	TrackTimeListener 
 {
 	private static final String TAG = "MainActivity";
+	private static final boolean LOG = false; // Make it false for production.
 
 	private static final char[] NO_TIME = new char[]{ '-', ':', '-', '-' };
-	private static final int SEEK_THROTTLE = 500;
 	
 	protected Intent mTrackIntent;
 	private Intent mStatusIntent;
@@ -88,23 +104,28 @@ public class MainActivity extends AppCompatActivity implements
 	private Bundle mCurrentTrack;
 	
 	private RemoteTrackTime mRemoteTrackTime;
+	private SeekController mSeekController;
+	private ScrubController mScrubController;
+	private @Nullable PowerampClient mBenchmarkClient;
 	private SeekBar mSongSeekBar;
 	
 	private TextView mDuration;
 	private TextView mElapsed;
 	private boolean mSettingPreset;
 	
-	private long mLastSeekSentTime;
-	
 	private final StringBuilder mDurationBuffer = new StringBuilder();
 	private final StringBuilder mElapsedBuffer = new StringBuilder();
 	private @Nullable Uri mLastCreatedPlaylistFilesUri;
+	private @Nullable ShufflePermutation mShuffle;
+	private @Nullable ShufflePermutation.Ids mShuffleIds; // The ids mShuffle was created for
 
 
 	@Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
+
+        EqPresetSongsIndex.getInstance(this).start(); // Builds song => bound eq preset index in background
         
         findViewById(R.id.play).setOnClickListener(this);
         findViewById(R.id.play).setOnLongClickListener(this);
@@ -134,6 +155,9 @@ public class MainActivity extends AppCompatActivity implements
         mRemoteTrackTime = new RemoteTrackTime(this);
         mRemoteTrackTime.setTrackTimeListener(this);
         
+        mSeekController = new SeekController(this, mRemoteTrackTime);
+        mScrubController = new ScrubController(this, mRemoteTrackTime, mSeekController);
+        
         ((TextView)findViewById(R.id.play_file_path)).setText(findFirstMP3(Environment.getExternalStorageDirectory()));
         findViewById(R.id.play_file).setOnClickListener(this);
         
@@ -175,6 +199,8 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onPause() {
     	unregister();
+    	mScrubController.end();
+    	mSeekController.flush();
     	mRemoteTrackTime.unregister();
     	
     	super.onPause();
@@ -199,6 +225,11 @@ public class MainActivity extends AppCompatActivity implements
 	    	mRemoteTrackTime.unregister();
 	    	
 	    	mRemoteTrackTime = null;
+	    	EqPresetSongsIndex.getInstance(this).stop();
+	    	if(mBenchmarkClient != null) {
+	    		mBenchmarkClient.disconnect();
+	    		mBenchmarkClient = null;
+	    	}
 	    	mTrackReceiver = null;
 	    	mStatusReceiver = null;
 	    	mPlayingModeReceiver = null;
@@ -264,7 +295,7 @@ public class MainActivity extends AppCompatActivity implements
 			mCurrentTrack = mTrackIntent.getBundleExtra(PowerampAPI.TRACK);
 			if(mCurrentTrack != null) {
 				int duration = mCurrentTrack.getInt(PowerampAPI.Track.DURATION);
-				mRemoteTrackTime.updateTrackDuration(duration); // Let RemoteTrackTime know about current song duration.
+				mRemoteTrackTime.updateTrack(mCurrentTrack.getLong(PowerampAPI.Track.ID), duration); // Let RemoteTrackTime know about current song and its duration.
 			}
 
 			int pos = mTrackIntent.getIntExtra(PowerampAPI.Track.POSITION, -1); // Poweramp build-700+ sends position along with the track intent
@@ -321,6 +352,10 @@ public class MainActivity extends AppCompatActivity implements
 				info.append("Sample Rate: ").append(mCurrentTrack.getInt(PowerampAPI.Track.SAMPLE_RATE, -1)).append(" ");
 				info.append("Channels: ").append(mCurrentTrack.getInt(PowerampAPI.Track.CHANNELS, -1)).append(" ");
 				info.append("Duration: ").append(mCurrentTrack.getInt(PowerampAPI.Track.DURATION, -1)).append("sec ");
+				EqPresetRepository.Preset boundPreset = EqPresetSongsIndex.getInstance(this).resolvePreset(mCurrentTrack);
+				if(boundPreset != null) {
+					info.append("Bound EQ: ").append(boundPreset.getName() != null ? boundPreset.getName() : "#" + boundPreset.getPreset()).append(" ");
+				}
 				
 				((TextView)findViewById(R.id.info)).setText(info);
 				return;
@@ -602,6 +637,22 @@ public class MainActivity extends AppCompatActivity implements
 			case R.id.queue:
 				startActivity(new Intent(PowerampAPI.ACTION_OPEN_LIBRARY).setData(PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("queue").build()));
 				break;
+
+			case R.id.commands_benchmark:
+				commandsBenchmark();
+				break;
+
+			case R.id.insert_benchmark:
+				insertBenchmark();
+				break;
+
+			case R.id.columnar_benchmark:
+				columnarBenchmark();
+				break;
+
+			case R.id.shuffle_to_queue:
+				shuffleToQueue();
+				break;
 		}
 	}
 
@@ -614,11 +665,11 @@ public class MainActivity extends AppCompatActivity implements
 				return true;
 			
 			case R.id.next:
-				PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.BEGIN_FAST_FORWARD));
+				mScrubController.begin(true); // Starts with BEGIN_FAST_FORWARD, switches to accelerated seeking on longer hold
 				return true;
 				
 			case R.id.prev:
-				PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.BEGIN_REWIND));
+				mScrubController.begin(false); // Starts with BEGIN_REWIND, switches to accelerated seeking on longer hold
 				return true;
 		}
 		
@@ -632,11 +683,8 @@ public class MainActivity extends AppCompatActivity implements
 		if(event.getAction() == MotionEvent.ACTION_UP) {
 			switch(v.getId()) {
 			case R.id.next:
-				PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.END_FAST_FORWARD));
-				break;
-				
 			case R.id.prev:
-				PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.END_REWIND));
+				mScrubController.end(); // Sends END_FAST_FORWARD/END_REWIND or the final seek, depending on the scrubbing phase
 				break;
 			}
 		}
@@ -752,7 +800,7 @@ public class MainActivity extends AppCompatActivity implements
 		switch(bar.getId()) {
 			case R.id.song_seekbar:
 				if(fromUser) {
-					sendSeek(false);
+					mSeekController.seek(progress);
 				}
 				break;
 		}
@@ -764,24 +812,8 @@ public class MainActivity extends AppCompatActivity implements
 
 	@Override
 	public void onStopTrackingTouch(SeekBar seekBar) {
-		sendSeek(true); // Force seek when user ends seeking.
-		
-	}
-
-	// Send seek command.
-	private void sendSeek(boolean ignoreThrottling) {
-
-		int position = mSongSeekBar.getProgress();
-		mRemoteTrackTime.updateTrackPosition(position);
-		
-		// Apply some throttling to avoid too many intents to be generated.
-		if(ignoreThrottling || mLastSeekSentTime == 0 || System.currentTimeMillis() - mLastSeekSentTime > SEEK_THROTTLE) {
-			mLastSeekSentTime = System.currentTimeMillis();
-			PowerampAPIHelper.startPAService(this, new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SEEK).putExtra(PowerampAPI.Track.POSITION, position));
-			Log.w(TAG, "sent");
-		} else {
-			Log.w(TAG, "throttled");
-		}
+		mSeekController.flush(); // Send the final position right away when user ends seeking.
+		if(LOG) Log.w(TAG, "onStopTrackingTouch seeks requested=" + mSeekController.getRequestedSeeks() + " saved=" + mSeekController.getSavedSeeks());
 	}
 	
 	
@@ -831,8 +863,18 @@ public class MainActivity extends AppCompatActivity implements
 		mSongSeekBar.setProgress(position);
 	}
 
-	// NOTE: real code should run on some worker thread
+	// NOTE: runs on the worker thread, as the sampler may load the file ids, and the inserts are IPC calls
 	private void createPlaylistAndAddToIt() {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				createPlaylistAndAddToItImpl();
+			}
+		}).start();
+	}
+
+	// Worker thread
+	void createPlaylistAndAddToItImpl() {
 		ContentResolver cr = getContentResolver();
 		Uri playlistsUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("playlists").build();
 
@@ -846,125 +888,316 @@ public class MainActivity extends AppCompatActivity implements
 			Log.w(TAG, "createPlaylistAndAddToIt inserted=" + playlistInsertedUri);
 			
 			// NOTE: we are inserting into /playlists/#/files, playlistInsertedUri (/playlists/#) is not valid for entries insertion
-			Uri playlistEntriesUri = playlistInsertedUri.buildUpon().appendEncodedPath("files").build();
-
-			mLastCreatedPlaylistFilesUri = playlistEntriesUri;
+			final Uri playlistEntriesUri = playlistInsertedUri.buildUpon().appendEncodedPath("files").build();
 
-			// Select up to 10 random files
+			// Select up to 10 random files. The sampler loads the file ids once, instead of sorting the whole table by RANDOM() on each call
 			final int numFilesToInsert = 10;
-			Uri filesUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("files").build();
-			Cursor c = getContentResolver().query(filesUri, new String[]{ TableDefs.Files._ID, TableDefs.Files.NAME }, null, null, "RANDOM() LIMIT " + numFilesToInsert);
+			long[] fileIds = TrackSampler.getInstance(this).sample(numFilesToInsert, false);
 
-			int sort = 0;
+			// Playlist entries are always sorted by "sort" fields. The writer assigns them contiguously, starting from MAX(sort) + 1 of the given playlist,
+			// inserts the entries in chunks and sends single ACTION_RELOAD_DATA with the playlist entries table on commit()
+			EntriesBatchWriter writer = EntriesBatchWriter.forPlaylist(this, ContentUris.parseId(playlistInsertedUri));
+			writer.setStartSort(0); // New playlist, no need to query MAX(sort)
 
-			if(c != null) {
-				while(c.moveToNext()) {
-					long fileId = c.getLong(0);
-					String name = c.getString(1);
+			writer.addAll(fileIds, 0, fileIds.length);
 
-					values.clear();
-					values.put(getRawColName(TableDefs.PlaylistEntries.FOLDER_FILE_ID), fileId);
+			final int inserted = writer.commit();
+			Log.w(TAG, "createPlaylistAndAddToIt inserted entries=" + inserted);
+			runOnUiThread(new Runnable() {
+				@Override
+				public void run() {
+					mLastCreatedPlaylistFilesUri = playlistEntriesUri;
+					Toast.makeText(MainActivity.this, "Inserted files=" + inserted, Toast.LENGTH_SHORT).show();
 
-					// Playlist entries are always sorted by "sort" fields, so if we want them to be in order, we should provide it.
-					// If we're adding entries to existing playlist, it's a good idea to get MAX(sort) first from the given playlist
-
-					values.put(getRawColName(TableDefs.PlaylistEntries.SORT), sort);
+					// Make open playlist button active
+					findViewById(R.id.goto_created_playlist).setEnabled(true);
+				}
+			});
 
-					Uri entryUri = cr.insert(playlistEntriesUri, values);
-					if(entryUri != null) {
-						Log.w(TAG, "createPlaylistAndAddToIt inserted entry fileId=" + fileId + " sort=" + sort + " name=" + name + " entryUri=" + entryUri);
-						sort++;
-					} else {
-						Log.e(TAG, "createPlaylistAndAddToIt FAILED to insert entry fileId=" + fileId);
+		} else {
+			Log.e(TAG, "createPlaylistAndAddToIt FAILED");
+		}
+	}
+	
+	// Sends the same number of commands to the stand-in service via PowerampClient bound channel and via intents.
+	// The service logs the delivery latency and throughput for both, this logs the sending side cost
+	private void commandsBenchmark() {
+		if(mBenchmarkClient == null) {
+			final PowerampClient client = new PowerampClient(this, new ComponentName(this, CommandStandInService.class));
+			client.setCallback(new PowerampClient.ChannelCallback() {
+				@Override
+				public void onChannelChanged(boolean bound) {
+					Log.w(TAG, "commandsBenchmark bound=" + bound);
+					if(bound) {
+						runCommandsBenchmark(client);
 					}
 				}
+			});
+			mBenchmarkClient = client;
+			// NOTE: PowerampClient only binds to the running service, so start the stand-in first
+			startService(new Intent(this, CommandStandInService.class));
+			client.connect();
+		} else if(mBenchmarkClient.isBound()) {
+			runCommandsBenchmark(mBenchmarkClient);
+		} else {
+			startService(new Intent(this, CommandStandInService.class));
+			mBenchmarkClient.connect();
+		}
+	}
 
-				c.close();
+	void runCommandsBenchmark(@NonNull PowerampClient client) {
+		final int count = 1000;
+		ComponentName standIn = new ComponentName(this, CommandStandInService.class);
 
-				Toast.makeText(this, "Inserted files=" + sort, Toast.LENGTH_SHORT).show();
-			}
+		long start = SystemClock.elapsedRealtimeNanos();
+		for(int i = 0; i < count; i++) {
+			client.sendCommand(new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.POS_SYNC)
+					.putExtra(CommandStandInService.EXTRA_BENCH_COUNT, count)
+					.putExtra(CommandStandInService.EXTRA_BENCH_SENT_AT, SystemClock.elapsedRealtimeNanos()));
+		}
+		long binderNs = SystemClock.elapsedRealtimeNanos() - start;
 
-			if(sort > 0) {
-				// Force Poweramp to reload data in UI / PlayerService as we changed something
-				Intent intent = new Intent(PowerampAPI.ACTION_RELOAD_DATA);
-				intent.setPackage(PowerampAPI.PACKAGE_NAME);
-				intent.putExtra(PowerampAPI.PACKAGE, getPackageName());
-				intent.putExtra(PowerampAPI.TABLE, TableDefs.PlaylistEntries.TABLE); // NOTE: important to send changed table for adequate UI / PlayerService reloading
-				sendBroadcast(intent);
+		start = SystemClock.elapsedRealtimeNanos();
+		for(int i = 0; i < count; i++) {
+			startBenchmarkService(new Intent(PowerampAPI.ACTION_API_COMMAND).setComponent(standIn).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.POS_SYNC)
+					.putExtra(CommandStandInService.EXTRA_BENCH_COUNT, count)
+					.putExtra(CommandStandInService.EXTRA_BENCH_SENT_AT, SystemClock.elapsedRealtimeNanos()));
+		}
+		long intentNs = SystemClock.elapsedRealtimeNanos() - start;
+
+		// Typical flow size: OPEN_TO_PLAY, SEEK, SET_EQU_PRESET, SHUFFLE
+		final int batchSize = 4;
+		CommandBatch batch = new CommandBatch();
+		start = SystemClock.elapsedRealtimeNanos();
+		for(int i = 0; i < count; i++) {
+			batch.add(new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.POS_SYNC)
+					.putExtra(CommandStandInService.EXTRA_BENCH_COUNT, count)
+					.putExtra(CommandStandInService.EXTRA_BENCH_SENT_AT, SystemClock.elapsedRealtimeNanos()));
+			if(batch.size() == batchSize || i == count - 1) {
+				startBenchmarkService(batch.toEnvelope().setComponent(standIn));
+				batch.clear();
 			}
+		}
+		long batchNs = SystemClock.elapsedRealtimeNanos() - start;
 
-			// Make open playlist button active
-			findViewById(R.id.goto_created_playlist).setEnabled(true);
+		String res = "binder: " + binderNs / count / 1000 + "us/command, intent: " + intentNs / count / 1000
+				+ "us/command, batch of " + batchSize + ": " + batchNs / count / 1000 + "us/command (sending side)";
+		Log.w(TAG, "runCommandsBenchmark " + res);
+		Toast.makeText(this, res, Toast.LENGTH_LONG).show();
+	}
 
+	// Starts the stand-in the same way PowerampAPIHelper.startPAService() starts Poweramp, so the intent paths include the foreground service start cost
+	private void startBenchmarkService(@NonNull Intent intent) {
+		if(Build.VERSION.SDK_INT >= 26) {
+			startForegroundService(intent);
 		} else {
-			Log.e(TAG, "createPlaylistAndAddToIt FAILED");
+			startService(intent);
 		}
 	}
-	
+
+	private static class FileRow {
+		long id;
+		int duration;
+		int rating;
+		int playedTimes;
+		long albumId;
+		long artistId;
+		String path;
+	}
+
+	// Loads all files with the same projection into one object per row vs. ColumnarTable and logs the time and retained heap for both.
+	// NOTE: real code should run on some worker thread
+	private void columnarBenchmark() {
+		Uri filesUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("files").build();
+		ColumnarTable.Projection projection = new ColumnarTable.Projection();
+		projection.addLong(TableDefs.Files._ID);
+		projection.addInt(TableDefs.Files.DURATION);
+		projection.addInt(TableDefs.Files.RATING);
+		projection.addInt(TableDefs.Files.PLAYED_TIMES);
+		projection.addLong(TableDefs.Files.ALBUM_ID);
+		projection.addLong(TableDefs.Files.ARTIST_ID);
+		projection.addString(TableDefs.Folders.PATH);
+		Runtime rt = Runtime.getRuntime();
+
+		System.gc();
+		long heap = rt.totalMemory() - rt.freeMemory();
+		long start = SystemClock.elapsedRealtimeNanos();
+		ArrayList<FileRow> rows = new ArrayList<>();
+		Cursor c = getContentResolver().query(filesUri, projection.toArray(), null, null, null);
+		if(c != null) {
+			while(c.moveToNext()) {
+				FileRow row = new FileRow();
+				row.id = c.getLong(0);
+				row.duration = c.getInt(1);
+				row.rating = c.getInt(2);
+				row.playedTimes = c.getInt(3);
+				row.albumId = c.getLong(4);
+				row.artistId = c.getLong(5);
+				row.path = c.getString(6);
+				rows.add(row);
+			}
+			c.close();
+		}
+		long rowsNs = SystemClock.elapsedRealtimeNanos() - start;
+		System.gc();
+		long rowsHeap = rt.totalMemory() - rt.freeMemory() - heap;
+		int count = rows.size();
+		rows = null;
+
+		System.gc();
+		heap = rt.totalMemory() - rt.freeMemory();
+		start = SystemClock.elapsedRealtimeNanos();
+		ColumnarTable table = ColumnarTable.query(this, filesUri, projection, null, null, null);
+		long columnarNs = SystemClock.elapsedRealtimeNanos() - start;
+		System.gc();
+		long columnarHeap = rt.totalMemory() - rt.freeMemory() - heap;
+
+		String res = "rows=" + count + " object per row: " + rowsNs / 1000000 + "ms " + rowsHeap / 1024 + "KB, columnar: " + columnarNs / 1000000 + "ms "
+				+ columnarHeap / 1024 + "KB (" + (table != null ? table.getRowCount() : -1) + " rows)";
+		Log.w(TAG, "columnarBenchmark " + res);
+		Toast.makeText(this, res, Toast.LENGTH_LONG).show();
+	}
+
 	private void gotoCreatedPlaylist() {
 		if(mLastCreatedPlaylistFilesUri != null) {
 			startActivity(new Intent(PowerampAPI.ACTION_OPEN_LIBRARY).setData(mLastCreatedPlaylistFilesUri));
 		}
 	}
 
+	// NOTE: runs on the worker thread, as the sampler may load the file ids, and the queue append queries/inserts via IPC
 	private void addToQAndGotoQ() {
-		ContentResolver cr = getContentResolver();
-		Uri queueUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("queue").build();
-		ContentValues values = new ContentValues();
-
-		// Get max sort from queue
-		int maxSort = 0;
-		Cursor c = getContentResolver().query(queueUri, new String[]{ "MAX(" + TableDefs.Queue.SORT + ")" }, null, null, null);
-		if(c != null) {
-			if(c.moveToFirst()) {
-				maxSort = c.getInt(0);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				addToQAndGotoQImpl();
 			}
-			c.close();
-		}
+		}).start();
+	}
 
+	// Worker thread
+	void addToQAndGotoQImpl() {
 		// Select up to 10 random files
 		final int numFilesToInsert = 10;
-		Uri filesUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("files").build();
-		c = getContentResolver().query(filesUri, new String[]{ TableDefs.Files._ID, TableDefs.Files.NAME }, null, null, "RANDOM() LIMIT " + numFilesToInsert);
-
-		int inserted = 0;
+		long[] fileIds = TrackSampler.getInstance(this).sample(numFilesToInsert, false);
 
-		if(c != null) {
-			int sort = maxSort + 1; // Start from maxSort + 1
-			while(c.moveToNext()) {
-				long fileId = c.getLong(0);
-				String name = c.getString(1);
+		// The order manager keeps MAX(queue.sort) between the calls (until Poweramp reports the queue change) and appends the entries with the sort gaps,
+		// so later inserts/moves in this queue part update just one row
+		final EntriesOrderManager.Entries queue = EntriesOrderManager.getInstance(this).getQueue();
+		queue.appendAll(fileIds, 0, fileIds.length);
 
-				values.clear();
-				values.put(getRawColName(TableDefs.Queue.FOLDER_FILE_ID), fileId);
-				values.put(getRawColName(TableDefs.Queue.SORT), sort);
+		// NOTE: commit() sends ACTION_RELOAD_DATA with the queue table. This can also make Poweramp to go to Queue
+		final int inserted = queue.commit();
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				Toast.makeText(MainActivity.this, "Inserted files=" + inserted, Toast.LENGTH_SHORT).show();
 
-				Uri entryUri = cr.insert(queueUri, values);
-				if(entryUri != null) {
-					Log.w(TAG, "addToQAndGotoQ inserted entry fileId=" + fileId + " sort=" + sort + " name=" + name + " entryUri=" + entryUri);
-					sort++;
-					inserted++;
-				} else {
-					Log.e(TAG, "addToQAndGotoQ FAILED to insert entry fileId=" + fileId);
+				if(inserted > 0) {
+					startActivity(new Intent(PowerampAPI.ACTION_OPEN_LIBRARY).setData(queue.getUri()));
 				}
 			}
+		});
+	}
 
-			c.close();
+	// Appends the next files of the client side shuffle of all files to the queue. The shuffle order is computed per position, so it's enough to keep
+	// the seed and the position to continue the same shuffle on the next press. The ids are taken from TrackSampler cached id ranges, so the files
+	// are queried only once, until the library changes.
+	// NOTE: runs on the worker thread, as the first press (or the press after the library change) loads the ids
+	private void shuffleToQueue() {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final int inserted = shuffleToQueueImpl(100);
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						Toast.makeText(MainActivity.this, "Inserted files=" + inserted, Toast.LENGTH_SHORT).show();
+					}
+				});
+			}
+		}).start();
+	}
+
+	// Worker thread
+	synchronized int shuffleToQueueImpl(int numFilesToInsert) {
+		ShufflePermutation.Ids ids = TrackSampler.getInstance(this).getIds(TrackSampler.FILES_URI);
+		if(ids == null) {
+			return 0;
+		}
+
+		ShufflePermutation shuffle = mShuffle;
+		if(shuffle == null || ids != mShuffleIds || !shuffle.hasNext()) {
+			// New or changed library - new shuffle
+			mShuffle = shuffle = new ShufflePermutation(ids.size(), ShufflePermutation.newSeed());
+			mShuffleIds = ids;
+		}
+
+		EntriesBatchWriter writer = EntriesBatchWriter.forQueue(this);
+		shuffle.writeTo(writer, ids, numFilesToInsert);
+		int inserted = writer.commit();
+		Log.w(TAG, "shuffleToQueue inserted=" + inserted + " seed=" + shuffle.getSeed() + " position=" + shuffle.getPosition());
+		return inserted;
+	}
+
+	// Inserts the same entries into two new playlists, one row per insert() call vs. EntriesBatchWriter chunks, and logs rows/second for both.
+	// NOTE: real code should run on some worker thread
+	private void insertBenchmark() {
+		final int count = 5000;
+		ContentResolver cr = getContentResolver();
 
-			Toast.makeText(this, "Inserted files=" + sort, Toast.LENGTH_SHORT).show();
+		Uri filesUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("files").build();
+		long[] fileIds = new long[count];
+		int fileCount = 0;
+		Cursor c = cr.query(filesUri, new String[]{ TableDefs.Files._ID }, null, null, TableDefs.Files._ID + " LIMIT " + count);
+		if(c != null) {
+			while(c.moveToNext()) {
+				fileIds[fileCount++] = c.getLong(0);
+			}
+			c.close();
+		}
+		if(fileCount == 0) {
+			Toast.makeText(this, "No files", Toast.LENGTH_SHORT).show();
+			return;
+		}
+		// Repeat the files if the library is smaller than count
+		for(int i = fileCount; i < count; i++) {
+			fileIds[i] = fileIds[i % fileCount];
 		}
 
-		if(inserted > 0) {
-			// Force Poweramp to reload data in UI / PlayerService as we changed something
-			Intent intent = new Intent(PowerampAPI.ACTION_RELOAD_DATA);
-			intent.setPackage(PowerampAPI.PACKAGE_NAME);
-			intent.putExtra(PowerampAPI.PACKAGE, getPackageName());
-			intent.putExtra(PowerampAPI.TABLE, TableDefs.Queue.TABLE); // NOTE: important to send changed table for adequate UI / PlayerService reloading. This can also make Poweramp to go to Queue
-			sendBroadcast(intent);
+		Uri playlistsUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("playlists").build();
+		ContentValues values = new ContentValues();
 
-			startActivity(new Intent(PowerampAPI.ACTION_OPEN_LIBRARY).setData(queueUri));
+		values.put(getRawColName(TableDefs.Playlists.PLAYLIST), "Insert Benchmark Rows " + System.currentTimeMillis());
+		Uri rowsPlaylistUri = cr.insert(playlistsUri, values);
+		values.clear();
+		values.put(getRawColName(TableDefs.Playlists.PLAYLIST), "Insert Benchmark Batch " + System.currentTimeMillis());
+		Uri batchPlaylistUri = cr.insert(playlistsUri, values);
+		if(rowsPlaylistUri == null || batchPlaylistUri == null) {
+			Log.e(TAG, "insertBenchmark FAILED to create playlists");
+			return;
 		}
 
+		Uri rowsEntriesUri = rowsPlaylistUri.buildUpon().appendEncodedPath("files").build();
+		long start = SystemClock.elapsedRealtimeNanos();
+		for(int i = 0; i < count; i++) {
+			values.clear();
+			values.put(getRawColName(TableDefs.PlaylistEntries.FOLDER_FILE_ID), fileIds[i]);
+			values.put(getRawColName(TableDefs.PlaylistEntries.SORT), i);
+			cr.insert(rowsEntriesUri, values);
+		}
+		long rowsNs = SystemClock.elapsedRealtimeNanos() - start;
+
+		start = SystemClock.elapsedRealtimeNanos();
+		EntriesBatchWriter writer = EntriesBatchWriter.forPlaylist(this, ContentUris.parseId(batchPlaylistUri));
+		writer.setStartSort(0);
+		writer.addAll(fileIds, 0, count);
+		writer.commit();
+		long batchNs = SystemClock.elapsedRealtimeNanos() - start;
+
+		String res = "insert(): " + count * 1000000000L / Math.max(1, rowsNs) + " rows/s, batch writer: " + count * 1000000000L / Math.max(1, batchNs)
+				+ " rows/s (" + writer.getProviderCalls() + " provider calls)";
+		Log.w(TAG, "insertBenchmark " + res);
+		Toast.makeText(this, res, Toast.LENGTH_LONG).show();
 	}
 
 
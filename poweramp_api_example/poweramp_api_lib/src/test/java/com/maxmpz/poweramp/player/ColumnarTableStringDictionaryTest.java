@@ -0,0 +1,88 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.HashMap;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class ColumnarTableStringDictionaryTest {
+
+	@Test
+	public void sameStringSameCode() {
+		ColumnarTable.StringDictionary dictionary = new ColumnarTable.StringDictionary();
+		assertEquals(0, encode(dictionary, "Rock"));
+		assertEquals(1, encode(dictionary, "Jazz"));
+		assertEquals(0, encode(dictionary, "Rock"));
+		assertEquals(2, encode(dictionary, "")); // Empty string is a regular value
+		assertEquals(2, encode(dictionary, ""));
+		assertEquals("Jazz", dictionary.get(1));
+		assertEquals(3, dictionary.toArray().length);
+	}
+
+	@Test
+	public void encodesOnlyTheGivenLength() {
+		ColumnarTable.StringDictionary dictionary = new ColumnarTable.StringDictionary();
+		char[] buffer = "Rock and Roll".toCharArray();
+		assertEquals(0, dictionary.encode(buffer, 4));
+		assertEquals(0, encode(dictionary, "Rock"));
+		assertEquals(1, dictionary.encode(buffer, buffer.length));
+		assertEquals("Rock and Roll", dictionary.get(1));
+	}
+
+	@Test
+	public void hashCollisions() {
+		// "Aa" and "BB" have the same String.hashCode()
+		ColumnarTable.StringDictionary dictionary = new ColumnarTable.StringDictionary();
+		assertEquals(0, encode(dictionary, "Aa"));
+		assertEquals(1, encode(dictionary, "BB"));
+		assertEquals(0, encode(dictionary, "Aa"));
+		assertEquals(1, encode(dictionary, "BB"));
+	}
+
+	@Test
+	public void growsAndMatchesHashMap() {
+		ColumnarTable.StringDictionary dictionary = new ColumnarTable.StringDictionary();
+		HashMap<String, Integer> expected = new HashMap<>();
+		Random random = new Random(1);
+		for(int i = 0; i < 20000; i++) {
+			String value = "artist" + random.nextInt(3000);
+			Integer code = expected.get(value);
+			if(code == null) {
+				code = expected.size();
+				expected.put(value, code);
+			}
+			assertEquals((int)code, encode(dictionary, value));
+		}
+		String[] values = dictionary.toArray();
+		assertEquals(expected.size(), values.length);
+		for(int code = 0; code < values.length; code++) {
+			assertEquals(code, (int)expected.get(values[code]));
+		}
+	}
+
+	private static int encode(ColumnarTable.StringDictionary dictionary, String value) {
+		return dictionary.encode(value.toCharArray(), value.length());
+	}
+}
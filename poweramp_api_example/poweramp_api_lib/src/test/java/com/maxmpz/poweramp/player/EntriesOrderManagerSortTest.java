@@ -0,0 +1,120 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class EntriesOrderManagerSortTest {
+	private static final int GAP = EntriesOrderManager.DEFAULT_GAP;
+
+	@Test
+	public void appendAfterLast() {
+		int[] sorts = { 1024, 2048 };
+		assertEquals(3072, EntriesOrderManager.findFreeSort(sorts, 2, 2, -1, GAP));
+		assertEquals(GAP, EntriesOrderManager.findFreeSort(new int[0], 0, 0, -1, GAP)); // Empty list
+	}
+
+	@Test
+	public void insertBetweenNeighbours() {
+		int[] sorts = { 1024, 2048, 2050 };
+		assertEquals(512, EntriesOrderManager.findFreeSort(sorts, 3, 0, -1, GAP)); // Before the first, above 0
+		assertEquals(1536, EntriesOrderManager.findFreeSort(sorts, 3, 1, -1, GAP));
+		assertEquals(2049, EntriesOrderManager.findFreeSort(sorts, 3, 2, -1, GAP)); // The last free sort
+	}
+
+	@Test
+	public void noFreeSort() {
+		int[] sorts = { 1, 2, 3 };
+		assertEquals(EntriesOrderManager.NO_SORT, EntriesOrderManager.findFreeSort(sorts, 3, 0, -1, GAP));
+		assertEquals(EntriesOrderManager.NO_SORT, EntriesOrderManager.findFreeSort(sorts, 3, 1, -1, GAP));
+		assertEquals(EntriesOrderManager.NO_SORT,
+				EntriesOrderManager.findFreeSort(new int[] { EntriesOrderManager.MAX_SORT - 10 }, 1, 1, -1, GAP)); // Append overflow
+	}
+
+	@Test
+	public void moveSkipsTheMovedEntry() {
+		int[] sorts = { 1024, 2048, 3072, 4096 };
+		// Move 0 => 2: between 3072 and 4096, as the positions are counted without the moved entry
+		assertEquals(3584, EntriesOrderManager.findFreeSort(sorts, 4, 2, 0, GAP));
+		// Move 3 => 0: between 0 and 1024
+		assertEquals(512, EntriesOrderManager.findFreeSort(sorts, 4, 0, 3, GAP));
+		// Move 1 => 3 (last): after 4096
+		assertEquals(4096 + GAP, EntriesOrderManager.findFreeSort(sorts, 4, 3, 1, GAP));
+		// Move 2 => 2 (same place): between its own neighbours
+		assertEquals(3072, EntriesOrderManager.findFreeSort(sorts, 4, 2, 2, GAP));
+	}
+
+	@Test
+	public void rebalanceStep() {
+		assertEquals(GAP, EntriesOrderManager.getRebalanceStep(GAP, 1000, 0));
+		int step = EntriesOrderManager.getRebalanceStep(GAP, 10000000, 10);
+		assertTrue(step < GAP && step >= 2);
+		assertTrue((long)(10000000 + 10) * step <= EntriesOrderManager.MAX_SORT);
+		assertTrue(EntriesOrderManager.getRebalanceStep(GAP, Integer.MAX_VALUE / 2, 0) < 2);
+	}
+
+	@Test
+	public void rebalanceWritesChangedRowsOnly() {
+		int[] sorts = { 1024, 1025, 3072, 5000 };
+		int[] positions = new int[sorts.length];
+		int count = EntriesOrderManager.getRebalanceWrites(sorts, sorts.length, GAP, positions);
+		assertEquals(2, count);
+		assertEquals(3, positions[0]); // 5000 => 4096, down
+		assertEquals(1, positions[1]); // 1025 => 2048, up
+	}
+
+	@Test
+	public void rebalanceKeepsOrderAfterEachWrite() {
+		Random random = new Random(1);
+		for(int test = 0; test < 1000; test++) {
+			int size = 1 + random.nextInt(50);
+			int[] sorts = new int[size];
+			int sort = random.nextInt(3);
+			for(int i = 0; i < size; i++) {
+				// Contiguous, gapped and exhausted parts, with some equal sorts
+				int kind = random.nextInt(4);
+				sort += kind == 0 ? 0 : kind == 1 ? 1 : kind == 2 ? random.nextInt(2 * GAP) : random.nextInt(5 * GAP);
+				sorts[i] = sort;
+			}
+			int step = EntriesOrderManager.getRebalanceStep(GAP, size, random.nextInt(3));
+			int[] positions = new int[size];
+			int count = EntriesOrderManager.getRebalanceWrites(sorts, size, step, positions);
+
+			int[] current = sorts.clone();
+			for(int j = 0; j < count; j++) {
+				int i = positions[j];
+				current[i] = (i + 1) * step;
+				// The written row is strictly between its neighbours, so a failure after any write keeps the list order
+				assertTrue("test=" + test + " sorts=" + Arrays.toString(sorts) + " write=" + j,
+						(i == 0 || current[i - 1] < current[i]) && (i == size - 1 || current[i] < current[i + 1]));
+			}
+			for(int i = 0; i < size; i++) {
+				assertEquals((i + 1) * step, current[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class EqPresetCodecTest {
+
+	@Test
+	public void parse() {
+		EqPreset preset = new EqPreset();
+		assertEquals(5, EqPresetCodec.parse("preamp=1.5;bass=0.25;treble=0;31=-0.5;16K=1.0;", preset));
+		assertEquals(1.5f, preset.getPreamp(), 0f);
+		assertEquals(0.25f, preset.getBass(), 0f);
+		assertEquals(0f, preset.getTreble(), 0f);
+		assertTrue(preset.hasPreamp());
+		assertTrue(preset.hasTone());
+		assertEquals(2, preset.getBandCount());
+		assertEquals("31", preset.getName(3));
+		assertEquals(-0.5f, preset.getValue(3), 0f);
+		assertEquals(EqPreset.TYPE_BAND, preset.getType(4));
+	}
+
+	@Test
+	public void parseAcceptsPipeSeparatorAndNoTrailingSeparator() {
+		EqPreset preset = new EqPreset();
+		assertEquals(2, EqPresetCodec.parse("62=0.1|125=-0.2", preset));
+		assertEquals(0.1f, preset.getValue(0), 1e-6f);
+		assertEquals(-0.2f, preset.getValue(1), 1e-6f);
+	}
+
+	@Test
+	public void parseSkipsMalformedEntries() {
+		EqPreset preset = new EqPreset();
+		assertEquals(2, EqPresetCodec.parse(";=1;31=;62=x;125=0.5;noequals;;250=-1", preset));
+		assertEquals("125", preset.getName(0));
+		assertEquals("250", preset.getName(1));
+	}
+
+	@Test
+	public void parseClearsAndClamps() {
+		EqPreset preset = new EqPreset();
+		EqPresetCodec.parse("31=0.5;62=0.5", preset);
+		assertEquals(2, EqPresetCodec.parse("preamp=5;31=-3", preset));
+		assertEquals(EqPreset.getMaxValue(EqPreset.TYPE_PREAMP), preset.getPreamp(), 0f);
+		assertEquals(EqPreset.getMinValue(EqPreset.TYPE_BAND), preset.getValue(1), 0f);
+		assertEquals(0, EqPresetCodec.parse(null, preset));
+		assertEquals(0, preset.getCount());
+	}
+
+	@Test
+	public void parseInternsNames() {
+		EqPreset preset1 = new EqPreset();
+		EqPreset preset2 = new EqPreset();
+		EqPresetCodec.parse(new StringBuilder("customBand=0.5"), preset1);
+		EqPresetCodec.parse("customBand=0.25", preset2);
+		assertSame(preset1.getName(0), preset2.getName(0));
+		EqPresetCodec.parse("bass=0.25", preset2);
+		assertSame(EqPreset.BASS, preset2.getName(0));
+	}
+
+	@Test
+	public void parseFloat() {
+		assertEquals(0f, parseFloat("0"), 0f);
+		assertEquals(-0.5f, parseFloat("-0.5"), 0f);
+		assertEquals(0.5f, parseFloat("+.5"), 0f);
+		assertEquals(2f, parseFloat("2."), 0f);
+		assertEquals(0.333333f, parseFloat(" 0.333333 "), 0f);
+		assertEquals(1.5e-3f, parseFloat("1.5e-3"), 0f);
+		assertEquals(1200f, parseFloat("1.2E+3"), 0f);
+		assertEquals(0.1f, parseFloat("0.1000000000000000000000001"), 0f);
+		assertTrue(Float.isNaN(parseFloat("")));
+		assertTrue(Float.isNaN(parseFloat("-")));
+		assertTrue(Float.isNaN(parseFloat(".")));
+		assertTrue(Float.isNaN(parseFloat("1e")));
+		assertTrue(Float.isNaN(parseFloat("1.2.3")));
+		assertTrue(Float.isNaN(parseFloat("0x10")));
+	}
+
+	@Test
+	public void parseFloatRange() {
+		assertEquals(0.75f, EqPresetCodec.parseFloat("a=0.75;", 2, 6), 0f);
+	}
+
+	@Test
+	public void appendFloat() {
+		assertEquals("1.0", appendFloat(1f));
+		assertEquals("0.0", appendFloat(0f));
+		assertEquals("-0.25", appendFloat(-0.25f));
+		assertEquals("0.05", appendFloat(0.05f));
+		assertEquals("0.000001", appendFloat(0.000001f));
+		assertEquals("0.333333", appendFloat(1f / 3));
+		assertEquals("0.0", appendFloat(Float.NaN));
+		assertEquals("0.0", appendFloat(Float.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void roundTrip() {
+		String s = "preamp=1.25;bass=0.5;treble=0.0;31=-1.0;62=0.333333;125=0.05;";
+		EqPreset preset = new EqPreset();
+		EqPresetCodec.parse(s, preset);
+		assertEquals(s, EqPresetCodec.toString(preset));
+
+		EqPreset parsed = new EqPreset();
+		EqPresetCodec.parse(EqPresetCodec.toString(preset), parsed);
+		assertTrue(preset.contentEquals(parsed));
+		parsed.setValue(3, 0.5f);
+		assertFalse(preset.contentEquals(parsed));
+	}
+
+	private static float parseFloat(String s) {
+		return EqPresetCodec.parseFloat(s, 0, s.length());
+	}
+
+	private static String appendFloat(float value) {
+		StringBuilder sb = new StringBuilder();
+		EqPresetCodec.appendFloat(sb, value);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+public class EqResponseCalculatorTest {
+	private static final String BANDS = "preamp=1;bass=0;treble=0;31=0;62=0;125=0;250=0;500=0;1K=0;2K=0;4K=0;8K=0;16K=0";
+	private static final int SAMPLE_RATE = 48000;
+
+	@Test
+	public void parseBandFreq() {
+		assertEquals(62f, EqResponseCalculator.parseBandFreq("62"), 0f);
+		assertEquals(1000f, EqResponseCalculator.parseBandFreq("1K"), 0f);
+		assertEquals(1600f, EqResponseCalculator.parseBandFreq("1.6k"), 0.01f);
+		assertEquals(0f, EqResponseCalculator.parseBandFreq("preamp"), 0f);
+		assertEquals(0f, EqResponseCalculator.parseBandFreq(""), 0f);
+	}
+
+	@Test
+	public void flatPresetIsFlat() {
+		EqResponseCalculator calculator = new EqResponseCalculator(64, 20, 20000, SAMPLE_RATE);
+		float[] response = calculator.update(parse(BANDS));
+		assertSame(calculator.getResponseDb(), response);
+		assertEquals(64, calculator.getFrequencies().length);
+		assertEquals(20f, calculator.getFrequencies()[0], 0.01f);
+		assertEquals(20000f, calculator.getFrequencies()[63], 1f);
+		for(float db : response) {
+			assertEquals(0f, db, 1e-4f);
+		}
+	}
+
+	@Test
+	public void bandGainAtBandFrequency() {
+		// The peaking filter gain at its center frequency is exactly the band gain
+		EqResponseCalculator calculator = new EqResponseCalculator(1, 1000, 1000, SAMPLE_RATE);
+		EqPreset preset = parse(BANDS);
+		preset.put("1K", 0.5f);
+		assertEquals(0.5f * EqResponseCalculator.DEFAULT_MAX_BAND_GAIN_DB, calculator.update(preset)[0], 0.05f);
+
+		calculator.setMaxGain(10, 10);
+		assertEquals(5f, calculator.update(preset)[0], 0.05f);
+	}
+
+	@Test
+	public void preampIsFlatGain() {
+		EqResponseCalculator calculator = new EqResponseCalculator(16, 20, 20000, SAMPLE_RATE);
+		EqPreset preset = parse(BANDS);
+		preset.setPreamp(2f);
+		for(float db : calculator.update(preset)) {
+			assertEquals(6.02f, db, 0.01f);
+		}
+	}
+
+	@Test
+	public void bassShelf() {
+		EqResponseCalculator calculator = new EqResponseCalculator(2, 20, 16000, SAMPLE_RATE);
+		EqPreset preset = parse(BANDS);
+		preset.setBass(1f);
+		float[] response = calculator.update(preset);
+		assertEquals(EqResponseCalculator.DEFAULT_MAX_TONE_GAIN_DB, response[0], 0.5f);
+		assertEquals(0f, response[1], 0.1f);
+	}
+
+	@Test
+	public void incrementalUpdateMatchesFullRecompute() {
+		EqResponseCalculator calculator = new EqResponseCalculator(128, 20, 20000, SAMPLE_RATE);
+		EqPreset preset = parse(BANDS);
+		calculator.update(preset);
+		Random random = new Random(1);
+		for(int i = 0; i < 500; i++) {
+			int ix = random.nextInt(preset.getCount());
+			float prevValue = preset.getValue(ix);
+			preset.setValue(ix, random.nextFloat() * 2 - 1); // NOTE: clamped, so may be unchanged for preamp/tone
+
+			int recomputes = calculator.getCurveRecomputes();
+			float[] incremental = calculator.update(preset);
+			if(preset.getType(ix) != EqPreset.TYPE_PREAMP && preset.getValue(ix) != prevValue) {
+				assertEquals(recomputes + 1, calculator.getCurveRecomputes()); // Only the changed entry is recomputed
+			}
+
+			float[] full = new EqResponseCalculator(128, 20, 20000, SAMPLE_RATE).update(preset);
+			for(int p = 0; p < full.length; p++) {
+				assertEquals("i=" + i + " p=" + p, full[p], incremental[p], 0.01f);
+			}
+		}
+	}
+
+	@Test
+	public void unchangedPresetRecomputesNothing() {
+		EqResponseCalculator calculator = new EqResponseCalculator(32, 20, 20000, SAMPLE_RATE);
+		EqPreset preset = parse(BANDS);
+		calculator.update(preset);
+		int recomputes = calculator.getCurveRecomputes();
+		calculator.update(parse(BANDS)); // Same layout, as the names are interned
+		assertEquals(recomputes, calculator.getCurveRecomputes());
+	}
+
+	private static EqPreset parse(String s) {
+		EqPreset preset = new EqPreset();
+		EqPresetCodec.parse(s, preset);
+		return preset;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void empty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 0; i < LatencyHistogram.SUB_BUCKETS; i++) {
+			histogram.record(i);
+		}
+		assertEquals(LatencyHistogram.SUB_BUCKETS, histogram.getTotalCount());
+		assertEquals(0, histogram.getValueAtPercentile(0));
+		assertEquals(7, histogram.getValueAtPercentile(50));
+		assertEquals(LatencyHistogram.SUB_BUCKETS - 1, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void bucketsCoverAllValues() {
+		// Each value falls into the bucket whose range contains it, and the buckets are contiguous
+		long prevHighest = -1;
+		for(int index = 0; index <= LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE); index++) {
+			long lowest = LatencyHistogram.lowestValueAt(index);
+			long highest = LatencyHistogram.highestValueAt(index);
+			assertEquals(prevHighest + 1, lowest);
+			assertTrue(highest >= lowest);
+			assertEquals(index, LatencyHistogram.indexOf(lowest));
+			assertEquals(index, LatencyHistogram.indexOf(highest));
+			prevHighest = highest;
+		}
+		assertEquals(LatencyHistogram.MAX_VALUE, prevHighest);
+	}
+
+	@Test
+	public void relativePrecision() {
+		for(long value = LatencyHistogram.SUB_BUCKETS; value < LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1) {
+			int index = LatencyHistogram.indexOf(value);
+			long width = LatencyHistogram.highestValueAt(index) - LatencyHistogram.lowestValueAt(index) + 1;
+			assertTrue("value=" + value + " width=" + width, (double)width / value <= 1.0 / LatencyHistogram.SUB_BUCKETS);
+		}
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i = 1; i <= 1000; i++) {
+			histogram.record(i * 100); // 100us..100ms
+		}
+		assertEquals(1000, histogram.getTotalCount());
+		assertEquals(100, histogram.getMin());
+		assertEquals(100000, histogram.getMax());
+		assertEquals(50050, histogram.getMean());
+		assertWithin(50000, histogram.getValueAtPercentile(50));
+		assertWithin(90000, histogram.getValueAtPercentile(90));
+		assertWithin(99000, histogram.getValueAtPercentile(99));
+		assertEquals(100000, histogram.getValueAtPercentile(100)); // Capped by max
+	}
+
+	@Test
+	public void clampsOutOfRangeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(0, histogram.getMin());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+		assertWithin(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void reset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(1000);
+		histogram.reset();
+		assertEquals(0, histogram.getTotalCount());
+		assertEquals(0, histogram.getMax());
+		histogram.record(10);
+		assertEquals(10, histogram.getMin());
+		assertEquals(10, histogram.getValueAtPercentile(50));
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("expected=" + expected + " actual=" + actual, Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+	}
+}
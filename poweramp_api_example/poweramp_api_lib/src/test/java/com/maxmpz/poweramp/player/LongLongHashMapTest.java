@@ -0,0 +1,119 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class LongLongHashMapTest {
+	private static final long NO_VALUE = -1;
+
+	@Test
+	public void putGetRemove() {
+		LongLongHashMap map = new LongLongHashMap(0, NO_VALUE);
+		assertEquals(NO_VALUE, map.get(1));
+		assertFalse(map.containsKey(1));
+
+		assertEquals(NO_VALUE, map.put(1, 10));
+		assertEquals(NO_VALUE, map.put(0, 20)); // Zero key is a regular key
+		assertEquals(10, map.put(1, 11));
+		assertEquals(2, map.size());
+		assertEquals(11, map.get(1));
+		assertEquals(20, map.get(0));
+		assertTrue(map.containsKey(0));
+
+		assertEquals(11, map.remove(1));
+		assertEquals(NO_VALUE, map.remove(1));
+		assertEquals(1, map.size());
+		assertEquals(NO_VALUE, map.get(1));
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertFalse(map.containsKey(0));
+		assertEquals(NO_VALUE, map.getNoValue());
+	}
+
+	@Test
+	public void growsBeyondExpectedSize() {
+		LongLongHashMap map = new LongLongHashMap(4, NO_VALUE);
+		for(long id = 1; id <= 10000; id++) {
+			map.put(id, id * 2);
+		}
+		assertEquals(10000, map.size());
+		for(long id = 1; id <= 10000; id++) {
+			assertEquals(id * 2, map.get(id));
+		}
+		assertEquals(NO_VALUE, map.get(10001));
+	}
+
+	@Test
+	public void randomOperationsMatchHashMap() {
+		// Small key range, so the probe chains collide and the removals shift the entries back
+		Random random = new Random(1);
+		LongLongHashMap map = new LongLongHashMap(16, NO_VALUE);
+		HashMap<Long, Long> expected = new HashMap<>();
+		for(int i = 0; i < 200000; i++) {
+			long key = random.nextInt(300) - 100;
+			int op = random.nextInt(3);
+			if(op == 0) {
+				Long prev = expected.remove(key);
+				assertEquals(prev != null ? prev : NO_VALUE, map.remove(key));
+			} else if(op == 1) {
+				long value = random.nextLong();
+				Long prev = expected.put(key, value);
+				assertEquals(prev != null ? prev : NO_VALUE, map.put(key, value));
+			} else {
+				Long value = expected.get(key);
+				assertEquals(value != null ? value : NO_VALUE, map.get(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for(Map.Entry<Long, Long> entry : expected.entrySet()) {
+			assertEquals((long)entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	public void forEach() {
+		LongLongHashMap map = new LongLongHashMap(0, NO_VALUE);
+		for(long id = 1; id <= 100; id++) {
+			map.put(id, id + 1000);
+		}
+		map.remove(50);
+		final HashMap<Long, Long> visited = new HashMap<>();
+		map.forEach(new LongLongHashMap.Visitor() {
+			@Override
+			public void visit(long key, long value) {
+				assertEquals(null, visited.put(key, value));
+			}
+		});
+		assertEquals(99, visited.size());
+		assertFalse(visited.containsKey(50L));
+		assertEquals(1001L, (long)visited.get(1L));
+	}
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class PositionSyncEstimatorTest {
+	private static final long WALL_OFFSET = 1500000000000L;
+
+	@Test
+	public void noSyncs() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		assertEquals(-1, estimator.getPositionMs(1000));
+		assertEquals(Integer.MAX_VALUE, estimator.estimateErrorMs(1000));
+	}
+
+	@Test
+	public void firstSyncIsWindowMiddlePlusLatency() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		long now = 1000;
+		long position = estimator.onSync(10000, WALL_OFFSET + now - 50, now, WALL_OFFSET + now);
+		assertEquals(50, estimator.getLatencyMs(), 0.001f);
+		assertEquals(10000 + 50 + 500, position);
+		assertEquals(position + 200, estimator.getPositionMs(now + 200));
+	}
+
+	@Test
+	public void roundTripLatencyWithoutTimestamp() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		estimator.onSyncRequested(900);
+		estimator.onSync(10000, 0, 1000, WALL_OFFSET + 1000);
+		assertEquals(50, estimator.getLatencyMs(), 0.001f); // Half of the round trip
+	}
+
+	@Test
+	public void bogusLatencyIgnored() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		estimator.onSync(10000, WALL_OFFSET - 5000, 1000, WALL_OFFSET + 1000);
+		assertEquals(0, estimator.getLatencyMs(), 0.001f);
+	}
+
+	@Test
+	public void syncsNarrowTheWindow() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		long startTime = 1000;
+		long startPositionMs = 10300; // Real position, Poweramp reports it in whole seconds
+		int firstError = 0;
+		for(int i = 0; i < 10; i++) {
+			long now = startTime + i * 1300;
+			long realPositionMs = startPositionMs + now - startTime;
+			estimator.onSync(realPositionMs / 1000 * 1000, WALL_OFFSET + now, now, WALL_OFFSET + now);
+			if(i == 0) {
+				firstError = estimator.estimateErrorMs(now);
+			}
+		}
+		long now = startTime + 9 * 1300;
+		long realPositionMs = startPositionMs + now - startTime;
+		assertEquals(500, firstError);
+		assertTrue("error=" + estimator.estimateErrorMs(now), estimator.estimateErrorMs(now) < 200);
+		assertTrue("estimated=" + estimator.getPositionMs(now) + " real=" + realPositionMs,
+				Math.abs(estimator.getPositionMs(now) - realPositionMs) <= estimator.estimateErrorMs(now));
+		assertEquals(0, estimator.getWindowResets());
+	}
+
+	@Test
+	public void jumpResetsTheWindow() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		estimator.onSync(10000, WALL_OFFSET + 1000, 1000, WALL_OFFSET + 1000);
+		estimator.onSync(11000, WALL_OFFSET + 2000, 2000, WALL_OFFSET + 2000);
+		long position = estimator.onSync(60000, WALL_OFFSET + 3000, 3000, WALL_OFFSET + 3000); // E.g. seek in Poweramp UI
+		assertEquals(1, estimator.getWindowResets());
+		assertEquals(60500, position);
+		assertEquals(3, estimator.getSyncs());
+	}
+
+	@Test
+	public void resetForgetsTheWindow() {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		estimator.onSync(10000, WALL_OFFSET + 1000, 1000, WALL_OFFSET + 1000);
+		estimator.reset();
+		assertEquals(-1, estimator.getPositionMs(2000));
+		// No window to intersect with, so no reset is counted for the new position
+		estimator.onSync(60000, WALL_OFFSET + 2000, 2000, WALL_OFFSET + 2000);
+		assertEquals(0, estimator.getWindowResets());
+	}
+
+	@Test
+	public void driftEstimated() {
+		assertEquals(0.001f, estimateDrift(0.001), 0.0003f);
+		assertEquals(-0.001f, estimateDrift(-0.001), 0.0003f);
+		assertEquals(0, estimateDrift(0), 0.0003f);
+	}
+
+	private static float estimateDrift(double realDrift) {
+		PositionSyncEstimator estimator = new PositionSyncEstimator();
+		long startTime = 1000;
+		for(int i = 0; i < 200; i++) {
+			long now = startTime + i * 1300;
+			long realPositionMs = 10300 + Math.round((now - startTime) * (1 + realDrift));
+			estimator.onSync(realPositionMs / 1000 * 1000, WALL_OFFSET + now, now, WALL_OFFSET + now);
+		}
+		assertEquals(0, estimator.getWindowResets());
+		return estimator.getDrift();
+	}
+}
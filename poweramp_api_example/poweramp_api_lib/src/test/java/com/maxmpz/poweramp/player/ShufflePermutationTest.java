@@ -0,0 +1,126 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ShufflePermutationTest {
+
+	@Test
+	public void isPermutation() {
+		for(int size : new int[] { 1, 2, 3, 5, 16, 17, 1000, 65537 }) {
+			ShufflePermutation shuffle = new ShufflePermutation(size, 12345);
+			boolean[] seen = new boolean[size];
+			for(int position = 0; position < size; position++) {
+				int index = shuffle.get(position);
+				assertFalse("size=" + size + " index=" + index, seen[index]);
+				seen[index] = true;
+				assertEquals(position, shuffle.indexOf(index));
+			}
+		}
+	}
+
+	@Test
+	public void definedBySizeAndSeed() {
+		int size = 100;
+		int[] order1 = order(new ShufflePermutation(size, 1));
+		assertTrue(Arrays.equals(order1, order(new ShufflePermutation(size, 1))));
+		assertFalse(Arrays.equals(order1, order(new ShufflePermutation(size, 2))));
+
+		int[] identity = new int[size];
+		for(int i = 0; i < size; i++) {
+			identity[i] = i;
+		}
+		assertFalse(Arrays.equals(identity, order1));
+	}
+
+	@Test
+	public void firstIndexIsUniform() {
+		int size = 10;
+		int seeds = 20000;
+		int[] counts = new int[size];
+		for(int seed = 0; seed < seeds; seed++) {
+			counts[new ShufflePermutation(size, seed).get(0)]++;
+		}
+		for(int count : counts) {
+			assertTrue("counts=" + Arrays.toString(counts), Math.abs(count - seeds / size) < seeds / size / 5);
+		}
+	}
+
+	@Test
+	public void navigation() {
+		ShufflePermutation shuffle = new ShufflePermutation(3, 7);
+		assertEquals(-1, shuffle.getPosition());
+		assertFalse(shuffle.hasPrevious());
+		int first = shuffle.next();
+		int second = shuffle.next();
+		int third = shuffle.next();
+		assertEquals(2, shuffle.getPosition());
+		assertFalse(shuffle.hasNext());
+		assertTrue(shuffle.hasPrevious());
+		assertEquals(second, shuffle.previous());
+		assertEquals(first, shuffle.previous());
+		assertFalse(shuffle.hasPrevious());
+
+		// Resumed from the stored seed + position
+		ShufflePermutation resumed = new ShufflePermutation(3, shuffle.getSeed());
+		resumed.setPosition(1);
+		assertEquals(third, resumed.next());
+	}
+
+	@Test
+	public void empty() {
+		ShufflePermutation shuffle = new ShufflePermutation(0, 1);
+		assertFalse(shuffle.hasNext());
+		assertEquals(0, shuffle.getSize());
+		try {
+			shuffle.get(0);
+			fail();
+		} catch(IndexOutOfBoundsException ex) {
+			// Expected
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void positionOutOfRange() {
+		new ShufflePermutation(10, 1).setPosition(10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeSize() {
+		new ShufflePermutation(-1, 1);
+	}
+
+	private static int[] order(ShufflePermutation shuffle) {
+		int[] order = new int[shuffle.getSize()];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = shuffle.get(i);
+		}
+		return order;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TrackSamplerIdRangesTest {
+	private static final String[] TABLES = { TableDefs.Files.TABLE };
+
+	@Test
+	public void fromIds() {
+		TrackSampler.IdRanges ranges = TrackSampler.IdRanges.fromIds(new long[] { 12, 3, 1, 2, 10, 11, 20 }, TABLES);
+		assertEquals(7, ranges.size());
+		assertEquals(3, ranges.getRangeCount()); // 1..3, 10..12, 20
+		long[] expected = { 1, 2, 3, 10, 11, 12, 20 };
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], ranges.get(i));
+		}
+	}
+
+	@Test
+	public void duplicatesCountedOnce() {
+		TrackSampler.IdRanges ranges = TrackSampler.IdRanges.fromIds(new long[] { 5, 5, 6, 8, 8, 8 }, TABLES);
+		assertEquals(3, ranges.size());
+		assertEquals(2, ranges.getRangeCount());
+		assertEquals(5, ranges.get(0));
+		assertEquals(6, ranges.get(1));
+		assertEquals(8, ranges.get(2));
+	}
+
+	@Test
+	public void empty() {
+		TrackSampler.IdRanges ranges = TrackSampler.IdRanges.fromIds(new long[0], TABLES);
+		assertEquals(0, ranges.size());
+		assertEquals(0, ranges.getRangeCount());
+		assertEquals(0, ranges.sampleWithReplacement(5, new Random(1)).length);
+		assertEquals(0, ranges.sampleWithoutReplacement(5, new Random(1)).length);
+	}
+
+	@Test
+	public void dependsOn() {
+		TrackSampler.IdRanges ranges = TrackSampler.IdRanges.fromIds(new long[] { 1 }, TABLES);
+		assertTrue(ranges.dependsOn(TableDefs.Files.TABLE));
+		assertFalse(ranges.dependsOn(TableDefs.Queue.TABLE));
+	}
+
+	@Test
+	public void sampleWithoutReplacement() {
+		long[] ids = randomIds(5000);
+		HashSet<Long> all = toSet(ids);
+		TrackSampler.IdRanges ranges = TrackSampler.IdRanges.fromIds(ids, TABLES);
+		Random random = new Random(1);
+
+		long[] sample = ranges.sampleWithoutReplacement(1000, random);
+		assertEquals(1000, sample.length);
+		HashSet<Long> sampled = toSet(sample);
+		assertEquals(1000, sampled.size()); // Distinct
+		assertTrue(all.containsAll(sampled));
+
+		// More than available - all ids, each once
+		sample = ranges.sampleWithoutReplacement(all.size() + 10, random);
+		assertEquals(all, toSet(sample));
+		assertEquals(all.size(), sample.length);
+	}
+
+	@Test
+	public void sampleWithReplacement() {
+		long[] ids = randomIds(100);
+		HashSet<Long> all = toSet(ids);
+		long[] sample = TrackSampler.IdRanges.fromIds(ids, TABLES).sampleWithReplacement(1000, new Random(1));
+		assertEquals(1000, sample.length);
+		assertTrue(all.containsAll(toSet(sample)));
+	}
+
+	@Test
+	public void sampleIsUniform() {
+		// Few long ranges and many short ones, each id should be sampled with the same probability
+		long[] ids = new long[100];
+		for(int i = 0; i < 50; i++) {
+			ids[i] = 1000 + i;
+			ids[50 + i] = i * 3;
+		}
+		TrackSampler.IdRanges ranges = TrackSampler.IdRanges.fromIds(ids, TABLES);
+		Random random = new Random(1);
+		int[] counts = new int[ranges.size()];
+		int draws = 100000;
+		for(int i = 0; i < draws / 10; i++) {
+			for(long id : ranges.sampleWithoutReplacement(10, random)) {
+				counts[indexOf(ranges, id)]++;
+			}
+		}
+		for(int count : counts) {
+			assertTrue("counts=" + Arrays.toString(counts), Math.abs(count - draws / counts.length) < draws / counts.length / 5);
+		}
+	}
+
+	private static long[] randomIds(int count) {
+		Random random = new Random(count);
+		long[] ids = new long[count];
+		long id = 0;
+		for(int i = 0; i < count; i++) {
+			id += 1 + (random.nextInt(4) == 0 ? random.nextInt(100) : 0); // Mostly sequential, with some holes
+			ids[i] = id;
+		}
+		return ids;
+	}
+
+	private static HashSet<Long> toSet(long[] ids) {
+		HashSet<Long> set = new HashSet<>();
+		for(long id : ids) {
+			set.add(id);
+		}
+		return set;
+	}
+
+	private static int indexOf(TrackSampler.IdRanges ranges, long id) {
+		for(int i = 0; i < ranges.size(); i++) {
+			if(ranges.get(i) == id) {
+				return i;
+			}
+		}
+		throw new AssertionError("id=" + id);
+	}
+}
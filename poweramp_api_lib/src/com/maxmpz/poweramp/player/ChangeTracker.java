@@ -0,0 +1,267 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+
+/**
+ * Merges Poweramp data change signals into per table change events with sequence numbers:<br>
+ * - {@link PowerampAPI#ACTION_RELOAD_DATA} - the table from {@link PowerampAPI#TABLE}, or all tables if not specified<br>
+ * - {@link PowerampAPI.Scanner#ACTION_DIRS_SCAN_FINISHED} - {@link #SCAN_TABLES}<br>
+ * - {@link PowerampAPI.Scanner#ACTION_TAGS_SCAN_FINISHED}/{@link PowerampAPI.Scanner#ACTION_FAST_TAGS_SCAN_FINISHED} - {@link #TAG_TABLES},
+ *   only if {@link PowerampAPI.Scanner#EXTRA_TRACK_CONTENT_CHANGED}<br>
+ * Each signal gets the next sequence number, and each affected table remembers the sequence of its last change, so the cache can store
+ * the sequence when filled and check {@link #hasChangedSince(String, long)} instead of flushing everything on any change.<br>
+ * The receiver is registered while there are listeners. Apps with their own receivers can pass the intents to {@link #onIntent(Intent)}.<br>
+ * THREADING: any. Listeners are called on the thread delivering the signal (main thread for the broadcasts)
+ */
+public class ChangeTracker {
+	private static final String TAG = "ChangeTracker";
+	private static final boolean LOG = false;
+
+	public static final int SOURCE_RELOAD_DATA = 1;
+	public static final int SOURCE_DIRS_SCAN = 2;
+	public static final int SOURCE_TAGS_SCAN = 3;
+	/**
+	 * Change reported by this app via {@link #notifyChanged(String)}
+	 */
+	public static final int SOURCE_LOCAL = 4;
+
+	/**
+	 * Tables affected by the folders scan: files and folders are added/removed, and with them categories and playlist/queue entries
+	 */
+	public static final @NonNull String[] SCAN_TABLES = {
+		TableDefs.Files.TABLE,
+		TableDefs.Folders.TABLE,
+		TableDefs.Albums.TABLE,
+		TableDefs.Artists.TABLE,
+		TableDefs.AlbumArtists.TABLE,
+		TableDefs.AlbumsByArtist.TABLE,
+		TableDefs.Composers.TABLE,
+		TableDefs.Genres.TABLE,
+		TableDefs.GenreEntries.TABLE,
+		TableDefs.Playlists.TABLE,
+		TableDefs.PlaylistEntries.TABLE,
+		TableDefs.Queue.TABLE,
+	};
+
+	/**
+	 * Tables affected by the tags scan: tags change the tracks and the tag based categories
+	 */
+	public static final @NonNull String[] TAG_TABLES = {
+		TableDefs.Files.TABLE,
+		TableDefs.Albums.TABLE,
+		TableDefs.Artists.TABLE,
+		TableDefs.AlbumArtists.TABLE,
+		TableDefs.AlbumsByArtist.TABLE,
+		TableDefs.Composers.TABLE,
+		TableDefs.Genres.TABLE,
+		TableDefs.GenreEntries.TABLE,
+	};
+
+	/**
+	 * Tables reported for ACTION_RELOAD_DATA without the table
+	 */
+	public static final @NonNull String[] ALL_TABLES = {
+		TableDefs.Files.TABLE,
+		TableDefs.Folders.TABLE,
+		TableDefs.Albums.TABLE,
+		TableDefs.Artists.TABLE,
+		TableDefs.AlbumArtists.TABLE,
+		TableDefs.AlbumsByArtist.TABLE,
+		TableDefs.Composers.TABLE,
+		TableDefs.Genres.TABLE,
+		TableDefs.GenreEntries.TABLE,
+		TableDefs.Playlists.TABLE,
+		TableDefs.PlaylistEntries.TABLE,
+		TableDefs.Queue.TABLE,
+		TableDefs.EqPresets.TABLE,
+		TableDefs.EqPresetSongs.TABLE,
+		TableDefs.ReverbPresets.TABLE,
+	};
+
+	public interface Listener {
+		/**
+		 * Called for each table affected by the signal. All tables of the same signal have the same seq
+		 * @param source one of SOURCE_*
+		 */
+		public void onTableChanged(@NonNull String table, long seq, int source);
+	}
+
+	private static @Nullable ChangeTracker sInstance;
+
+	private final @NonNull Context mContext;
+	private final Object mLock = new Object();
+	private final ArrayList<Listener> mListeners = new ArrayList<>();
+	private final HashMap<String, Long> mTableSeqs = new HashMap<>();
+	private long mSeq;
+	private boolean mReceiverRegistered;
+
+
+	public static @NonNull ChangeTracker getInstance(@NonNull Context context) {
+		synchronized(ChangeTracker.class) {
+			ChangeTracker instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new ChangeTracker(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	ChangeTracker(@NonNull Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Adds listener. Also registers the receiver, if not yet
+	 */
+	public void addListener(@NonNull Listener listener) {
+		boolean register;
+		synchronized(mLock) {
+			if(!mListeners.contains(listener)) {
+				mListeners.add(listener);
+			}
+			register = !mReceiverRegistered;
+			mReceiverRegistered = true;
+		}
+		if(register) {
+			IntentFilter filter = new IntentFilter(PowerampAPI.ACTION_RELOAD_DATA);
+			filter.addAction(PowerampAPI.Scanner.ACTION_DIRS_SCAN_FINISHED);
+			filter.addAction(PowerampAPI.Scanner.ACTION_TAGS_SCAN_FINISHED);
+			filter.addAction(PowerampAPI.Scanner.ACTION_FAST_TAGS_SCAN_FINISHED);
+			mContext.registerReceiver(mReceiver, filter);
+		}
+	}
+
+	public void removeListener(@NonNull Listener listener) {
+		boolean unregister;
+		synchronized(mLock) {
+			mListeners.remove(listener);
+			unregister = mReceiverRegistered && mListeners.isEmpty();
+			if(unregister) {
+				mReceiverRegistered = false;
+			}
+		}
+		if(unregister) {
+			mContext.unregisterReceiver(mReceiver);
+		}
+	}
+
+	/**
+	 * @return the last assigned sequence, 0 if nothing changed yet
+	 */
+	public long getSequence() {
+		synchronized(mLock) {
+			return mSeq;
+		}
+	}
+
+	/**
+	 * @return the sequence of the last change of the table, 0 if it hasn't changed yet
+	 */
+	public long getTableSequence(@NonNull String table) {
+		synchronized(mLock) {
+			Long seq = mTableSeqs.get(table);
+			return seq != null ? seq : 0;
+		}
+	}
+
+	/**
+	 * @param seq sequence from {@link #getSequence()} taken when the cached data was loaded
+	 * @return true if the table changed after that
+	 */
+	public boolean hasChangedSince(@NonNull String table, long seq) {
+		return getTableSequence(table) > seq;
+	}
+
+	/**
+	 * Reports the change done by this app, e.g. after the provider insert, before the reload broadcast comes back (if ever)
+	 */
+	public void notifyChanged(@NonNull String table) {
+		dispatch(new String[] { table }, SOURCE_LOCAL);
+	}
+
+	/**
+	 * Handles ACTION_RELOAD_DATA and the Scanner finished actions, other intents are ignored
+	 */
+	public void onIntent(@NonNull Intent intent) {
+		String action = intent.getAction();
+		if(action == null) {
+			return;
+		}
+		switch(action) {
+			case PowerampAPI.ACTION_RELOAD_DATA: {
+				String table = intent.getStringExtra(PowerampAPI.TABLE);
+				dispatch(table != null ? new String[] { table } : ALL_TABLES, SOURCE_RELOAD_DATA);
+				break;
+			}
+			case PowerampAPI.Scanner.ACTION_DIRS_SCAN_FINISHED:
+				dispatch(SCAN_TABLES, SOURCE_DIRS_SCAN);
+				break;
+
+			case PowerampAPI.Scanner.ACTION_TAGS_SCAN_FINISHED:
+			case PowerampAPI.Scanner.ACTION_FAST_TAGS_SCAN_FINISHED:
+				// NOTE: missing extra is considered as changed
+				if(intent.getBooleanExtra(PowerampAPI.Scanner.EXTRA_TRACK_CONTENT_CHANGED, true)) {
+					dispatch(TAG_TABLES, SOURCE_TAGS_SCAN);
+				} else if(LOG) Log.w(TAG, "onIntent tags not changed action=" + action);
+				break;
+		}
+	}
+
+	private void dispatch(@NonNull String[] tables, int source) {
+		long seq;
+		ArrayList<Listener> listeners;
+		synchronized(mLock) {
+			seq = ++mSeq;
+			for(String table : tables) {
+				mTableSeqs.put(table, seq);
+			}
+			listeners = mListeners.isEmpty() ? null : new ArrayList<>(mListeners);
+		}
+		if(LOG) Log.w(TAG, "dispatch seq=" + seq + " source=" + source + " tables=" + tables.length);
+		if(listeners == null) {
+			return;
+		}
+		for(String table : tables) {
+			for(Listener listener : listeners) {
+				listener.onTableChanged(table, seq, source);
+			}
+		}
+	}
+
+	private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onIntent(intent);
+		}
+	};
+}
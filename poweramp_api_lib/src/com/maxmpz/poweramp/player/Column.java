@@ -0,0 +1,124 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+
+/**
+ * {@link TableDefs} column with its table and value type. See {@link TypedColumns} for the predefined columns.<br>
+ * The name is the TableDefs value as is (qualified, raw or SQL expression), the raw name is precomputed for inserts/updates (ContentValues keys)
+ * and for the cursor column lookup.<br>
+ * THREADING: any, immutable
+ */
+public final class Column {
+	public static final int TYPE_LONG = 0;
+	public static final int TYPE_INT = 1;
+	public static final int TYPE_STRING = 2;
+	public static final int TYPE_BLOB = 3;
+
+	/**
+	 * The column can be large, e.g. the file meta json. {@link TypedQuery} warns when such column is selected without {@link TypedQuery#allowHeavy()}.
+	 * Always set for {@link #TYPE_BLOB}
+	 */
+	public static final int FLAG_HEAVY = 0x1;
+
+	private final @NonNull String mTable;
+	private final @NonNull String mName;
+	private final @Nullable String mRawName;
+	private final int mType;
+	private final int mFlags;
+
+
+	public Column(@NonNull String table, @NonNull String name, int type) {
+		this(table, name, type, 0);
+	}
+
+	public Column(@NonNull String table, @NonNull String name, int type, int flags) {
+		mTable = table;
+		mName = name;
+		mRawName = getRawName(name);
+		mType = type;
+		mFlags = type == TYPE_BLOB ? flags | FLAG_HEAVY : flags;
+	}
+
+	public @NonNull String getTable() {
+		return mTable;
+	}
+
+	/**
+	 * @return the name for the projection/selection/sort, e.g. folder_files.name
+	 */
+	public @NonNull String getName() {
+		return mName;
+	}
+
+	/**
+	 * @return the name without the table, e.g. name for folder_files.name, or null for the SQL expression column (e.g. {@link TableDefs.Files#FULL_PATH})
+	 */
+	public @Nullable String getRawName() {
+		return mRawName;
+	}
+
+	/**
+	 * @return one of TYPE_*
+	 */
+	public int getType() {
+		return mType;
+	}
+
+	public int getFlags() {
+		return mFlags;
+	}
+
+	public boolean isHeavy() {
+		return (mFlags & FLAG_HEAVY) != 0;
+	}
+
+	public boolean isExpression() {
+		return mRawName == null;
+	}
+
+	@Override
+	public @NonNull String toString() {
+		return mName;
+	}
+
+	/**
+	 * @return the part after the table for [table.]column names, or null for expressions
+	 */
+	static @Nullable String getRawName(@NonNull String name) {
+		int dot = -1;
+		for(int i = 0, len = name.length(); i < len; i++) {
+			char ch = name.charAt(i);
+			if(ch == '.') {
+				if(dot >= 0) {
+					return null;
+				}
+				dot = i;
+			} else if(!(ch == '_' || ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9')) {
+				return null;
+			}
+		}
+		return dot >= 0 ? name.substring(dot + 1) : name;
+	}
+}
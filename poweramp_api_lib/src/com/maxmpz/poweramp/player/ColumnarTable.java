@@ -0,0 +1,335 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+
+/**
+ * Column oriented, immutable snapshot of the cursor: one primitive array per column, instead of one object per row.<br>
+ * Long/int columns are read into long[]/int[]. String columns are dictionary encoded: int[] of codes plus the array of distinct values.
+ * The strings are copied from the cursor window via {@link Cursor#copyStringToBuffer(int, CharArrayBuffer)} into the reused buffer,
+ * so a String is allocated only once per distinct value (e.g. per album/artist/folder path), not per row.<br>
+ * Usage:
+ * <pre>
+ * ColumnarTable.Projection p = new ColumnarTable.Projection();
+ * int id = p.addLong(TableDefs.Files._ID);
+ * int duration = p.addInt(TableDefs.Files.DURATION);
+ * int path = p.addString(TableDefs.Folders.PATH);
+ * ColumnarTable t = ColumnarTable.query(context, filesUri, p, null, null, null);
+ * </pre>
+ * THREADING: loading - worker thread. The loaded table is immutable and can be shared between threads
+ */
+public class ColumnarTable {
+	private static final String TAG = "ColumnarTable";
+
+	public static final int TYPE_LONG = 0;
+	public static final int TYPE_INT = 1;
+	public static final int TYPE_STRING = 2;
+
+	/**
+	 * Code of the null string value
+	 */
+	public static final int NULL_CODE = -1;
+
+	private static final int STRING_BUFFER_SIZE = 256;
+
+	/**
+	 * Describes the columns to load. Column index in the table is the order of add*() calls
+	 */
+	public static class Projection {
+		final ArrayList<String> mColumns = new ArrayList<>();
+		int[] mTypes = new int[8];
+
+		/**
+		 * @return column index
+		 */
+		public int addLong(@NonNull String column) {
+			return add(column, TYPE_LONG);
+		}
+
+		/**
+		 * @return column index
+		 */
+		public int addInt(@NonNull String column) {
+			return add(column, TYPE_INT);
+		}
+
+		/**
+		 * @return column index
+		 */
+		public int addString(@NonNull String column) {
+			return add(column, TYPE_STRING);
+		}
+
+		public int getColumnCount() {
+			return mColumns.size();
+		}
+
+		public @NonNull String[] toArray() {
+			return mColumns.toArray(new String[mColumns.size()]);
+		}
+
+		private int add(@NonNull String column, int type) {
+			int ix = mColumns.size();
+			if(ix == mTypes.length) {
+				mTypes = Arrays.copyOf(mTypes, ix * 2);
+			}
+			mColumns.add(column);
+			mTypes[ix] = type;
+			return ix;
+		}
+	}
+
+	private final int mRowCount;
+	private final @NonNull int[] mTypes;
+	private final @NonNull Object[] mData; // long[] / int[] / int[] codes
+	private final @NonNull String[][] mDictionaries;
+
+
+	private ColumnarTable(int rowCount, @NonNull int[] types, @NonNull Object[] data, @NonNull String[][] dictionaries) {
+		mRowCount = rowCount;
+		mTypes = types;
+		mData = data;
+		mDictionaries = dictionaries;
+	}
+
+	/**
+	 * Queries the uri with the projection columns and loads the result
+	 * @return the table or null on failure
+	 */
+	public static @Nullable ColumnarTable query(@NonNull Context context, @NonNull Uri uri, @NonNull Projection projection,
+			@Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+		Cursor c = null;
+		try {
+			c = context.getContentResolver().query(uri, projection.toArray(), selection, selectionArgs, sortOrder);
+			if(c != null) {
+				return load(c, projection);
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Loads all rows of the cursor. Cursor columns are expected to be in the projection order. The cursor is not closed
+	 */
+	public static @NonNull ColumnarTable load(@NonNull Cursor c, @NonNull Projection projection) {
+		final int columns = projection.getColumnCount();
+		final int[] types = Arrays.copyOf(projection.mTypes, columns);
+		final int rows = c.getCount();
+		final Object[] data = new Object[columns];
+		final StringDictionary[] dicts = new StringDictionary[columns];
+
+		for(int col = 0; col < columns; col++) {
+			switch(types[col]) {
+				case TYPE_LONG:
+					data[col] = new long[rows];
+					break;
+				case TYPE_STRING:
+					dicts[col] = new StringDictionary();
+					// Fall through
+				default:
+					data[col] = new int[rows];
+					break;
+			}
+		}
+
+		CharArrayBuffer buffer = new CharArrayBuffer(STRING_BUFFER_SIZE);
+		int row = 0;
+		c.moveToPosition(-1);
+		while(row < rows && c.moveToNext()) {
+			for(int col = 0; col < columns; col++) {
+				switch(types[col]) {
+					case TYPE_LONG:
+						((long[])data[col])[row] = c.getLong(col);
+						break;
+					case TYPE_INT:
+						((int[])data[col])[row] = c.getInt(col);
+						break;
+					default:
+						if(c.isNull(col)) {
+							((int[])data[col])[row] = NULL_CODE;
+						} else {
+							c.copyStringToBuffer(col, buffer);
+							((int[])data[col])[row] = dicts[col].encode(buffer.data, buffer.sizeCopied);
+						}
+						break;
+				}
+			}
+			row++;
+		}
+
+		String[][] dictionaries = new String[columns][];
+		for(int col = 0; col < columns; col++) {
+			dictionaries[col] = dicts[col] != null ? dicts[col].toArray() : null;
+		}
+		return new ColumnarTable(row, types, data, dictionaries);
+	}
+
+	public int getRowCount() {
+		return mRowCount;
+	}
+
+	public int getColumnCount() {
+		return mTypes.length;
+	}
+
+	/**
+	 * @return one of TYPE_*
+	 */
+	public int getType(int col) {
+		return mTypes[col];
+	}
+
+	/**
+	 * @return long column values. NOTE: shared array, must not be modified. The array length can be larger than {@link #getRowCount()}
+	 */
+	public @NonNull long[] getLongs(int col) {
+		if(mTypes[col] != TYPE_LONG) {
+			throw new IllegalArgumentException("not long column=" + col);
+		}
+		return (long[])mData[col];
+	}
+
+	/**
+	 * @return int column values. NOTE: shared array, must not be modified. The array length can be larger than {@link #getRowCount()}
+	 */
+	public @NonNull int[] getInts(int col) {
+		if(mTypes[col] != TYPE_INT) {
+			throw new IllegalArgumentException("not int column=" + col);
+		}
+		return (int[])mData[col];
+	}
+
+	/**
+	 * @return string column dictionary codes, indexes into {@link #getDictionary(int)}, or {@link #NULL_CODE}. NOTE: shared array, must not be modified
+	 */
+	public @NonNull int[] getCodes(int col) {
+		if(mTypes[col] != TYPE_STRING) {
+			throw new IllegalArgumentException("not string column=" + col);
+		}
+		return (int[])mData[col];
+	}
+
+	/**
+	 * @return distinct values of the string column, in the order of the first appearance. NOTE: shared array, must not be modified
+	 */
+	public @NonNull String[] getDictionary(int col) {
+		String[] dict = mDictionaries[col];
+		if(dict == null) {
+			throw new IllegalArgumentException("not string column=" + col);
+		}
+		return dict;
+	}
+
+	public @Nullable String getString(int col, int row) {
+		int code = getCodes(col)[row];
+		return code == NULL_CODE ? null : mDictionaries[col][code];
+	}
+
+	/**
+	 * Open addressing char[] => code dictionary. Looks up the chars without creating the String
+	 */
+	static class StringDictionary {
+		private String[] mValues = new String[16];
+		private int[] mHashes = new int[16];
+		private int[] mTable = new int[32]; // code + 1, 0 - empty slot
+		private int mSize;
+
+		int encode(@NonNull char[] chars, int len) {
+			int hash = 0;
+			for(int i = 0; i < len; i++) {
+				hash = 31 * hash + chars[i]; // Same as String.hashCode()
+			}
+			int mask = mTable.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			int entry;
+			while((entry = mTable[slot]) != 0) {
+				int code = entry - 1;
+				if(mHashes[code] == hash && equals(mValues[code], chars, len)) {
+					return code;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			int code = mSize++;
+			if(code == mValues.length) {
+				mValues = Arrays.copyOf(mValues, code * 2);
+				mHashes = Arrays.copyOf(mHashes, code * 2);
+			}
+			mValues[code] = new String(chars, 0, len);
+			mHashes[code] = hash;
+			mTable[slot] = code + 1;
+			if(mSize * 2 > mTable.length) {
+				rehash();
+			}
+			return code;
+		}
+
+		@NonNull String[] toArray() {
+			return Arrays.copyOf(mValues, mSize);
+		}
+
+		@NonNull String get(int code) {
+			return mValues[code];
+		}
+
+		private void rehash() {
+			int[] table = new int[mTable.length * 2];
+			int mask = table.length - 1;
+			for(int code = 0; code < mSize; code++) {
+				int hash = mHashes[code];
+				int slot = (hash ^ (hash >>> 16)) & mask;
+				while(table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = code + 1;
+			}
+			mTable = table;
+		}
+
+		private static boolean equals(@NonNull String value, @NonNull char[] chars, int len) {
+			if(value.length() != len) {
+				return false;
+			}
+			for(int i = 0; i < len; i++) {
+				if(value.charAt(i) != chars[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
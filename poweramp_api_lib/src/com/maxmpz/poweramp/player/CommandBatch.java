@@ -0,0 +1,125 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import org.eclipse.jdt.annotation.NonNull;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+
+/**
+ * Builder for an ordered list of API commands, sent as the individual intents or in one {@link #COMMAND_BATCH} envelope intent, e.g.:
+ * <pre>
+ * new CommandBatch()
+ * 	.add(new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.OPEN_TO_PLAY).setData(uri))
+ * 	.add(new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SEEK).putExtra(PowerampAPI.Track.POSITION, 30))
+ * 	.add(PowerampAPI.Commands.SHUFFLE)
+ * </pre>
+ * Commands are executed in the order they were added.<br>
+ * The default is {@link #toIntents()} - the batch unrolled into the individual intents, sent in the same order.
+ * The {@link #toEnvelope()} is not handled by the released Poweramp builds (the envelope is silently dropped), and should be sent only to the service
+ * known to handle it, see {@link PowerampAPIHelper#sendBatch(android.content.Context, CommandBatch, boolean)}.<br>
+ * THREADING: any, not synchronized
+ */
+public class CommandBatch {
+	/**
+	 * The envelope command. Executes the ordered list of commands in one service start. Commands are executed strictly in the list order, each command
+	 * is fully applied before the next one (e.g. SEEK after OPEN_TO_PLAY seeks the newly opened track).<br>
+	 * Extras:<br>
+	 * {@link #EXTRA_BATCH} - array of Bundles, each Bundle contains the command extras (including {@link PowerampAPI#COMMAND})
+	 * and the command data uri (if any) as {@link #EXTRA_BATCH_DATA}<br>
+	 * NOTE: not a Poweramp API command - the released Poweramp builds ignore it. Handled only by the services known to handle it, e.g. the example app stand-in service
+	 */
+	public static final int COMMAND_BATCH = 30;
+
+	/**
+	 * {@link #COMMAND_BATCH} extra<br>
+	 * {@code Parcelable[]} - array of command Bundles
+	 */
+	public static final String EXTRA_BATCH = "batch";
+
+	/**
+	 * {@link #COMMAND_BATCH} command Bundle extra<br>
+	 * {@code Uri} - the command data, e.g. OPEN_TO_PLAY uri
+	 */
+	public static final String EXTRA_BATCH_DATA = "batchData";
+
+	private final ArrayList<Intent> mCommands = new ArrayList<>();
+
+
+	public @NonNull CommandBatch add(int command) {
+		mCommands.add(new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, command));
+		return this;
+	}
+
+	/**
+	 * @param commandIntent {@link PowerampAPI#ACTION_API_COMMAND} intent with {@link PowerampAPI#COMMAND}, the command extras and data (if any).
+	 * The intent is copied, so it can be reused by the caller
+	 */
+	public @NonNull CommandBatch add(@NonNull Intent commandIntent) {
+		mCommands.add(new Intent(commandIntent));
+		return this;
+	}
+
+	public int size() {
+		return mCommands.size();
+	}
+
+	public void clear() {
+		mCommands.clear();
+	}
+
+	/**
+	 * @return the envelope intent with all commands. NOTE: only for the services known to handle {@link #COMMAND_BATCH}
+	 */
+	public @NonNull Intent toEnvelope() {
+		int size = mCommands.size();
+		Parcelable[] bundles = new Parcelable[size];
+		for(int i = 0; i < size; i++) {
+			Intent command = mCommands.get(i);
+			Bundle extras = command.getExtras();
+			Bundle bundle = extras != null ? new Bundle(extras) : new Bundle();
+			Uri data = command.getData();
+			if(data != null) {
+				bundle.putParcelable(EXTRA_BATCH_DATA, data);
+			}
+			bundles[i] = bundle;
+		}
+		return new Intent(PowerampAPI.ACTION_API_COMMAND)
+				.putExtra(PowerampAPI.COMMAND, COMMAND_BATCH)
+				.putExtra(EXTRA_BATCH, bundles);
+	}
+
+	/**
+	 * @return the individual command intents (copies), in the execution order. Should be sent one by one in this order
+	 */
+	public @NonNull ArrayList<Intent> toIntents() {
+		int size = mCommands.size();
+		ArrayList<Intent> res = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			res.add(new Intent(mCommands.get(i)));
+		}
+		return res;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+
+/**
+ * Per command latency percentiles, see {@link CommandLatencyTracker}
+ */
+public interface CommandLatencyMetrics {
+	/**
+	 * @return ids of the commands with recorded latencies
+	 */
+	public @NonNull int[] getCommands();
+	public long getCount(int command);
+	/**
+	 * @return number of commands not confirmed by the broadcast within timeout
+	 */
+	public long getLostCount(int command);
+	/**
+	 * @param percentile 0..100, e.g. 50, 90, 99
+	 * @return latency in microseconds
+	 */
+	public long getLatencyUs(int command, double percentile);
+	public long getMaxLatencyUs(int command);
+	public void reset();
+}
@@ -0,0 +1,283 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+
+/**
+ * Measures end-to-end command latency: from the command intent sent via {@link PowerampAPIHelper#startPAService(Context, Intent)}
+ * (or {@link PowerampClient}) to the resulting Poweramp broadcast, e.g. TOGGLE_PLAY_PAUSE => STATUS_CHANGED.<br>
+ * Enabled via {@link PowerampAPIHelper#setLatencyTracker(CommandLatencyTracker)}, when not set, the only cost of the instrumentation is a null check per command.<br>
+ * Outgoing commands are stamped with {@link PowerampAPI#TIMESTAMP} (if not already set) and the broadcast is matched to the oldest pending command
+ * expecting it, provided the broadcast timestamp isn't older than the command. Commands not confirmed within {@link #PENDING_TIMEOUT_MS} are
+ * counted as lost.<br>
+ * Latencies are kept in per command {@link LatencyHistogram}, in microseconds.<br>
+ * THREADING: any
+ */
+public class CommandLatencyTracker implements CommandLatencyMetrics {
+	private static final String TAG = "CommandLatencyTracker";
+	private static final boolean LOG = false;
+
+	public static final int PENDING_TIMEOUT_MS = 5000;
+
+	private static final int TIMESTAMP_SLACK_MS = 50;
+
+	private static class Sent {
+		final int mCommand;
+		final long mSentAtNs;
+		final long mWallTime;
+
+		Sent(int command, long sentAtNs, long wallTime) {
+			mCommand = command;
+			mSentAtNs = sentAtNs;
+			mWallTime = wallTime;
+		}
+	}
+
+	private static class CommandStats {
+		final LatencyHistogram mHistogram = new LatencyHistogram();
+		long mLost;
+	}
+
+	private final Object mLock = new Object();
+	private final ArrayList<Sent> mPending = new ArrayList<>();
+	private final SparseArray<CommandStats> mStats = new SparseArray<>();
+	private @Nullable Context mRegisteredContext;
+
+
+	/**
+	 * @return the broadcast action confirming the command, or null if the command is not tracked
+	 */
+	public static @Nullable String getConfirmingAction(int command) {
+		switch(command) {
+			case PowerampAPI.Commands.TOGGLE_PLAY_PAUSE:
+			case PowerampAPI.Commands.PAUSE:
+			case PowerampAPI.Commands.RESUME:
+			case PowerampAPI.Commands.STOP:
+				return PowerampAPI.ACTION_STATUS_CHANGED;
+
+			case PowerampAPI.Commands.NEXT:
+			case PowerampAPI.Commands.PREVIOUS:
+			case PowerampAPI.Commands.NEXT_IN_CAT:
+			case PowerampAPI.Commands.PREVIOUS_IN_CAT:
+			case PowerampAPI.Commands.OPEN_TO_PLAY:
+				return PowerampAPI.ACTION_TRACK_CHANGED;
+
+			case PowerampAPI.Commands.REPEAT:
+			case PowerampAPI.Commands.SHUFFLE:
+				return PowerampAPI.ACTION_PLAYING_MODE_CHANGED;
+
+			case PowerampAPI.Commands.POS_SYNC:
+				return PowerampAPI.ACTION_TRACK_POS_SYNC;
+
+			case PowerampAPI.Commands.SET_EQU_PRESET:
+			case PowerampAPI.Commands.SET_EQU_STRING:
+			case PowerampAPI.Commands.SET_EQU_BAND:
+			case PowerampAPI.Commands.SET_EQU_ENABLED:
+				return PowerampAPI.ACTION_EQU_CHANGED;
+
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Registers the receiver for the confirming broadcasts. Alternatively, the app can pass its own received broadcasts to {@link #onBroadcast(Intent)}
+	 */
+	public void register(@NonNull Context context) {
+		synchronized(mLock) {
+			if(mRegisteredContext != null) {
+				return;
+			}
+			mRegisteredContext = context;
+		}
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(PowerampAPI.ACTION_STATUS_CHANGED);
+		filter.addAction(PowerampAPI.ACTION_TRACK_CHANGED);
+		filter.addAction(PowerampAPI.ACTION_PLAYING_MODE_CHANGED);
+		filter.addAction(PowerampAPI.ACTION_TRACK_POS_SYNC);
+		filter.addAction(PowerampAPI.ACTION_EQU_CHANGED);
+		context.registerReceiver(mReceiver, filter);
+	}
+
+	public void unregister() {
+		Context context;
+		synchronized(mLock) {
+			context = mRegisteredContext;
+			mRegisteredContext = null;
+		}
+		if(context != null) {
+			context.unregisterReceiver(mReceiver);
+		}
+	}
+
+	/**
+	 * Called for each outgoing command intent
+	 */
+	public void onCommandSent(@NonNull Intent intent) {
+		int command = intent.getIntExtra(PowerampAPI.COMMAND, 0);
+		if(getConfirmingAction(command) == null) {
+			return;
+		}
+		long wallTime = intent.getLongExtra(PowerampAPI.TIMESTAMP, 0);
+		if(wallTime == 0) {
+			wallTime = System.currentTimeMillis();
+			intent.putExtra(PowerampAPI.TIMESTAMP, wallTime);
+		}
+		long now = SystemClock.elapsedRealtimeNanos();
+		synchronized(mLock) {
+			expirePending(now);
+			mPending.add(new Sent(command, now, wallTime));
+		}
+	}
+
+	/**
+	 * Matches the Poweramp broadcast to the pending command
+	 */
+	public void onBroadcast(@NonNull Intent intent) {
+		String action = intent.getAction();
+		if(action == null) {
+			return;
+		}
+		long now = SystemClock.elapsedRealtimeNanos();
+		long ts = intent.getLongExtra(PowerampAPI.TIMESTAMP, 0);
+		synchronized(mLock) {
+			expirePending(now);
+			for(int i = 0, size = mPending.size(); i < size; i++) {
+				Sent sent = mPending.get(i);
+				if(action.equals(getConfirmingAction(sent.mCommand)) && (ts == 0 || ts + TIMESTAMP_SLACK_MS >= sent.mWallTime)) {
+					mPending.remove(i);
+					long latencyUs = (now - sent.mSentAtNs) / 1000;
+					getStats(sent.mCommand).mHistogram.record(latencyUs);
+					if(LOG) Log.w(TAG, "onBroadcast command=" + sent.mCommand + " latencyUs=" + latencyUs);
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public @NonNull int[] getCommands() {
+		synchronized(mLock) {
+			int[] res = new int[mStats.size()];
+			for(int i = 0; i < res.length; i++) {
+				res[i] = mStats.keyAt(i);
+			}
+			return res;
+		}
+	}
+
+	@Override
+	public long getCount(int command) {
+		synchronized(mLock) {
+			CommandStats stats = mStats.get(command);
+			return stats != null ? stats.mHistogram.getTotalCount() : 0;
+		}
+	}
+
+	@Override
+	public long getLostCount(int command) {
+		synchronized(mLock) {
+			CommandStats stats = mStats.get(command);
+			return stats != null ? stats.mLost : 0;
+		}
+	}
+
+	@Override
+	public long getLatencyUs(int command, double percentile) {
+		synchronized(mLock) {
+			CommandStats stats = mStats.get(command);
+			return stats != null ? stats.mHistogram.getValueAtPercentile(percentile) : 0;
+		}
+	}
+
+	@Override
+	public long getMaxLatencyUs(int command) {
+		synchronized(mLock) {
+			CommandStats stats = mStats.get(command);
+			return stats != null ? stats.mHistogram.getMax() : 0;
+		}
+	}
+
+	@Override
+	public void reset() {
+		synchronized(mLock) {
+			mPending.clear();
+			mStats.clear();
+		}
+	}
+
+	/**
+	 * @return human readable p50/p90/p99/max per command, e.g. for logging
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(TAG);
+		synchronized(mLock) {
+			for(int i = 0, size = mStats.size(); i < size; i++) {
+				LatencyHistogram h = mStats.valueAt(i).mHistogram;
+				sb.append(" cmd=").append(mStats.keyAt(i))
+					.append(" n=").append(h.getTotalCount())
+					.append(" lost=").append(mStats.valueAt(i).mLost)
+					.append(" p50=").append(h.getValueAtPercentile(50) / 1000)
+					.append("ms p90=").append(h.getValueAtPercentile(90) / 1000)
+					.append("ms p99=").append(h.getValueAtPercentile(99) / 1000)
+					.append("ms max=").append(h.getMax() / 1000).append("ms");
+			}
+		}
+		return sb.toString();
+	}
+
+	// NOTE: under mLock
+	private void expirePending(long now) {
+		long timeoutNs = PENDING_TIMEOUT_MS * 1000000L;
+		while(mPending.size() > 0 && now - mPending.get(0).mSentAtNs > timeoutNs) {
+			getStats(mPending.remove(0).mCommand).mLost++;
+		}
+	}
+
+	// NOTE: under mLock
+	private @NonNull CommandStats getStats(int command) {
+		CommandStats stats = mStats.get(command);
+		if(stats == null) {
+			stats = new CommandStats();
+			mStats.put(command, stats);
+		}
+		return stats;
+	}
+
+	private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onBroadcast(intent);
+		}
+	};
+}
@@ -0,0 +1,247 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+
+/**
+ * Appends files to the queue (/queue) or to the playlist (/playlists/#/files) in chunks via {@link ContentResolver#bulkInsert(Uri, ContentValues[])},
+ * i.e. one provider IPC per chunk instead of one per row.<br>
+ * {@link TableDefs.Queue#SORT}/{@link TableDefs.PlaylistEntries#SORT} are assigned contiguously (or with {@link #setSortStep(int)} gaps),
+ * starting from MAX(sort) + step (queried once, on the first flush) or from {@link #setStartSort(int)}.<br>
+ * {@link #commit()} flushes the rest and sends exactly one {@link PowerampAPI#ACTION_RELOAD_DATA} with the appropriate {@link PowerampAPI#TABLE}.<br>
+ * THREADING: worker thread (blocking provider calls), the instance shouldn't be shared between threads
+ */
+public class EntriesBatchWriter {
+	private static final String TAG = "EntriesBatchWriter";
+	private static final boolean LOG = false;
+
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+	private static final int NO_SORT = Integer.MIN_VALUE;
+
+	public static final @NonNull Uri QUEUE_URI = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath(TableDefs.Queue.TABLE).build();
+
+	private final @NonNull Context mContext;
+	private final @NonNull Uri mUri;
+	private final @NonNull String mTable;
+	private final @NonNull String mSortCol;
+	private final @NonNull String mFileIdCol;
+
+	private @NonNull ContentValues[] mChunk;
+	private int mChunkSize;
+	private int mPending;
+	private int mNextSort = NO_SORT;
+	private int mSortStep = 1;
+
+	private int mInserted;
+	private int mProviderCalls;
+
+
+	/**
+	 * @return writer appending to the end of the queue
+	 */
+	public static @NonNull EntriesBatchWriter forQueue(@NonNull Context context) {
+		return new EntriesBatchWriter(context, QUEUE_URI, TableDefs.Queue.TABLE, TableDefs.Queue.SORT, TableDefs.Queue.FOLDER_FILE_ID);
+	}
+
+	/**
+	 * @return writer appending to the end of the given playlist
+	 */
+	public static @NonNull EntriesBatchWriter forPlaylist(@NonNull Context context, long playlistId) {
+		Uri uri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath(TableDefs.Playlists.TABLE).appendEncodedPath(Long.toString(playlistId))
+				.appendEncodedPath("files").build();
+		return new EntriesBatchWriter(context, uri, TableDefs.PlaylistEntries.TABLE, TableDefs.PlaylistEntries.SORT, TableDefs.PlaylistEntries.FOLDER_FILE_ID);
+	}
+
+	EntriesBatchWriter(@NonNull Context context, @NonNull Uri uri, @NonNull String table, @NonNull String sortCol, @NonNull String fileIdCol) {
+		mContext = context;
+		mUri = uri;
+		mTable = table;
+		// NOTE: inserts require raw column names
+		mSortCol = getRawColName(sortCol);
+		mFileIdCol = getRawColName(fileIdCol);
+		mChunk = new ContentValues[DEFAULT_CHUNK_SIZE];
+		mChunkSize = DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Rows per bulkInsert call. Larger chunks mean less IPC calls, but the whole chunk should fit into the binder transaction (1MB, shared by the process)
+	 */
+	public void setChunkSize(int chunkSize) {
+		if(chunkSize < 1 || chunkSize == mChunkSize) {
+			return;
+		}
+		flush();
+		mChunk = new ContentValues[chunkSize];
+		mChunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the sort of the first appended row, instead of querying MAX(sort) + 1 on the first flush. Should be called before any {@link #add(long)}
+	 */
+	public void setStartSort(int sort) {
+		mNextSort = sort;
+	}
+
+	/**
+	 * Sets the sort increment between the appended rows, e.g. to leave the gaps for {@link EntriesOrderManager}. Should be called before any {@link #add(long)}
+	 */
+	public void setSortStep(int step) {
+		mSortStep = step;
+	}
+
+	/**
+	 * @return the sort the next flushed row will get, or Integer.MIN_VALUE if not known yet (nothing flushed and no {@link #setStartSort(int)})
+	 */
+	public int getNextSort() {
+		return mNextSort;
+	}
+
+	/**
+	 * @return the uri rows are inserted into
+	 */
+	public @NonNull Uri getUri() {
+		return mUri;
+	}
+
+	/**
+	 * @param fileId folder_files._id
+	 */
+	public void add(long fileId) {
+		ContentValues values = mChunk[mPending];
+		if(values == null) {
+			mChunk[mPending] = values = new ContentValues(2);
+		} else {
+			values.clear();
+		}
+		values.put(mFileIdCol, fileId);
+		mPending++;
+		if(mPending == mChunkSize) {
+			flush();
+		}
+	}
+
+	public void addAll(@NonNull long[] fileIds, int offset, int count) {
+		for(int i = offset, end = offset + count; i < end; i++) {
+			add(fileIds[i]);
+		}
+	}
+
+	/**
+	 * Inserts the pending rows without sending the reload broadcast
+	 * @return false on the provider failure, in which case the pending rows are dropped
+	 */
+	public boolean flush() {
+		int pending = mPending;
+		if(pending == 0) {
+			return true;
+		}
+		mPending = 0;
+
+		if(mNextSort == NO_SORT) {
+			mNextSort = queryMaxSort() + mSortStep;
+		}
+		int sort = mNextSort;
+		for(int i = 0; i < pending; i++) {
+			mChunk[i].put(mSortCol, sort);
+			sort += mSortStep;
+		}
+
+		ContentValues[] values = mChunk;
+		if(pending < values.length) {
+			values = new ContentValues[pending];
+			System.arraycopy(mChunk, 0, values, 0, pending);
+		}
+
+		int inserted;
+		try {
+			inserted = mContext.getContentResolver().bulkInsert(mUri, values);
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+			return false;
+		} finally {
+			mProviderCalls++;
+		}
+		mNextSort = sort;
+		mInserted += inserted;
+		if(LOG) Log.w(TAG, "flush uri=" + mUri + " rows=" + pending + " inserted=" + inserted + " nextSort=" + mNextSort);
+		return inserted == pending;
+	}
+
+	/**
+	 * Flushes the pending rows and, if anything was inserted since the last commit, sends the single ACTION_RELOAD_DATA
+	 * @return number of rows inserted since the last commit
+	 */
+	public int commit() {
+		flush();
+		int inserted = mInserted;
+		if(inserted > 0) {
+			// Force Poweramp to reload data in UI / PlayerService
+			Intent intent = new Intent(PowerampAPI.ACTION_RELOAD_DATA);
+			intent.setPackage(PowerampAPI.PACKAGE_NAME);
+			intent.putExtra(PowerampAPI.PACKAGE, mContext.getPackageName());
+			intent.putExtra(PowerampAPI.TABLE, mTable);
+			mContext.sendBroadcast(intent);
+			// The broadcast above is targeted to Poweramp, so let this app caches know as well
+			ChangeTracker.getInstance(mContext).notifyChanged(mTable);
+		}
+		mInserted = 0;
+		return inserted;
+	}
+
+	/**
+	 * @return number of bulkInsert/query provider calls done by this writer, for diagnostics
+	 */
+	public int getProviderCalls() {
+		return mProviderCalls;
+	}
+
+	private int queryMaxSort() {
+		mProviderCalls++;
+		Cursor c = null;
+		try {
+			c = mContext.getContentResolver().query(mUri, new String[] { "MAX(" + mTable + "." + mSortCol + ")" }, null, null, null);
+			if(c != null && c.moveToFirst()) {
+				return c.getInt(0);
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+		return 0;
+	}
+
+	static @NonNull String getRawColName(@NonNull String col) {
+		int dot = col.indexOf('.');
+		return dot >= 0 ? col.substring(dot + 1) : col;
+	}
+}
@@ -0,0 +1,747 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+
+/**
+ * Edits the queue and playlist entries order with sparse sort keys, so that each insert/move/remove writes exactly one row.<br>
+ * The entries of the list (entry id + sort) and its MAX(sort) are loaded once and kept until {@link ChangeTracker} reports the change of the table.
+ * As the edits made in Poweramp itself are not broadcasted, the kept state is also validated before each edit with one COUNT(*)/MAX(sort)/TOTAL(sort)
+ * query, and reloaded on mismatch.
+ * Appended entries get MAX(sort) + gap. Inserted/moved entry gets the middle sort between its new neighbours.<br>
+ * When the neighbours have no free sort between them, the whole list is renumbered to sort = (position + 1) * gap first, in applyBatch chunks. When the edit uses
+ * the last free sort between the neighbours, the renumbering is posted to the worker thread, so the next edit at the same place won't wait for it.
+ * The renumbering rows are written in the order keeping the list order intact after each row, so a failed chunk doesn't reorder the list.
+ * NOTE: lists created with contiguous sorts (e.g. by Poweramp) are renumbered on the first insert/move into the middle.<br>
+ * {@link Entries#commit()} sends one {@link PowerampAPI#ACTION_RELOAD_DATA} for all edits since the previous commit, and reports the change
+ * via {@link ChangeTracker#notifyChanged(String)}.<br>
+ * THREADING: {@link Entries} methods - worker thread (blocking provider calls)
+ */
+public class EntriesOrderManager implements ChangeTracker.Listener {
+	private static final String TAG = "EntriesOrderManager";
+	private static final boolean LOG = false;
+
+	/**
+	 * Default sort increment between neighbours. Allows ~10 inserts into the same place before the renumbering
+	 */
+	public static final int DEFAULT_GAP = 1024;
+
+	static final int NO_SORT = Integer.MIN_VALUE;
+	static final int MAX_SORT = Integer.MAX_VALUE - 1;
+	private static final int MAX_BATCH_OPS = 500;
+
+	private static @Nullable EntriesOrderManager sInstance;
+
+	private final @NonNull Context mContext;
+	private final @NonNull ChangeTracker mTracker;
+	private final Object mLock = new Object();
+	private final HashMap<String, Entries> mLists = new HashMap<>();
+	private int mGap = DEFAULT_GAP;
+	private boolean mListening;
+	private @Nullable Entries mNotifying; // The entries reporting their own commit, which don't need the reload
+	private @Nullable Handler mWorkerHandler;
+
+	private int mLoads;
+	private int mRowWrites;
+	private int mProviderCalls;
+	private int mRebalances;
+	private int mRebalanceWrites;
+	private int mStaleReloads;
+
+
+	public static @NonNull EntriesOrderManager getInstance(@NonNull Context context) {
+		synchronized(EntriesOrderManager.class) {
+			EntriesOrderManager instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new EntriesOrderManager(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	EntriesOrderManager(@NonNull Context context) {
+		mContext = context;
+		mTracker = ChangeTracker.getInstance(context);
+	}
+
+	/**
+	 * Sets the sort increment used for the appends and the renumbering
+	 */
+	public void setGap(int gap) {
+		if(gap < 2) {
+			throw new IllegalArgumentException("gap=" + gap);
+		}
+		synchronized(mLock) {
+			mGap = gap;
+		}
+	}
+
+	public @NonNull Entries getQueue() {
+		return getEntries(TableDefs.Queue.TABLE, EntriesBatchWriter.QUEUE_URI, TableDefs.Queue.TABLE, TableDefs.Queue._ID,
+				TableDefs.Queue.SORT, TableDefs.Queue.FOLDER_FILE_ID);
+	}
+
+	public @NonNull Entries getPlaylist(long playlistId) {
+		return getEntries(TableDefs.PlaylistEntries.TABLE + "/" + playlistId,
+				TypedQuery.getUri(TypedQuery.path(TypedQuery.PLAYLISTS, playlistId, TypedQuery.FILES)), TableDefs.PlaylistEntries.TABLE,
+				TableDefs.PlaylistEntries._ID, TableDefs.PlaylistEntries.TABLE + "." + TableDefs.PlaylistEntries.SORT, TableDefs.PlaylistEntries.FOLDER_FILE_ID);
+	}
+
+	@Override
+	public void onTableChanged(@NonNull String table, long seq, int source) {
+		ArrayList<Entries> lists = new ArrayList<>();
+		synchronized(mLock) {
+			for(Entries entries : mLists.values()) {
+				if(entries.mTable.equals(table) && !(entries == mNotifying && source == ChangeTracker.SOURCE_LOCAL)) {
+					lists.add(entries);
+				}
+			}
+		}
+		for(Entries entries : lists) {
+			entries.invalidate();
+		}
+	}
+
+	/**
+	 * @return write/call/renumbering counters, for diagnostics
+	 */
+	public String getStats() {
+		synchronized(mLock) {
+			return "loads=" + mLoads + " rowWrites=" + mRowWrites + " providerCalls=" + mProviderCalls + " rebalances=" + mRebalances
+					+ " rebalanceWrites=" + mRebalanceWrites + " staleReloads=" + mStaleReloads;
+		}
+	}
+
+	private @NonNull Entries getEntries(@NonNull String key, @NonNull Uri uri, @NonNull String table, @NonNull String idCol, @NonNull String sortCol,
+			@NonNull String fileIdCol) {
+		synchronized(mLock) {
+			if(!mListening) {
+				mListening = true;
+				mTracker.addListener(this);
+			}
+			Entries entries = mLists.get(key);
+			if(entries == null) {
+				entries = new Entries(uri, table, idCol, sortCol, fileIdCol);
+				mLists.put(key, entries);
+			}
+			return entries;
+		}
+	}
+
+	private int getGap() {
+		synchronized(mLock) {
+			return mGap;
+		}
+	}
+
+	private void count(int loads, int rowWrites, int providerCalls) {
+		synchronized(mLock) {
+			mLoads += loads;
+			mRowWrites += rowWrites;
+			mProviderCalls += providerCalls;
+		}
+	}
+
+	/**
+	 * @param sorts the entries sorts, ascending
+	 * @param skip position of the moved entry, which is excluded from the neighbours, or -1
+	 * @return the free sort for the entry placed at the position (counted without the skipped entry): the middle between the neighbours,
+	 * or the last sort + gap for the append, or NO_SORT if there is no free sort
+	 */
+	static int findFreeSort(@NonNull int[] sorts, int size, int position, int skip, int gap) {
+		if(skip >= 0) {
+			size--;
+		}
+		long lower = position > 0 ? sorts[skipped(position - 1, skip)] : 0;
+		if(position == size) {
+			if(lower + gap <= MAX_SORT) {
+				return (int)(lower + gap);
+			}
+		} else {
+			long upper = sorts[skipped(position, skip)];
+			if(upper - lower >= 2) {
+				return (int)(lower + (upper - lower) / 2);
+			}
+		}
+		return NO_SORT;
+	}
+
+	private static int skipped(int position, int skip) {
+		return skip >= 0 && position >= skip ? position + 1 : position;
+	}
+
+	/**
+	 * @param reserve number of the entries to be appended after the renumbering
+	 * @return the renumbering step, which is the gap, unless the list doesn't fit MAX_SORT with it. Less than 2 if there is no room for the renumbering
+	 */
+	static int getRebalanceStep(int gap, int size, int reserve) {
+		return (int)Math.min(gap, MAX_SORT / ((long)size + reserve + 1));
+	}
+
+	/**
+	 * Collects the positions of the rows changed by the renumbering to (position + 1) * step, in the write order keeping the list order after each
+	 * single row write: the rows moving down in the ascending order, then the rows moving up in the descending order.
+	 * Each written row then lands between its neighbours, whether they are written already or not
+	 * @param sorts the entries sorts, ascending
+	 * @param outPositions receives the positions, should have at least size elements
+	 * @return number of the positions
+	 */
+	static int getRebalanceWrites(@NonNull int[] sorts, int size, int step, @NonNull int[] outPositions) {
+		int count = 0;
+		for(int i = 0; i < size; i++) {
+			if((i + 1) * step < sorts[i]) {
+				outPositions[count++] = i;
+			}
+		}
+		for(int i = size - 1; i >= 0; i--) {
+			if((i + 1) * step > sorts[i]) {
+				outPositions[count++] = i;
+			}
+		}
+		return count;
+	}
+
+	private void post(@NonNull Runnable r) {
+		Handler handler;
+		synchronized(mLock) {
+			if(mWorkerHandler == null) {
+				HandlerThread thread = new HandlerThread(TAG);
+				thread.start();
+				mWorkerHandler = new Handler(thread.getLooper());
+			}
+			handler = mWorkerHandler;
+		}
+		handler.removeCallbacks(r); // Coalesce repeated requests
+		handler.post(r);
+	}
+
+	/**
+	 * Ordered entries of the queue or of the playlist. Positions are 0 based indexes in the sort order
+	 */
+	public final class Entries {
+		final @NonNull Uri mUri;
+		final @NonNull String mTable;
+		private final @NonNull String mIdCol;
+		private final @NonNull String mSortCol;
+		private final @NonNull String mRawSortCol;
+		private final @NonNull String mRawFileIdCol;
+
+		private boolean mLoaded;
+		private long[] mIds = new long[0];
+		private int[] mSorts = new int[0];
+		private int mSize;
+		private int mMaxSort = NO_SORT; // NO_SORT if nothing is known about the list
+		private int mAppendedAfter = NO_SORT; // The loaded entries are complete up to this sort, the appended entries are loaded on demand
+		private int mCount; // Expected COUNT(*), including the appended entries. Valid if mMaxSort != NO_SORT
+		private long mSortSum; // Expected TOTAL(sort), including the appended entries. Valid if mMaxSort != NO_SORT
+		private int mUncommitted;
+		private boolean mRenumbered; // The sorts were rewritten since the previous commit
+		private volatile boolean mStale; // Set by invalidate() without the lock, the state is dropped on the next call
+
+		Entries(@NonNull Uri uri, @NonNull String table, @NonNull String idCol, @NonNull String sortCol, @NonNull String fileIdCol) {
+			mUri = uri;
+			mTable = table;
+			mIdCol = idCol;
+			mSortCol = sortCol;
+			// NOTE: inserts/updates require raw column names
+			mRawSortCol = EntriesBatchWriter.getRawColName(sortCol);
+			mRawFileIdCol = EntriesBatchWriter.getRawColName(fileIdCol);
+		}
+
+		public @NonNull Uri getUri() {
+			return mUri;
+		}
+
+		/**
+		 * @return number of entries, or -1 on failure
+		 */
+		public synchronized int size() {
+			return ensureCurrent() ? mSize : -1;
+		}
+
+		/**
+		 * @return entry id (queue._id / playlist_entries._id) at the position
+		 */
+		public synchronized long getEntryId(int position) {
+			dropIfStale();
+			if(!ensureLoaded() || position < 0 || position >= mSize) {
+				throw new IndexOutOfBoundsException("position=" + position + " size=" + mSize);
+			}
+			return mIds[position];
+		}
+
+		/**
+		 * Appends the files with the gapped sorts in bulkInsert chunks. Uses the cached MAX(sort), if known and still valid
+		 * @return number of inserted entries
+		 */
+		public synchronized int appendAll(@NonNull long[] fileIds, int offset, int count) {
+			if(count <= 0) {
+				return 0;
+			}
+			dropIfStale();
+			if(mMaxSort != NO_SORT && !isCurrent()) {
+				drop();
+			}
+			int gap = getGap();
+			if(mMaxSort != NO_SORT && (long)mMaxSort + (long)gap * count > MAX_SORT) {
+				if(!ensureLoaded() || !rebalance(gap, count)) {
+					return 0;
+				}
+			}
+
+			EntriesBatchWriter writer = new EntriesBatchWriter(mContext, mUri, mTable, mSortCol, mRawFileIdCol);
+			writer.setSortStep(gap);
+			if(mMaxSort != NO_SORT) {
+				writer.setStartSort(mMaxSort + gap);
+			}
+			writer.addAll(fileIds, offset, count);
+			boolean ok = writer.flush();
+			int nextSort = writer.getNextSort();
+
+			count(0, ok ? count : 0, writer.getProviderCalls());
+			if(!ok) {
+				drop();
+				return 0;
+			}
+			if(mMaxSort != NO_SORT) {
+				if(mLoaded && mAppendedAfter == NO_SORT) {
+					mAppendedAfter = mMaxSort; // New entry ids are not known, loaded on the next edit
+				}
+				long firstSort = nextSort - (long)gap * count;
+				mCount += count;
+				mSortSum += firstSort * count + (long)gap * count * (count - 1) / 2;
+				mMaxSort = nextSort - gap;
+			} // Else, the list is unknown and the writer queried MAX(sort) itself, it will be loaded on the next edit
+			mUncommitted += count;
+			return count;
+		}
+
+		/**
+		 * Inserts the file at the position, 0..size(). Writes one row
+		 * @return false on failure
+		 */
+		public synchronized boolean insert(int position, long fileId) {
+			if(!ensureCurrent() || position < 0 || position > mSize) {
+				return false;
+			}
+			int sort = findSort(position, -1);
+			if(sort == NO_SORT) {
+				return false;
+			}
+
+			ContentValues values = new ContentValues(2);
+			values.put(mRawFileIdCol, fileId);
+			values.put(mRawSortCol, sort);
+			Uri uri;
+			try {
+				uri = mContext.getContentResolver().insert(mUri, values);
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+				uri = null;
+			}
+			count(0, uri != null ? 1 : 0, 1);
+			if(uri == null) {
+				drop();
+				return false;
+			}
+			mUncommitted++;
+			long id = ContentUris.parseId(uri);
+			if(id < 0) {
+				drop(); // Can't track the entry without id, reloaded on the next edit
+			} else {
+				insertAt(position, id, sort);
+				checkExhausted(position);
+			}
+			return true;
+		}
+
+		/**
+		 * Moves the entry to the new position. Writes one row
+		 * @param from position of the entry, 0..size() - 1
+		 * @param to position of the entry after the move, 0..size() - 1
+		 * @return false on failure
+		 */
+		public synchronized boolean move(int from, int to) {
+			if(!ensureCurrent() || from < 0 || from >= mSize || to < 0 || to >= mSize) {
+				return false;
+			}
+			if(from == to) {
+				return true;
+			}
+			int sort = findSort(to, from);
+			if(sort == NO_SORT) {
+				return false;
+			}
+
+			long id = mIds[from];
+			ContentValues values = new ContentValues(1);
+			values.put(mRawSortCol, sort);
+			int updated;
+			try {
+				updated = mContext.getContentResolver().update(mUri, values, mIdCol + "=?", new String[] { Long.toString(id) });
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+				updated = 0;
+			}
+			count(0, updated, 1);
+			if(updated != 1) {
+				drop();
+				return false;
+			}
+			removeAt(from);
+			insertAt(to, id, sort);
+			mUncommitted++;
+			checkExhausted(to);
+			return true;
+		}
+
+		/**
+		 * Removes the entry at the position. Writes (deletes) one row, other sorts are unchanged
+		 * @return false on failure
+		 */
+		public synchronized boolean remove(int position) {
+			if(!ensureCurrent() || position < 0 || position >= mSize) {
+				return false;
+			}
+			int deleted;
+			try {
+				deleted = mContext.getContentResolver().delete(mUri, mIdCol + "=?", new String[] { Long.toString(mIds[position]) });
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+				deleted = 0;
+			}
+			count(0, deleted, 1);
+			if(deleted != 1) {
+				drop();
+				return false;
+			}
+			removeAt(position);
+			mUncommitted++;
+			return true;
+		}
+
+		/**
+		 * Sends the single ACTION_RELOAD_DATA for the edits (and the renumbering) since the previous commit, if any, and reports the change to {@link ChangeTracker},
+		 * so other lists of the table and the app caches (e.g. {@link QueryCache}, {@link TrackSampler}) are reloaded
+		 * @return number of edited entries since the previous commit
+		 */
+		public int commit() {
+			int edited;
+			boolean renumbered;
+			synchronized(this) {
+				edited = mUncommitted;
+				renumbered = mRenumbered;
+				mUncommitted = 0;
+				mRenumbered = false;
+			}
+			if(edited > 0 || renumbered) {
+				sendChanged();
+			}
+			return edited;
+		}
+
+		/**
+		 * Drops the loaded entries and MAX(sort) on the next call. Doesn't wait for the edit in progress, so can be called on any thread
+		 */
+		public void invalidate() {
+			if(LOG) Log.w(TAG, "invalidate uri=" + mUri);
+			mStale = true;
+		}
+
+		private void sendChanged() {
+			// Force Poweramp to reload data in UI / PlayerService
+			Intent intent = new Intent(PowerampAPI.ACTION_RELOAD_DATA);
+			intent.setPackage(PowerampAPI.PACKAGE_NAME);
+			intent.putExtra(PowerampAPI.PACKAGE, mContext.getPackageName());
+			intent.putExtra(PowerampAPI.TABLE, mTable);
+			mContext.sendBroadcast(intent);
+
+			// The broadcast above is targeted to Poweramp. This list state already has the edits, so it's not invalidated by the notification
+			synchronized(mLock) {
+				mNotifying = this;
+			}
+			try {
+				mTracker.notifyChanged(mTable);
+			} finally {
+				synchronized(mLock) {
+					mNotifying = null;
+				}
+			}
+		}
+
+		private void dropIfStale() {
+			if(mStale) {
+				mStale = false; // Cleared before the drop, so the invalidation arriving after this is not lost
+				drop();
+			}
+		}
+
+		private void drop() {
+			mLoaded = false;
+			mMaxSort = NO_SORT;
+			mAppendedAfter = NO_SORT;
+		}
+
+		/**
+		 * @return true if the list COUNT(*)/MAX(sort)/TOTAL(sort) match the expected ones, i.e. the list wasn't changed elsewhere, e.g. in Poweramp UI
+		 */
+		private boolean isCurrent() {
+			Cursor c = null;
+			try {
+				c = mContext.getContentResolver().query(mUri, new String[] { "COUNT(*)", "MAX(" + mSortCol + ")", "TOTAL(" + mSortCol + ")" }, null, null, null);
+				if(c != null && c.moveToFirst()) {
+					boolean current = c.getInt(0) == mCount && c.getInt(1) == (mCount > 0 ? mMaxSort : 0) && (long)c.getDouble(2) == mSortSum;
+					if(!current) {
+						if(LOG) Log.w(TAG, "isCurrent changed uri=" + mUri + " count=" + c.getInt(0) + " mCount=" + mCount + " max=" + c.getInt(1) + " mMaxSort=" + mMaxSort);
+						synchronized(mLock) {
+							mStaleReloads++;
+						}
+					}
+					return current;
+				}
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+			} finally {
+				if(c != null) {
+					c.close();
+				}
+				count(0, 0, 1);
+			}
+			return false;
+		}
+
+		/**
+		 * Validates the kept state (if any) and loads the entries, if needed
+		 */
+		private boolean ensureCurrent() {
+			dropIfStale();
+			if(mMaxSort != NO_SORT && !isCurrent()) {
+				drop();
+			}
+			return ensureLoaded();
+		}
+
+		/**
+		 * @param skip position of the moved entry, which is excluded from the neighbours, or -1
+		 * @return the sort for the entry placed at the position (counted without the skipped entry), or NO_SORT on failure
+		 */
+		private int findSort(int position, int skip) {
+			int gap = getGap();
+			for(int attempt = 0; attempt < 2; attempt++) {
+				int sort = findFreeSort(mSorts, mSize, position, skip, gap);
+				if(sort != NO_SORT) {
+					return sort;
+				}
+				if(attempt == 0 && !rebalance(gap, 1)) {
+					break;
+				}
+			}
+			return NO_SORT;
+		}
+
+		/**
+		 * Posts the renumbering if no sort is left free on either side of the entry at the position
+		 */
+		private void checkExhausted(int position) {
+			int sort = mSorts[position];
+			boolean exhausted = position > 0 ? sort - mSorts[position - 1] < 2 : sort < 2;
+			if(!exhausted && position + 1 < mSize) {
+				exhausted = mSorts[position + 1] - sort < 2;
+			}
+			if(exhausted) {
+				if(LOG) Log.w(TAG, "checkExhausted uri=" + mUri + " position=" + position);
+				post(mRebalanceRunnable);
+			}
+		}
+
+		private final Runnable mRebalanceRunnable = new Runnable() {
+			@Override
+			public void run() {
+				boolean renumbered;
+				synchronized(Entries.this) {
+					dropIfStale();
+					if(mLoaded) {
+						rebalance(getGap(), 0);
+					}
+					renumbered = mRenumbered;
+					mRenumbered = false;
+				}
+				// NOTE: the edits are committed by the caller, but nobody commits this renumbering
+				if(renumbered) {
+					sendChanged();
+				}
+			}
+		};
+
+		/**
+		 * Renumbers the entries to (position + 1) * step, writing only the changed rows, in applyBatch chunks. The rows are written in the order
+		 * keeping the list order (see {@link #getRebalanceWrites(int[], int, int, int[])}), so it's intact if any chunk fails.
+		 * The rows are changed, so the next commit sends the reload
+		 * @param reserve number of the entries to be appended after the renumbering
+		 * @return false on failure, the entries are then reloaded on the next call
+		 */
+		private boolean rebalance(int gap, int reserve) {
+			int step = getRebalanceStep(gap, mSize, reserve);
+			if(step < 2) {
+				Log.e(TAG, "rebalance no room uri=" + mUri + " size=" + mSize);
+				return false;
+			}
+			ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+			int writes = 0;
+			int calls = 0;
+			boolean ok = true;
+			int[] positions = new int[mSize];
+			int count = getRebalanceWrites(mSorts, mSize, step, positions);
+			try {
+				for(int j = 0; j < count; j++) {
+					int i = positions[j];
+					ops.add(ContentProviderOperation.newUpdate(mUri).withValue(mRawSortCol, (i + 1) * step)
+							.withSelection(mIdCol + "=?", new String[] { Long.toString(mIds[i]) }).build());
+					if(ops.size() == MAX_BATCH_OPS || j == count - 1) {
+						mContext.getContentResolver().applyBatch(PowerampAPI.AUTHORITY, ops);
+						calls++;
+						writes += ops.size();
+						ops.clear();
+					}
+				}
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+				ok = false;
+			}
+			if(writes > 0 || !ok) {
+				mRenumbered = true; // Also for the failed chunk, as it may be applied partially
+			}
+			count(0, writes, calls);
+			synchronized(mLock) {
+				mRebalances++;
+				mRebalanceWrites += writes;
+			}
+			if(!ok) {
+				drop();
+				return false;
+			}
+			long sortSum = 0;
+			for(int i = 0; i < mSize; i++) {
+				mSorts[i] = (i + 1) * step;
+				sortSum += mSorts[i];
+			}
+			mSortSum = sortSum;
+			mMaxSort = mSize > 0 ? mSorts[mSize - 1] : 0;
+			if(LOG) Log.w(TAG, "rebalance uri=" + mUri + " size=" + mSize + " step=" + step + " writes=" + writes);
+			return true;
+		}
+
+		private void insertAt(int position, long id, int sort) {
+			if(mSize == mIds.length) {
+				int capacity = Math.max(16, mSize * 2);
+				mIds = Arrays.copyOf(mIds, capacity);
+				mSorts = Arrays.copyOf(mSorts, capacity);
+			}
+			System.arraycopy(mIds, position, mIds, position + 1, mSize - position);
+			System.arraycopy(mSorts, position, mSorts, position + 1, mSize - position);
+			mIds[position] = id;
+			mSorts[position] = sort;
+			mSize++;
+			mCount++;
+			mSortSum += sort;
+			mMaxSort = mSorts[mSize - 1];
+		}
+
+		private void removeAt(int position) {
+			mCount--;
+			mSortSum -= mSorts[position];
+			System.arraycopy(mIds, position + 1, mIds, position, mSize - position - 1);
+			System.arraycopy(mSorts, position + 1, mSorts, position, mSize - position - 1);
+			mSize--;
+			mMaxSort = mSize > 0 ? mSorts[mSize - 1] : 0;
+		}
+
+		/**
+		 * Loads all entries, or only the entries appended by {@link #appendAll(long[], int, int)} since the load
+		 */
+		private boolean ensureLoaded() {
+			boolean appendedOnly = mLoaded && mAppendedAfter != NO_SORT;
+			if(mLoaded && !appendedOnly) {
+				return true;
+			}
+			Cursor c = null;
+			try {
+				c = mContext.getContentResolver().query(mUri, new String[] { mIdCol, mSortCol },
+						appendedOnly ? mSortCol + ">?" : null, appendedOnly ? new String[] { Integer.toString(mAppendedAfter) } : null,
+						mSortCol + "," + mIdCol);
+				if(c == null) {
+					return false;
+				}
+				int size = appendedOnly ? mSize : 0;
+				int count = size + c.getCount();
+				long[] ids = appendedOnly && mIds.length >= count ? mIds : new long[Math.max(16, count)];
+				int[] sorts = appendedOnly && mSorts.length >= count ? mSorts : new int[ids.length];
+				if(appendedOnly && ids != mIds) {
+					System.arraycopy(mIds, 0, ids, 0, size);
+					System.arraycopy(mSorts, 0, sorts, 0, size);
+				}
+				while(size < count && c.moveToNext()) {
+					ids[size] = c.getLong(0);
+					sorts[size] = c.getInt(1);
+					size++;
+				}
+				long sortSum = 0;
+				for(int i = 0; i < size; i++) {
+					sortSum += sorts[i];
+				}
+				mIds = ids;
+				mSorts = sorts;
+				mSize = size;
+				mCount = size;
+				mSortSum = sortSum;
+				mMaxSort = size > 0 ? sorts[size - 1] : 0;
+				mAppendedAfter = NO_SORT;
+				mLoaded = true;
+				return true;
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+				return false;
+			} finally {
+				if(c != null) {
+					c.close();
+				}
+				count(1, 0, 1);
+			}
+		}
+	}
+}
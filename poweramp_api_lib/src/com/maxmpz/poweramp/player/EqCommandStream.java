@@ -0,0 +1,205 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.eclipse.jdt.annotation.NonNull;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * Coalesces equalizer band changes, e.g. from the live slider dragging, into at most one flush per {@link #setMinFlushInterval(int)}.<br>
+ * Pending changes are merged per band (the latest value wins). On flush, if fewer than {@link #setStringThreshold(int)} bands are changed,
+ * each is sent as {@link PowerampAPI.Commands#SET_EQU_BAND}, otherwise the changed bands are sent as one {@link PowerampAPI.Commands#SET_EQU_STRING}.
+ * Only the changed bands are sent, so the bands changed elsewhere meanwhile (e.g. by the preset change) are not overwritten with the stale values.<br>
+ * The first change is sent immediately, the latest state is always sent (trailing edge). {@link #flush()} should be called
+ * on onStopTrackingTouch to send the final state right away.<br>
+ * THREADING: UI thread
+ */
+public class EqCommandStream {
+	private static final String TAG = "EqCommandStream";
+	private static final boolean LOG = false;
+
+	public static final int DEFAULT_MIN_FLUSH_INTERVAL_MS = 100;
+	public static final int DEFAULT_STRING_THRESHOLD = 3;
+
+	private final @NonNull Context mContext;
+	private final Handler mHandler = new Handler();
+
+	private int mMinFlushIntervalMs = DEFAULT_MIN_FLUSH_INTERVAL_MS;
+	private int mStringThreshold = DEFAULT_STRING_THRESHOLD;
+
+	private final ArrayList<String> mNames = new ArrayList<>();
+	private float[] mValues = new float[16];
+	private boolean[] mDirty = new boolean[16];
+	private int mDirtyCount;
+	private boolean mFlushScheduled;
+	private long mLastFlushTime;
+	private final StringBuilder mSb = new StringBuilder();
+
+	private int mRequestedChanges;
+	private int mSentCommands;
+
+
+	public EqCommandStream(@NonNull Context context) {
+		mContext = context;
+	}
+
+	public void setMinFlushInterval(int ms) {
+		mMinFlushIntervalMs = ms;
+	}
+
+	/**
+	 * @param bands number of changed bands starting from which SET_EQU_STRING is sent instead of the individual SET_EQU_BANDs
+	 */
+	public void setStringThreshold(int bands) {
+		mStringThreshold = bands;
+	}
+
+	/**
+	 * Requests band change
+	 * @param name band name (preamp/bass/treble/31/62/.../16K)
+	 * @param value band value, see {@link PowerampAPI.Commands#SET_EQU_BAND}
+	 */
+	public void setBand(@NonNull String name, float value) {
+		mRequestedChanges++;
+
+		int ix = indexOf(name);
+		if(ix < 0) {
+			ix = mNames.size();
+			mNames.add(name);
+			if(ix >= mValues.length) {
+				mValues = Arrays.copyOf(mValues, ix * 2);
+				mDirty = Arrays.copyOf(mDirty, ix * 2);
+			}
+		}
+		mValues[ix] = value;
+		if(!mDirty[ix]) {
+			mDirty[ix] = true;
+			mDirtyCount++;
+		}
+
+		if(mFlushScheduled) {
+			return; // Merged into the pending flush
+		}
+		long sinceLast = SystemClock.elapsedRealtime() - mLastFlushTime;
+		if(sinceLast >= mMinFlushIntervalMs) {
+			flush();
+		} else {
+			mFlushScheduled = true;
+			mHandler.postDelayed(mFlushRunnable, mMinFlushIntervalMs - sinceLast);
+		}
+	}
+
+	/**
+	 * Sends the pending changes (if any) immediately, ignoring the rate limit
+	 */
+	public void flush() {
+		if(mFlushScheduled) {
+			mHandler.removeCallbacks(mFlushRunnable);
+			mFlushScheduled = false;
+		}
+		if(mDirtyCount == 0) {
+			return;
+		}
+		mLastFlushTime = SystemClock.elapsedRealtime();
+
+		int size = mNames.size();
+		if(mDirtyCount >= mStringThreshold) {
+			StringBuilder sb = mSb;
+			sb.setLength(0);
+			for(int i = 0; i < size; i++) {
+				if(mDirty[i]) {
+					sb.append(mNames.get(i)).append('=');
+					EqPresetCodec.appendFloat(sb, mValues[i]);
+					sb.append(';');
+				}
+			}
+			send(new Intent(PowerampAPI.ACTION_API_COMMAND)
+					.putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SET_EQU_STRING)
+					.putExtra(PowerampAPI.VALUE, sb.toString()));
+		} else {
+			for(int i = 0; i < size; i++) {
+				if(mDirty[i]) {
+					send(new Intent(PowerampAPI.ACTION_API_COMMAND)
+							.putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SET_EQU_BAND)
+							.putExtra(PowerampAPI.NAME, mNames.get(i))
+							.putExtra(PowerampAPI.VALUE, mValues[i]));
+				}
+			}
+		}
+		if(LOG) Log.w(TAG, "flush dirty=" + mDirtyCount + " requested=" + mRequestedChanges + " sent=" + mSentCommands);
+
+		Arrays.fill(mDirty, 0, size, false);
+		mDirtyCount = 0;
+	}
+
+	/**
+	 * Drops pending changes (if any)
+	 */
+	public void cancel() {
+		mHandler.removeCallbacks(mFlushRunnable);
+		mFlushScheduled = false;
+		Arrays.fill(mDirty, 0, mNames.size(), false);
+		mDirtyCount = 0;
+	}
+
+	/**
+	 * @return number of band changes requested via {@link #setBand(String, float)}
+	 */
+	public int getRequestedChanges() {
+		return mRequestedChanges;
+	}
+
+	/**
+	 * @return number of commands actually sent to Poweramp
+	 */
+	public int getSentCommands() {
+		return mSentCommands;
+	}
+
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mFlushScheduled = false;
+			flush();
+		}
+	};
+
+	private int indexOf(@NonNull String name) {
+		for(int i = 0, size = mNames.size(); i < size; i++) {
+			if(name.equals(mNames.get(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void send(@NonNull Intent intent) {
+		mSentCommands++;
+		PowerampAPIHelper.startPAService(mContext, intent);
+	}
+}
@@ -0,0 +1,250 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+
+/**
+ * Reusable equalizer values model, see {@link EqPresetCodec} for parsing/serializing of the {@link PowerampAPI#ACTION_EQU_CHANGED} value string.<br>
+ * Keeps the entries in the string order, each entry is either preamp (0..2), bass/treble tone (0..1) or equalizer band (-1..1).<br>
+ * Entry names are interned, so they can be compared by reference with {@link #PREAMP}/{@link #BASS}/{@link #TREBLE} and the previously returned names.<br>
+ * THREADING: not synchronized
+ */
+public class EqPreset {
+	public static final String PREAMP = "preamp";
+	public static final String BASS = "bass";
+	public static final String TREBLE = "treble";
+
+	public static final int TYPE_BAND = 0;
+	public static final int TYPE_PREAMP = 1;
+	public static final int TYPE_BASS = 2;
+	public static final int TYPE_TREBLE = 3;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private String[] mNames = new String[INITIAL_CAPACITY];
+	private float[] mValues = new float[INITIAL_CAPACITY];
+	private int[] mTypes = new int[INITIAL_CAPACITY];
+	private int mCount;
+	private int mPreampIx = -1;
+	private int mBassIx = -1;
+	private int mTrebleIx = -1;
+
+
+	public static int typeOf(@NonNull String name) {
+		if(PREAMP.equals(name)) {
+			return TYPE_PREAMP;
+		} else if(BASS.equals(name)) {
+			return TYPE_BASS;
+		} else if(TREBLE.equals(name)) {
+			return TYPE_TREBLE;
+		}
+		return TYPE_BAND;
+	}
+
+	public static float getMinValue(int type) {
+		return type == TYPE_BAND ? -1f : 0f;
+	}
+
+	public static float getMaxValue(int type) {
+		return type == TYPE_PREAMP ? 2f : 1f;
+	}
+
+	/**
+	 * @return neutral (flat) value for the entry type
+	 */
+	public static float getDefaultValue(int type) {
+		return type == TYPE_PREAMP ? 1f : 0f;
+	}
+
+	public static float clamp(int type, float value) {
+		float min = getMinValue(type);
+		if(value < min) {
+			return min;
+		}
+		float max = getMaxValue(type);
+		if(value > max) {
+			return max;
+		}
+		return value;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public @NonNull String getName(int ix) {
+		checkIndex(ix);
+		return mNames[ix];
+	}
+
+	public int getType(int ix) {
+		checkIndex(ix);
+		return mTypes[ix];
+	}
+
+	public float getValue(int ix) {
+		checkIndex(ix);
+		return mValues[ix];
+	}
+
+	/**
+	 * Sets the value, clamped to the entry type range
+	 */
+	public void setValue(int ix, float value) {
+		checkIndex(ix);
+		mValues[ix] = clamp(mTypes[ix], value);
+	}
+
+	/**
+	 * @return entry index, or -1
+	 */
+	public int indexOf(@NonNull String name) {
+		for(int i = 0; i < mCount; i++) {
+			String n = mNames[i];
+			if(n == name || n.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the entry value, adding the entry if it doesn't exist
+	 */
+	public void put(@NonNull String name, float value) {
+		int ix = indexOf(name);
+		if(ix >= 0) {
+			setValue(ix, value);
+		} else {
+			add(EqPresetCodec.intern(name, 0, name.length()), value);
+		}
+	}
+
+	public boolean hasPreamp() {
+		return mPreampIx >= 0;
+	}
+
+	public boolean hasTone() {
+		return mBassIx >= 0 || mTrebleIx >= 0;
+	}
+
+	public float getPreamp() {
+		return mPreampIx >= 0 ? mValues[mPreampIx] : getDefaultValue(TYPE_PREAMP);
+	}
+
+	public float getBass() {
+		return mBassIx >= 0 ? mValues[mBassIx] : getDefaultValue(TYPE_BASS);
+	}
+
+	public float getTreble() {
+		return mTrebleIx >= 0 ? mValues[mTrebleIx] : getDefaultValue(TYPE_TREBLE);
+	}
+
+	public void setPreamp(float value) {
+		put(PREAMP, value);
+	}
+
+	public void setBass(float value) {
+		put(BASS, value);
+	}
+
+	public void setTreble(float value) {
+		put(TREBLE, value);
+	}
+
+	/**
+	 * @return number of equalizer bands (excluding preamp and tone)
+	 */
+	public int getBandCount() {
+		return mCount - (mPreampIx >= 0 ? 1 : 0) - (mBassIx >= 0 ? 1 : 0) - (mTrebleIx >= 0 ? 1 : 0);
+	}
+
+	public void clear() {
+		Arrays.fill(mNames, 0, mCount, null);
+		mCount = 0;
+		mPreampIx = mBassIx = mTrebleIx = -1;
+	}
+
+	public void copyFrom(@NonNull EqPreset other) {
+		clear();
+		for(int i = 0; i < other.mCount; i++) {
+			add(other.mNames[i], other.mValues[i]);
+		}
+	}
+
+	/**
+	 * @return true if both presets have the same entries in the same order with the same values
+	 */
+	public boolean contentEquals(@Nullable EqPreset other) {
+		if(other == null || other.mCount != mCount) {
+			return false;
+		}
+		for(int i = 0; i < mCount; i++) {
+			if(mNames[i] != other.mNames[i] || Float.compare(mValues[i], other.mValues[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return EqPresetCodec.toString(this);
+	}
+
+	/**
+	 * @param name interned name
+	 */
+	void add(@NonNull String name, float value) {
+		if(mCount == mNames.length) {
+			int capacity = mCount * 2;
+			mNames = Arrays.copyOf(mNames, capacity);
+			mValues = Arrays.copyOf(mValues, capacity);
+			mTypes = Arrays.copyOf(mTypes, capacity);
+		}
+		int type = typeOf(name);
+		int ix = mCount++;
+		mNames[ix] = name;
+		mTypes[ix] = type;
+		mValues[ix] = clamp(type, value);
+		switch(type) {
+			case TYPE_PREAMP:
+				mPreampIx = ix;
+				break;
+			case TYPE_BASS:
+				mBassIx = ix;
+				break;
+			case TYPE_TREBLE:
+				mTrebleIx = ix;
+				break;
+		}
+	}
+
+	private void checkIndex(int ix) {
+		if(ix < 0 || ix >= mCount) {
+			throw new IndexOutOfBoundsException("ix=" + ix + " count=" + mCount);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.util.Log;
+
+
+/**
+ * Parser/serializer of the equalizer value string ({@link PowerampAPI#ACTION_EQU_CHANGED}, {@link PowerampAPI.Commands#SET_EQU_STRING}):
+ * <code>name=float;name=float;...</code> ('|' is also accepted as the separator).<br>
+ * Parsing is done in place, into the reusable {@link EqPreset}, without substrings, split arrays or boxing. Entry names are interned in the
+ * process wide pool, so after the first parse of the given band set, no allocations happen at all.<br>
+ * Serialization appends to the given StringBuilder without intermediate strings (values are written with up to 6 fractional digits).<br>
+ * THREADING: any
+ */
+public class EqPresetCodec {
+	private static final String TAG = "EqPresetCodec";
+
+	private static final int MAX_FRACTION_DIGITS = 6;
+	private static final long[] POW10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+			10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L, 10000000000000000L,
+			100000000000000000L, 1000000000000000000L };
+
+	private static final Object sPoolLock = new Object();
+	private static String[] sPool = {
+		EqPreset.PREAMP, EqPreset.BASS, EqPreset.TREBLE,
+		"31", "62", "125", "250", "500", "1K", "2K", "4K", "8K", "16K",
+	};
+	private static int sPoolSize = sPool.length;
+
+
+	/**
+	 * Parses the value string into the preset. The preset is cleared first. Malformed entries are skipped
+	 * @return number of parsed entries
+	 */
+	public static int parse(@Nullable CharSequence s, @NonNull EqPreset out) {
+		out.clear();
+		if(s == null) {
+			return 0;
+		}
+		int len = s.length();
+		int start = 0;
+		while(start < len) {
+			int end = start;
+			int eq = -1;
+			for(; end < len; end++) {
+				char c = s.charAt(end);
+				if(c == ';' || c == '|') {
+					break;
+				}
+				if(c == '=' && eq < 0) {
+					eq = end;
+				}
+			}
+			if(eq > start && eq < end - 1) {
+				float value = parseFloat(s, eq + 1, end);
+				if(!Float.isNaN(value)) {
+					out.add(intern(s, start, eq), value);
+				} else {
+					Log.e(TAG, "parse failed to parse value for=" + s.subSequence(start, end));
+				}
+			}
+			start = end + 1;
+		}
+		return out.getCount();
+	}
+
+	/**
+	 * Appends the serialized preset to the given StringBuilder
+	 */
+	public static void serialize(@NonNull EqPreset preset, @NonNull StringBuilder sb) {
+		for(int i = 0, count = preset.getCount(); i < count; i++) {
+			sb.append(preset.getName(i)).append('=');
+			appendFloat(sb, preset.getValue(i));
+			sb.append(';');
+		}
+	}
+
+	public static @NonNull String toString(@NonNull EqPreset preset) {
+		StringBuilder sb = new StringBuilder(preset.getCount() * 12);
+		serialize(preset, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends value with up to {@link #MAX_FRACTION_DIGITS} fractional digits (at least one), e.g. 1.0, -0.25, 0.333333
+	 */
+	public static void appendFloat(@NonNull StringBuilder sb, float value) {
+		if(Float.isNaN(value) || Float.isInfinite(value)) {
+			sb.append(0.0f);
+			return;
+		}
+		long scaled = Math.round((double)value * POW10[MAX_FRACTION_DIGITS]);
+		if(scaled < 0) {
+			sb.append('-');
+			scaled = -scaled;
+		}
+		long intPart = scaled / POW10[MAX_FRACTION_DIGITS];
+		long frac = scaled % POW10[MAX_FRACTION_DIGITS];
+		sb.append(intPart).append('.');
+		if(frac == 0) {
+			sb.append('0');
+			return;
+		}
+		int digits = MAX_FRACTION_DIGITS;
+		while(frac % 10 == 0) {
+			frac /= 10;
+			digits--;
+		}
+		// Leading zeros of the fraction
+		for(int i = digits - 1; i > 0 && frac < POW10[i]; i--) {
+			sb.append('0');
+		}
+		sb.append(frac);
+	}
+
+	/**
+	 * Parses [-+]digits[.digits][(e|E)[-+]digits] in the given range
+	 * @return parsed value or NaN
+	 */
+	public static float parseFloat(@NonNull CharSequence s, int start, int end) {
+		int i = start;
+		while(i < end && s.charAt(i) == ' ') i++;
+		while(end > i && s.charAt(end - 1) == ' ') end--;
+		if(i == end) {
+			return Float.NaN;
+		}
+
+		boolean negative = false;
+		char c = s.charAt(i);
+		if(c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int mantissaDigits = 0;
+		int exp10 = 0;
+		boolean anyDigits = false;
+
+		for(; i < end; i++) {
+			c = s.charAt(i);
+			if(c < '0' || c > '9') {
+				break;
+			}
+			anyDigits = true;
+			if(mantissaDigits < 18) {
+				mantissa = mantissa * 10 + (c - '0');
+				if(mantissa != 0) mantissaDigits++;
+			} else {
+				exp10++; // Precision limit, just scale
+			}
+		}
+		if(i < end && s.charAt(i) == '.') {
+			i++;
+			for(; i < end; i++) {
+				c = s.charAt(i);
+				if(c < '0' || c > '9') {
+					break;
+				}
+				anyDigits = true;
+				if(mantissaDigits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					if(mantissa != 0) mantissaDigits++;
+					exp10--;
+				}
+			}
+		}
+		if(!anyDigits) {
+			return Float.NaN;
+		}
+		if(i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			boolean expNegative = false;
+			if(i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+				expNegative = s.charAt(i) == '-';
+				i++;
+			}
+			int exp = 0;
+			boolean anyExpDigits = false;
+			for(; i < end; i++) {
+				c = s.charAt(i);
+				if(c < '0' || c > '9') {
+					break;
+				}
+				anyExpDigits = true;
+				if(exp < 1000) {
+					exp = exp * 10 + (c - '0');
+				}
+			}
+			if(!anyExpDigits) {
+				return Float.NaN;
+			}
+			exp10 += expNegative ? -exp : exp;
+		}
+		if(i != end) {
+			return Float.NaN;
+		}
+
+		double value = mantissa;
+		if(exp10 < 0) {
+			value = -exp10 < POW10.length ? value / POW10[-exp10] : value / Math.pow(10, -exp10);
+		} else if(exp10 > 0) {
+			value = exp10 < POW10.length ? value * POW10[exp10] : value * Math.pow(10, exp10);
+		}
+		return (float)(negative ? -value : value);
+	}
+
+	/**
+	 * @return the pooled String equal to the given region. Allocates only for the names not seen before
+	 */
+	static @NonNull String intern(@NonNull CharSequence s, int start, int end) {
+		String[] pool;
+		int size;
+		synchronized(sPoolLock) {
+			pool = sPool;
+			size = sPoolSize;
+		}
+		String res = find(pool, size, s, start, end);
+		if(res != null) {
+			return res;
+		}
+		synchronized(sPoolLock) {
+			res = find(sPool, sPoolSize, s, start, end); // Could be added meanwhile
+			if(res == null) {
+				res = s.subSequence(start, end).toString();
+				if(sPoolSize == sPool.length) {
+					sPool = Arrays.copyOf(sPool, sPoolSize * 2);
+				}
+				sPool[sPoolSize++] = res;
+			}
+			return res;
+		}
+	}
+
+	private static @Nullable String find(@NonNull String[] pool, int size, @NonNull CharSequence s, int start, int end) {
+		int len = end - start;
+		for(int i = 0; i < size; i++) {
+			String name = pool[i];
+			if(name.length() != len) {
+				continue;
+			}
+			int j = 0;
+			while(j < len && name.charAt(j) == s.charAt(start + j)) {
+				j++;
+			}
+			if(j == len) {
+				return name;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * Predicts the equalizer preset for the audio output, based on {@link TableDefs.EqPresets} BIND_TO_* columns.<br>
+ * The device => preset table ({@link RouterConsts#DEVICE_HEADSET}..{@link RouterConsts#DEVICE_OTHER}) is precomputed from {@link EqPresetRepository},
+ * so the route change resolves instantly.<br>
+ * Route changes are applied with hysteresis: the new route should be stable for {@link #setSettleTime(int, int)} ms (longer for BT by default,
+ * as BT connections tend to flap) before it's reported/applied, and a route flipping back to the applied one within that time
+ * is ignored. With {@link #setAutoApply(boolean)}, the resolved preset is sent as {@link PowerampAPI.Commands#SET_EQU_PRESET}, at most once
+ * per {@link #MIN_APPLY_INTERVAL_MS}. The preset is sent once per settled device. If the preset is changed meanwhile (by user or anything else),
+ * as reported via {@link #onEquChanged(Intent)}, that choice is kept and nothing is auto-applied until the next device change.
+ * Preset list changes re-apply only if the preset bound to the current device changed.<br>
+ * The device is provided by the app via {@link #onRouteChanged(int)}, e.g. from AudioManager device callbacks.<br>
+ * THREADING: UI thread
+ */
+public class EqPresetDeviceResolver implements EqPresetRepository.Listener {
+	private static final String TAG = "EqPresetDeviceResolver";
+	private static final boolean LOG = false;
+
+	public static final int DEFAULT_SETTLE_TIME_MS = 300;
+	public static final int DEFAULT_BT_SETTLE_TIME_MS = 2000;
+	public static final int MIN_APPLY_INTERVAL_MS = 1000;
+
+	public interface Listener {
+		/**
+		 * Called when the settled device or its resolved preset changes
+		 * @param preset the preset bound to the device, or null if none
+		 */
+		public void onDevicePresetResolved(int device, @Nullable EqPresetRepository.Preset preset);
+	}
+
+	private final @NonNull Context mContext;
+	private final @NonNull EqPresetRepository mRepository;
+	private final Handler mHandler = new Handler();
+	private @Nullable Listener mListener;
+
+	private final @Nullable EqPresetRepository.Preset[] mDevicePresets = new EqPresetRepository.Preset[RouterConsts.DEVICE_COUNT];
+	private final int[] mSettleTimeMs = new int[RouterConsts.DEVICE_COUNT];
+
+	private boolean mAutoApply;
+	private int mAppliedDevice = RouterConsts.DEVICE_UNKNOWN;
+	private int mPendingDevice = RouterConsts.DEVICE_UNKNOWN;
+	private long mLastSentPresetId = PowerampAPI.NO_ID;
+	/** If true, the preset was changed after the last applied one, and auto apply is blocked until the device change */
+	private boolean mUserOverride;
+	private long mLastSentTime;
+
+	private int mRouteChanges;
+	private int mSettledChanges;
+	private int mSentPresets;
+
+
+	public EqPresetDeviceResolver(@NonNull Context context) {
+		mContext = context;
+		mRepository = EqPresetRepository.getInstance(context);
+		Arrays.fill(mSettleTimeMs, DEFAULT_SETTLE_TIME_MS);
+		mSettleTimeMs[RouterConsts.DEVICE_BT] = DEFAULT_BT_SETTLE_TIME_MS;
+	}
+
+	public void setListener(@Nullable Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * @param autoApply if true, the resolved preset is sent to Poweramp on the settled route change
+	 */
+	public void setAutoApply(boolean autoApply) {
+		mAutoApply = autoApply;
+	}
+
+	public void setSettleTime(int device, int ms) {
+		if(device >= 0 && device < RouterConsts.DEVICE_COUNT) {
+			mSettleTimeMs[device] = ms;
+		}
+	}
+
+	/**
+	 * Starts listening to preset changes. Should be paired with {@link #stop()}
+	 */
+	public void start() {
+		mRepository.addListener(this);
+		List<EqPresetRepository.Preset> presets = mRepository.getPresetsIfLoaded();
+		if(presets != null) {
+			rebuildTable(presets);
+		}
+	}
+
+	public void stop() {
+		mRepository.removeListener(this);
+		mHandler.removeCallbacks(mSettleRunnable);
+		mHandler.removeCallbacks(mApplyRunnable);
+		mPendingDevice = RouterConsts.DEVICE_UNKNOWN;
+	}
+
+	/**
+	 * @return the preset bound to the device, or null. O(1)
+	 */
+	public @Nullable EqPresetRepository.Preset getPresetForDevice(int device) {
+		if(device < 0 || device >= RouterConsts.DEVICE_COUNT) {
+			return null;
+		}
+		return mDevicePresets[device];
+	}
+
+	/**
+	 * @return the settled device or {@link RouterConsts#DEVICE_UNKNOWN}
+	 */
+	public int getDevice() {
+		return mAppliedDevice;
+	}
+
+	/**
+	 * Should be called on each audio route change
+	 * @param device one of RouterConsts.DEVICE_*
+	 */
+	public void onRouteChanged(int device) {
+		mRouteChanges++;
+		if(device == mPendingDevice) {
+			return; // Already settling
+		}
+		mHandler.removeCallbacks(mSettleRunnable);
+		if(device == mAppliedDevice) {
+			// Flipped back before settling, nothing to do
+			if(LOG) Log.w(TAG, "onRouteChanged flip back device=" + device);
+			mPendingDevice = RouterConsts.DEVICE_UNKNOWN;
+			return;
+		}
+		mPendingDevice = device;
+		int settleTime = device >= 0 && device < RouterConsts.DEVICE_COUNT ? mSettleTimeMs[device] : DEFAULT_SETTLE_TIME_MS;
+		if(mAppliedDevice == RouterConsts.DEVICE_UNKNOWN) {
+			settleTime = 0; // Initial route, nothing to flap from
+		}
+		mHandler.postDelayed(mSettleRunnable, settleTime);
+	}
+
+	/**
+	 * Should be called on {@link PowerampAPI#ACTION_EQU_CHANGED}, so the preset picked by user (or the manual equalizer edit) after the last applied one
+	 * is kept until the next device change
+	 */
+	public void onEquChanged(@Nullable Intent intent) {
+		if(intent == null) {
+			return;
+		}
+		long presetId = intent.getLongExtra(PowerampAPI.ID, PowerampAPI.NO_ID);
+		if(presetId != mLastSentPresetId && !mUserOverride) {
+			if(LOG) Log.w(TAG, "onEquChanged presetId=" + presetId + " != mLastSentPresetId=" + mLastSentPresetId + " => user override");
+			mUserOverride = true;
+			mHandler.removeCallbacks(mApplyRunnable);
+		}
+	}
+
+	@Override
+	public void onEqPresetsChanged(@NonNull List<EqPresetRepository.Preset> presets) {
+		long oldPresetId = getPresetId(mAppliedDevice);
+		rebuildTable(presets);
+		if(mAppliedDevice != RouterConsts.DEVICE_UNKNOWN && getPresetId(mAppliedDevice) != oldPresetId) {
+			onSettled(mAppliedDevice, false);
+		}
+	}
+
+	/**
+	 * @return number of route changes reported vs. settled, and SET_EQU_PRESET commands sent, for diagnostics
+	 */
+	public String getStats() {
+		return "routeChanges=" + mRouteChanges + " settled=" + mSettledChanges + " sentPresets=" + mSentPresets;
+	}
+
+	private final Runnable mSettleRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int device = mPendingDevice;
+			mPendingDevice = RouterConsts.DEVICE_UNKNOWN;
+			if(device != mAppliedDevice) {
+				// The new device should get its preset, even if it was the last sent one, or if user picked another one for the previous device
+				mLastSentPresetId = PowerampAPI.NO_ID;
+				mUserOverride = false;
+			}
+			mAppliedDevice = device;
+			mSettledChanges++;
+			onSettled(device, true);
+		}
+	};
+
+	void onSettled(int device, boolean routeChanged) {
+		EqPresetRepository.Preset preset = getPresetForDevice(device);
+		if(LOG) Log.w(TAG, "onSettled device=" + device + " preset=" + preset + " routeChanged=" + routeChanged);
+
+		if(mListener != null) {
+			mListener.onDevicePresetResolved(device, preset);
+		}
+
+		if(mAutoApply) {
+			applyPreset();
+		}
+	}
+
+	private final Runnable mApplyRunnable = new Runnable() {
+		@Override
+		public void run() {
+			applyPreset();
+		}
+	};
+
+	void applyPreset() {
+		mHandler.removeCallbacks(mApplyRunnable);
+		EqPresetRepository.Preset preset = getPresetForDevice(mAppliedDevice);
+		if(preset == null || preset.getId() == mLastSentPresetId || mUserOverride) {
+			return;
+		}
+		long now = SystemClock.elapsedRealtime();
+		long sinceLast = now - mLastSentTime;
+		if(sinceLast < MIN_APPLY_INTERVAL_MS) {
+			// Settled again too soon, apply the latest state when allowed
+			mHandler.postDelayed(mApplyRunnable, MIN_APPLY_INTERVAL_MS - sinceLast);
+			return;
+		}
+		mLastSentPresetId = preset.getId();
+		mLastSentTime = now;
+		mSentPresets++;
+		PowerampAPIHelper.startPAService(mContext, new Intent(PowerampAPI.ACTION_API_COMMAND)
+				.putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SET_EQU_PRESET)
+				.putExtra(PowerampAPI.ID, preset.getId()));
+	}
+
+	private long getPresetId(int device) {
+		EqPresetRepository.Preset preset = getPresetForDevice(device);
+		return preset != null ? preset.getId() : PowerampAPI.NO_ID;
+	}
+
+	private void rebuildTable(@NonNull List<EqPresetRepository.Preset> presets) {
+		Arrays.fill(mDevicePresets, null);
+		for(int i = 0, size = presets.size(); i < size; i++) {
+			EqPresetRepository.Preset preset = presets.get(i);
+			for(int device = 0; device < RouterConsts.DEVICE_COUNT; device++) {
+				if(mDevicePresets[device] == null && preset.isBoundTo(device)) {
+					mDevicePresets[device] = preset;
+				}
+			}
+		}
+	}
+}
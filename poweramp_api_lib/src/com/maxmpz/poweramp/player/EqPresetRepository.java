@@ -0,0 +1,383 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+
+/**
+ * In-memory cache of Poweramp equalizer presets ({@link TableDefs.EqPresets}), with the preset strings already parsed.<br>
+ * Presets are loaded once, on the worker thread, and kept until invalidated by {@link PowerampAPI#ACTION_RELOAD_DATA} naming
+ * {@link TableDefs.EqPresets#TABLE} (or without table at all).<br>
+ * NOTE: ACTION_RELOAD_DATA is normally sent to Poweramp package only, so the app changing presets via the provider should also call
+ * {@link #onReloadData(String)} directly (or forward the intents received by its receiver via {@link #onReloadDataIntent(Intent)}).<br>
+ * THREADING: any. Listeners are called on the main thread
+ */
+public class EqPresetRepository {
+	private static final String TAG = "EqPresetRepository";
+	private static final boolean LOG = false;
+
+	public static final @NonNull Uri EQ_PRESETS_URI = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath("eq_presets").build();
+
+	private static final String[] PROJECTION = {
+		TableDefs.EqPresets._ID,
+		TableDefs.EqPresets.NAME,
+		TableDefs.EqPresets.PRESET,
+		TableDefs.EqPresets._DATA,
+		TableDefs.EqPresets.BIND_TO_WIRED,
+		TableDefs.EqPresets.BIND_TO_SPEAKER,
+		TableDefs.EqPresets.BIND_TO_BT,
+		TableDefs.EqPresets.BIND_TO_USB,
+		TableDefs.EqPresets.BIND_TO_OTHER,
+	};
+	private static final int COL_ID = 0;
+	private static final int COL_NAME = 1;
+	private static final int COL_PRESET = 2;
+	private static final int COL_DATA = 3;
+	/**
+	 * BIND_TO_* columns, indexed by RouterConsts.DEVICE_* - COL_BIND_FIRST
+	 */
+	private static final int COL_BIND_FIRST = 4;
+
+	public interface Listener {
+		/**
+		 * Called when presets are (re)loaded
+		 */
+		public void onEqPresetsChanged(@NonNull List<Preset> presets);
+	}
+
+	/**
+	 * Immutable preset
+	 */
+	public static class Preset {
+		private final long mId;
+		private final @Nullable String mName;
+		private final int mPreset;
+		private final @Nullable String mData;
+		private final @NonNull EqPreset mValues;
+		private final int mBindMask;
+
+		Preset(long id, @Nullable String name, int preset, @Nullable String data, int bindMask) {
+			mId = id;
+			mName = name;
+			mPreset = preset;
+			mData = data;
+			mBindMask = bindMask;
+			mValues = new EqPreset();
+			EqPresetCodec.parse(data, mValues);
+		}
+
+		public long getId() {
+			return mId;
+		}
+
+		/**
+		 * @return custom preset name, or null for predefined preset
+		 */
+		public @Nullable String getName() {
+			return mName;
+		}
+
+		/**
+		 * @return predefined preset number, or -1 for custom preset
+		 */
+		public int getPreset() {
+			return mPreset;
+		}
+
+		/**
+		 * @return preset string
+		 */
+		public @Nullable String getData() {
+			return mData;
+		}
+
+		/**
+		 * @return parsed preset string. NOTE: shared, must not be modified, use {@link EqPreset#copyFrom(EqPreset)} to edit
+		 */
+		public @NonNull EqPreset getValues() {
+			return mValues;
+		}
+
+		/**
+		 * @return bit mask of (1 &lt;&lt; RouterConsts.DEVICE_*) the preset is bound to
+		 */
+		public int getBindMask() {
+			return mBindMask;
+		}
+
+		public boolean isBoundTo(int device) {
+			return device >= 0 && device < RouterConsts.DEVICE_COUNT && (mBindMask & (1 << device)) != 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Preset id=" + mId + " name=" + mName + " preset=" + mPreset + " bindMask=" + mBindMask;
+		}
+	}
+
+	private static @Nullable EqPresetRepository sInstance;
+
+	private final @NonNull Context mContext;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private @Nullable Handler mWorkerHandler;
+
+	private final Object mLock = new Object();
+	private @Nullable List<Preset> mPresets; // Null if not loaded or invalidated
+	private int mGeneration; // Incremented on invalidate, so the load started before invalidation doesn't publish stale presets
+	private boolean mLoading;
+	private final ArrayList<Listener> mListeners = new ArrayList<>();
+	private boolean mReceiverRegistered;
+	private int mLoads;
+
+
+	public static @NonNull EqPresetRepository getInstance(@NonNull Context context) {
+		synchronized(EqPresetRepository.class) {
+			EqPresetRepository instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new EqPresetRepository(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	EqPresetRepository(@NonNull Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * @return cached presets (sorted by name), or null if not loaded yet. In the later case, the async load is started and listeners are notified when done
+	 */
+	public @Nullable List<Preset> getPresetsIfLoaded() {
+		synchronized(mLock) {
+			if(mPresets == null) {
+				loadAsync();
+			}
+			return mPresets;
+		}
+	}
+
+	/**
+	 * Returns cached presets or loads them synchronously. Should not be called on the main thread if presets are not loaded yet
+	 */
+	public @NonNull List<Preset> getPresets() {
+		int generation;
+		synchronized(mLock) {
+			if(mPresets != null) {
+				return mPresets;
+			}
+			generation = mGeneration;
+		}
+		List<Preset> presets = load();
+		publish(presets, generation);
+		return presets;
+	}
+
+	/**
+	 * @return cached preset by id or null if no such preset or presets are not loaded yet
+	 */
+	public @Nullable Preset getPresetById(long id) {
+		List<Preset> presets = getPresetsIfLoaded();
+		if(presets != null) {
+			for(int i = 0, size = presets.size(); i < size; i++) {
+				Preset p = presets.get(i);
+				if(p.mId == id) {
+					return p;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds listener. Also registers ACTION_RELOAD_DATA receiver (if not yet) and starts loading (if not loaded)
+	 */
+	public void addListener(@NonNull Listener listener) {
+		boolean register;
+		synchronized(mLock) {
+			if(!mListeners.contains(listener)) {
+				mListeners.add(listener);
+			}
+			register = !mReceiverRegistered;
+			mReceiverRegistered = true;
+			if(mPresets == null) {
+				loadAsync();
+			}
+		}
+		if(register) {
+			mContext.registerReceiver(mReloadReceiver, new IntentFilter(PowerampAPI.ACTION_RELOAD_DATA));
+		}
+	}
+
+	public void removeListener(@NonNull Listener listener) {
+		boolean unregister;
+		synchronized(mLock) {
+			mListeners.remove(listener);
+			unregister = mReceiverRegistered && mListeners.isEmpty();
+			if(unregister) {
+				mReceiverRegistered = false;
+			}
+		}
+		if(unregister) {
+			mContext.unregisterReceiver(mReloadReceiver);
+		}
+	}
+
+	/**
+	 * Should be called when some data was changed and ACTION_RELOAD_DATA is sent with the given table
+	 * @param table changed table, or null if unknown
+	 */
+	public void onReloadData(@Nullable String table) {
+		if(table == null || TableDefs.EqPresets.TABLE.equals(table)) {
+			invalidate();
+		} else if(LOG) Log.w(TAG, "onReloadData ignored table=" + table);
+	}
+
+	public void onReloadDataIntent(@NonNull Intent intent) {
+		if(PowerampAPI.ACTION_RELOAD_DATA.equals(intent.getAction())) {
+			onReloadData(intent.getStringExtra(PowerampAPI.TABLE));
+		}
+	}
+
+	/**
+	 * Drops cached presets. If there are listeners, presets are reloaded and listeners are notified
+	 */
+	public void invalidate() {
+		synchronized(mLock) {
+			mGeneration++;
+			mPresets = null;
+			mLoading = false;
+			if(!mListeners.isEmpty()) {
+				loadAsync();
+			}
+		}
+		if(LOG) Log.w(TAG, "invalidate");
+	}
+
+	/**
+	 * @return number of provider loads done, for the cache efficiency diagnostics
+	 */
+	public int getLoads() {
+		synchronized(mLock) {
+			return mLoads;
+		}
+	}
+
+	// NOTE: under mLock
+	private void loadAsync() {
+		if(mLoading) {
+			return;
+		}
+		mLoading = true;
+		final int generation = mGeneration;
+		if(mWorkerHandler == null) {
+			HandlerThread thread = new HandlerThread(TAG);
+			thread.start();
+			mWorkerHandler = new Handler(thread.getLooper());
+		}
+		mWorkerHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				publish(load(), generation);
+			}
+		});
+	}
+
+	void publish(final @NonNull List<Preset> presets, int generation) {
+		final ArrayList<Listener> listeners;
+		synchronized(mLock) {
+			if(generation != mGeneration) {
+				if(LOG) Log.w(TAG, "publish stale generation=" + generation);
+				return;
+			}
+			mPresets = presets;
+			mLoading = false;
+			listeners = new ArrayList<>(mListeners);
+		}
+		if(listeners.isEmpty()) {
+			return;
+		}
+		mMainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener l : listeners) {
+					l.onEqPresetsChanged(presets);
+				}
+			}
+		});
+	}
+
+	@NonNull List<Preset> load() {
+		ArrayList<Preset> presets = new ArrayList<>();
+		Cursor c = null;
+		try {
+			c = mContext.getContentResolver().query(EQ_PRESETS_URI, PROJECTION, null, null, TableDefs.EqPresets.NAME);
+			if(c != null) {
+				while(c.moveToNext()) {
+					int bindMask = 0;
+					for(int device = 0; device < RouterConsts.DEVICE_COUNT; device++) {
+						if(c.getInt(COL_BIND_FIRST + device) != 0) {
+							bindMask |= 1 << device;
+						}
+					}
+					presets.add(new Preset(c.getLong(COL_ID),
+							c.getString(COL_NAME),
+							c.isNull(COL_PRESET) ? -1 : c.getInt(COL_PRESET),
+							c.getString(COL_DATA),
+							bindMask));
+				}
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+		synchronized(mLock) {
+			mLoads++;
+		}
+		if(LOG) Log.w(TAG, "load presets=" + presets.size());
+		return Collections.unmodifiableList(presets);
+	}
+
+	private final BroadcastReceiver mReloadReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onReloadDataIntent(intent);
+		}
+	};
+}
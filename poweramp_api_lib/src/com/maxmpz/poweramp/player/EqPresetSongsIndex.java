@@ -0,0 +1,384 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+
+/**
+ * In-memory song => equalizer preset index, built from {@link TableDefs.EqPresetSongs} ({@link TableDefs.EqPresetSongs#FILE_ID} =>
+ * {@link TableDefs.EqPresetSongs#PRESET_ID}) on the worker thread, so the preset bound to the track is resolved in O(1) on track change.<br>
+ * The index is kept current incrementally: on {@link PowerampAPI#ACTION_RELOAD_DATA} naming eq_preset_songs, only the rows with _id above
+ * the last seen one are loaded. Then the index row count and (file_id, preset_id) checksum are compared with the table ones, and if they differ
+ * (rows deleted or rebound in place), the index is rebuilt in the background and swapped in.<br>
+ * The app changing the bindings itself can apply them right away via {@link #put(long, long)}/{@link #remove(long)}. Such changes made while
+ * the worker loads are replayed over the loaded data, so the swap doesn't lose them.<br>
+ * THREADING: any
+ */
+public class EqPresetSongsIndex {
+	private static final String TAG = "EqPresetSongsIndex";
+	private static final boolean LOG = false;
+
+	public static final @NonNull Uri EQ_PRESET_SONGS_URI = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath(TableDefs.EqPresetSongs.TABLE).build();
+
+	/** Checksum over (file_id, preset_id) pairs, order independent. NOTE: must match {@link #checksum(long, long)} */
+	private static final String CHECKSUM_SQL = "SUM((" + TableDefs.EqPresetSongs.FILE_ID + " % 65521) * ((" + TableDefs.EqPresetSongs.PRESET_ID + " % 65521) + 1))";
+
+	private static final String[] PROJECTION = {
+		TableDefs.EqPresetSongs._ID,
+		TableDefs.EqPresetSongs.FILE_ID,
+		TableDefs.EqPresetSongs.PRESET_ID,
+	};
+
+	private static @Nullable EqPresetSongsIndex sInstance;
+
+	private final @NonNull Context mContext;
+	private @Nullable Handler mWorkerHandler;
+
+	private final Object mLock = new Object();
+	private @NonNull LongLongHashMap mIndex = new LongLongHashMap(0, PowerampAPI.NO_ID);
+	private long mMaxRowId = -1;
+	/** put()/remove() calls made while the worker loads, replayed after the load. {@link PowerampAPI#NO_ID} value means removal. Null if not loading */
+	private @Nullable LongLongHashMap mPending;
+	private boolean mReady;
+	private boolean mStarted;
+
+	private int mFullBuilds;
+	private int mDeltaUpdates;
+
+
+	public static @NonNull EqPresetSongsIndex getInstance(@NonNull Context context) {
+		synchronized(EqPresetSongsIndex.class) {
+			EqPresetSongsIndex instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new EqPresetSongsIndex(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	EqPresetSongsIndex(@NonNull Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Starts the background index building and registers ACTION_RELOAD_DATA receiver. Safe to call multiple times
+	 */
+	public void start() {
+		synchronized(mLock) {
+			if(mStarted) {
+				return;
+			}
+			mStarted = true;
+		}
+		mContext.registerReceiver(mReloadReceiver, new IntentFilter(PowerampAPI.ACTION_RELOAD_DATA));
+		post(mFullBuildRunnable);
+	}
+
+	/**
+	 * Unregisters ACTION_RELOAD_DATA receiver. The index is kept, but not updated until {@link #start()}
+	 */
+	public void stop() {
+		synchronized(mLock) {
+			if(!mStarted) {
+				return;
+			}
+			mStarted = false;
+		}
+		mContext.unregisterReceiver(mReloadReceiver);
+	}
+
+	/**
+	 * @return true if the initial build is done
+	 */
+	public boolean isReady() {
+		synchronized(mLock) {
+			return mReady;
+		}
+	}
+
+	/**
+	 * @param fileId folder_files._id, e.g. {@link PowerampAPI.Track#REAL_ID}
+	 * @return preset id bound to the file, or {@link PowerampAPI#NO_ID}
+	 */
+	public long getPresetId(long fileId) {
+		synchronized(mLock) {
+			return mIndex.get(fileId);
+		}
+	}
+
+	/**
+	 * @return the preset bound to the track, if any, from {@link EqPresetRepository}. If presets are not loaded yet, starts their loading and returns null
+	 */
+	public @Nullable EqPresetRepository.Preset resolvePreset(long fileId) {
+		long presetId = getPresetId(fileId);
+		if(presetId == PowerampAPI.NO_ID) {
+			return null;
+		}
+		return EqPresetRepository.getInstance(mContext).getPresetById(presetId);
+	}
+
+	/**
+	 * Resolves the preset for the track bundle ({@link PowerampAPI#ACTION_TRACK_CHANGED} track extra)
+	 */
+	public @Nullable EqPresetRepository.Preset resolvePreset(@Nullable Bundle track) {
+		if(track == null) {
+			return null;
+		}
+		return resolvePreset(track.getLong(PowerampAPI.Track.REAL_ID, PowerampAPI.NO_ID));
+	}
+
+	/**
+	 * Applies the binding made by this app, without waiting for the reload
+	 */
+	public void put(long fileId, long presetId) {
+		synchronized(mLock) {
+			mIndex.put(fileId, presetId);
+			if(mPending != null) {
+				mPending.put(fileId, presetId);
+			}
+		}
+	}
+
+	/**
+	 * Applies the unbinding made by this app, without waiting for the reload
+	 */
+	public void remove(long fileId) {
+		synchronized(mLock) {
+			mIndex.remove(fileId);
+			if(mPending != null) {
+				mPending.put(fileId, PowerampAPI.NO_ID);
+			}
+		}
+	}
+
+	/**
+	 * @param table changed table, or null if unknown
+	 */
+	public void onReloadData(@Nullable String table) {
+		if(table == null || TableDefs.EqPresetSongs.TABLE.equals(table)) {
+			post(mDeltaRunnable);
+		}
+	}
+
+	public int getFullBuilds() {
+		synchronized(mLock) {
+			return mFullBuilds;
+		}
+	}
+
+	public int getDeltaUpdates() {
+		synchronized(mLock) {
+			return mDeltaUpdates;
+		}
+	}
+
+	private void post(@NonNull Runnable r) {
+		Handler handler;
+		synchronized(mLock) {
+			if(mWorkerHandler == null) {
+				HandlerThread thread = new HandlerThread(TAG);
+				thread.start();
+				mWorkerHandler = new Handler(thread.getLooper());
+			}
+			handler = mWorkerHandler;
+		}
+		handler.removeCallbacks(r); // Coalesce repeated reloads
+		handler.post(r);
+	}
+
+	private final Runnable mFullBuildRunnable = new Runnable() {
+		@Override
+		public void run() {
+			fullBuild();
+		}
+	};
+
+	private final Runnable mDeltaRunnable = new Runnable() {
+		@Override
+		public void run() {
+			boolean ready;
+			synchronized(mLock) {
+				ready = mReady;
+			}
+			if(!ready) {
+				fullBuild();
+			} else {
+				deltaUpdate();
+			}
+		}
+	};
+
+	// Worker thread
+	void fullBuild() {
+		beginLoad();
+		long[] stats = queryStats();
+		LongLongHashMap index = new LongLongHashMap(stats != null ? (int)stats[0] : 0, PowerampAPI.NO_ID);
+		long maxRowId = load(index, -1);
+		synchronized(mLock) {
+			endLoad(index);
+			mIndex = index;
+			mMaxRowId = maxRowId;
+			mReady = true;
+			mFullBuilds++;
+		}
+		if(LOG) Log.w(TAG, "fullBuild size=" + index.size() + " maxRowId=" + maxRowId);
+	}
+
+	// Worker thread
+	void deltaUpdate() {
+		long fromRowId;
+		synchronized(mLock) {
+			fromRowId = mMaxRowId;
+		}
+		beginLoad();
+		LongLongHashMap delta = new LongLongHashMap(0, PowerampAPI.NO_ID);
+		final long maxRowId = load(delta, fromRowId);
+		int size;
+		final long[] checksum = new long[1];
+		synchronized(mLock) {
+			final LongLongHashMap index = mIndex;
+			delta.forEach(new LongLongHashMap.Visitor() {
+				@Override
+				public void visit(long key, long value) {
+					index.put(key, value);
+				}
+			});
+			endLoad(index);
+			if(maxRowId > mMaxRowId) {
+				mMaxRowId = maxRowId;
+			}
+			size = index.size();
+			index.forEach(new LongLongHashMap.Visitor() {
+				@Override
+				public void visit(long key, long value) {
+					checksum[0] += checksum(key, value);
+				}
+			});
+			mDeltaUpdates++;
+		}
+		long[] stats = queryStats();
+		if(stats != null && (stats[0] != size || stats[1] != checksum[0])) {
+			// Some rows were deleted or rebound in place, can't detect which without the full scan
+			if(LOG) Log.w(TAG, "deltaUpdate size=" + size + " count=" + stats[0] + " checksum=" + checksum[0] + " table checksum=" + stats[1] + ", rebuilding");
+			fullBuild();
+		} else if(LOG) Log.w(TAG, "deltaUpdate added=" + delta.size() + " size=" + size);
+	}
+
+	private static long checksum(long fileId, long presetId) {
+		return (fileId % 65521) * ((presetId % 65521) + 1);
+	}
+
+	private void beginLoad() {
+		synchronized(mLock) {
+			mPending = new LongLongHashMap(0, -1);
+		}
+	}
+
+	/**
+	 * Replays the put()/remove() calls made during the load over the loaded data. Called under mLock
+	 */
+	private void endLoad(final @NonNull LongLongHashMap index) {
+		LongLongHashMap pending = mPending;
+		mPending = null;
+		if(pending != null) {
+			pending.forEach(new LongLongHashMap.Visitor() {
+				@Override
+				public void visit(long key, long value) {
+					if(value == PowerampAPI.NO_ID) {
+						index.remove(key);
+					} else {
+						index.put(key, value);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return max loaded row id, or fromRowId if nothing loaded
+	 */
+	private long load(@NonNull LongLongHashMap out, long fromRowId) {
+		long maxRowId = fromRowId;
+		Cursor c = null;
+		try {
+			c = mContext.getContentResolver().query(EQ_PRESET_SONGS_URI, PROJECTION,
+					fromRowId >= 0 ? TableDefs.EqPresetSongs._ID + ">?" : null,
+					fromRowId >= 0 ? new String[] { Long.toString(fromRowId) } : null,
+					TableDefs.EqPresetSongs._ID);
+			if(c != null) {
+				while(c.moveToNext()) {
+					long rowId = c.getLong(0);
+					out.put(c.getLong(1), c.getLong(2));
+					if(rowId > maxRowId) {
+						maxRowId = rowId;
+					}
+				}
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+		return maxRowId;
+	}
+
+	/**
+	 * @return eq_preset_songs { row count, checksum } or null on failure
+	 */
+	private @Nullable long[] queryStats() {
+		Cursor c = null;
+		try {
+			c = mContext.getContentResolver().query(EQ_PRESET_SONGS_URI, new String[] { "COUNT(*)", CHECKSUM_SQL }, null, null, null);
+			if(c != null && c.moveToFirst()) {
+				return new long[] { c.getLong(0), c.getLong(1) };
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+		return null;
+	}
+
+	private final BroadcastReceiver mReloadReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onReloadData(intent.getStringExtra(PowerampAPI.TABLE));
+		}
+	};
+}
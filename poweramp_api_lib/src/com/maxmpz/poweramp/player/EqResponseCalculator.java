@@ -0,0 +1,348 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import org.eclipse.jdt.annotation.NonNull;
+
+
+/**
+ * Calculates the approximate frequency response curve (dB) of the {@link EqPreset}, e.g. for drawing it while the bands are dragged.<br>
+ * Each equalizer band is modeled as the peaking biquad (RBJ cookbook) at the band frequency (parsed from the band name, e.g. "62", "1K", "16K"),
+ * with Q derived from the distance to the neighbor bands. Bass/treble are modeled as low/high shelves, preamp as the flat gain.<br>
+ * NOTE: this is the visualization model, not the exact Poweramp DSP response.<br>
+ * Per frequency phi = sin^2(w/2) tables are computed once. Per band dB curves are cached, and {@link #update(EqPreset)} recomputes only
+ * the curves of the changed entries, adjusting the total curve incrementally. The inner loops work over primitive float arrays only.<br>
+ * THREADING: not synchronized
+ */
+public class EqResponseCalculator {
+	public static final float DEFAULT_MAX_BAND_GAIN_DB = 15f;
+	public static final float DEFAULT_MAX_TONE_GAIN_DB = 12f;
+	public static final float BASS_FREQ = 100f;
+	public static final float TREBLE_FREQ = 8000f;
+
+	private static final float MIN_PREAMP_DB = -60f;
+	/**
+	 * Total curve is fully resummed after this number of incremental updates to avoid float error accumulation
+	 */
+	private static final int RESUM_INTERVAL = 64;
+
+	private final int mPoints;
+	private final float mSampleRate;
+	private final float[] mFrequencies;
+	private final float[] mPhi;
+	private final float[] mPhi2;
+	private final float[] mTotal;
+
+	private float mMaxBandGainDb = DEFAULT_MAX_BAND_GAIN_DB;
+	private float mMaxToneGainDb = DEFAULT_MAX_TONE_GAIN_DB;
+
+	// Per entry state, in EqPreset entry order
+	private String[] mNames = new String[0];
+	private int[] mTypes = new int[0];
+	private float[] mValues = new float[0];
+	private float[] mEntryFreqs = new float[0];
+	private float[] mEntryQs = new float[0];
+	private float[][] mCurves = new float[0][];
+	private float mPreampDb;
+	private int mIncrementalUpdates;
+
+	private int mCurveRecomputes;
+
+
+	/**
+	 * @param points number of curve points, log spaced between minHz and maxHz
+	 */
+	public EqResponseCalculator(int points, float minHz, float maxHz, int sampleRate) {
+		mPoints = points;
+		mSampleRate = sampleRate;
+		mFrequencies = new float[points];
+		mPhi = new float[points];
+		mPhi2 = new float[points];
+		mTotal = new float[points];
+
+		double logMin = Math.log(minHz);
+		double logStep = points > 1 ? (Math.log(maxHz) - logMin) / (points - 1) : 0;
+		for(int i = 0; i < points; i++) {
+			double f = Math.exp(logMin + logStep * i);
+			double w = 2 * Math.PI * f / sampleRate;
+			mFrequencies[i] = (float)f;
+			double s = Math.sin(w / 2);
+			mPhi[i] = (float)(s * s);
+			mPhi2[i] = (float)(s * s * s * s);
+		}
+	}
+
+	public void setMaxGain(float bandGainDb, float toneGainDb) {
+		mMaxBandGainDb = bandGainDb;
+		mMaxToneGainDb = toneGainDb;
+		mNames = new String[0]; // Force full recompute
+	}
+
+	/**
+	 * @return curve frequencies, Hz. NOTE: shared array, must not be modified
+	 */
+	public @NonNull float[] getFrequencies() {
+		return mFrequencies;
+	}
+
+	/**
+	 * @return response curve, dB, as of the last {@link #update(EqPreset)}. NOTE: shared array, updated in place
+	 */
+	public @NonNull float[] getResponseDb() {
+		return mTotal;
+	}
+
+	/**
+	 * @return number of per entry curve recomputations done, for the incremental update diagnostics
+	 */
+	public int getCurveRecomputes() {
+		return mCurveRecomputes;
+	}
+
+	/**
+	 * Recalculates the response for the preset. If only some values changed since the last call, only those entries are recomputed
+	 * @return the response curve, dB, same as {@link #getResponseDb()}
+	 */
+	public @NonNull float[] update(@NonNull EqPreset preset) {
+		int count = preset.getCount();
+		if(!sameLayout(preset)) {
+			setLayout(preset);
+			for(int i = 0; i < count; i++) {
+				mValues[i] = preset.getValue(i);
+				computeCurve(i);
+			}
+			resum();
+			return mTotal;
+		}
+
+		final float[] total = mTotal;
+		final int points = mPoints;
+		for(int i = 0; i < count; i++) {
+			float value = preset.getValue(i);
+			if(value == mValues[i]) {
+				continue;
+			}
+			mValues[i] = value;
+			if(mTypes[i] == EqPreset.TYPE_PREAMP) {
+				float prevDb = mPreampDb;
+				mPreampDb = preampDb(value);
+				float delta = mPreampDb - prevDb;
+				for(int p = 0; p < points; p++) {
+					total[p] += delta;
+				}
+			} else {
+				float[] curve = mCurves[i];
+				for(int p = 0; p < points; p++) {
+					total[p] -= curve[p];
+				}
+				computeCurve(i);
+				for(int p = 0; p < points; p++) {
+					total[p] += curve[p];
+				}
+			}
+			mIncrementalUpdates++;
+		}
+		if(mIncrementalUpdates >= RESUM_INTERVAL) {
+			resum();
+		}
+		return mTotal;
+	}
+
+	private boolean sameLayout(@NonNull EqPreset preset) {
+		int count = preset.getCount();
+		if(count != mNames.length) {
+			return false;
+		}
+		for(int i = 0; i < count; i++) {
+			if(preset.getName(i) != mNames[i]) { // Names are interned
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void setLayout(@NonNull EqPreset preset) {
+		int count = preset.getCount();
+		mNames = new String[count];
+		mTypes = new int[count];
+		mValues = new float[count];
+		mEntryFreqs = new float[count];
+		mEntryQs = new float[count];
+		mCurves = new float[count][];
+		for(int i = 0; i < count; i++) {
+			mNames[i] = preset.getName(i);
+			mTypes[i] = preset.getType(i);
+			mCurves[i] = new float[mPoints];
+			switch(mTypes[i]) {
+				case EqPreset.TYPE_BASS:
+					mEntryFreqs[i] = BASS_FREQ;
+					break;
+				case EqPreset.TYPE_TREBLE:
+					mEntryFreqs[i] = TREBLE_FREQ;
+					break;
+				case EqPreset.TYPE_BAND:
+					mEntryFreqs[i] = parseBandFreq(mNames[i]);
+					break;
+			}
+		}
+		// Q from the distance (in octaves) to the neighbor bands
+		int prev = -1;
+		for(int i = 0; i < count; i++) {
+			if(mTypes[i] != EqPreset.TYPE_BAND || mEntryFreqs[i] <= 0) {
+				continue;
+			}
+			int next = -1;
+			for(int j = i + 1; j < count; j++) {
+				if(mTypes[j] == EqPreset.TYPE_BAND && mEntryFreqs[j] > 0) {
+					next = j;
+					break;
+				}
+			}
+			double octaves;
+			if(prev >= 0 && next >= 0) {
+				octaves = log2(mEntryFreqs[next] / mEntryFreqs[prev]) / 2;
+			} else if(prev >= 0) {
+				octaves = log2(mEntryFreqs[i] / mEntryFreqs[prev]);
+			} else if(next >= 0) {
+				octaves = log2(mEntryFreqs[next] / mEntryFreqs[i]);
+			} else {
+				octaves = 1;
+			}
+			if(octaves <= 0.05) {
+				octaves = 1;
+			}
+			double k = Math.pow(2, octaves);
+			mEntryQs[i] = (float)(Math.sqrt(k) / (k - 1));
+			prev = i;
+		}
+		mPreampDb = 0;
+	}
+
+	private void resum() {
+		final float[] total = mTotal;
+		final int points = mPoints;
+		Arrays.fill(total, mPreampDb);
+		for(int i = 0, count = mCurves.length; i < count; i++) {
+			if(mTypes[i] == EqPreset.TYPE_PREAMP) {
+				continue;
+			}
+			float[] curve = mCurves[i];
+			for(int p = 0; p < points; p++) {
+				total[p] += curve[p];
+			}
+		}
+		mIncrementalUpdates = 0;
+	}
+
+	private void computeCurve(int ix) {
+		float[] curve = mCurves[ix];
+		float value = mValues[ix];
+		int type = mTypes[ix];
+		if(type == EqPreset.TYPE_PREAMP) {
+			mPreampDb = preampDb(value);
+			return;
+		}
+		mCurveRecomputes++;
+
+		float freq = mEntryFreqs[ix];
+		float gainDb = type == EqPreset.TYPE_BAND ? value * mMaxBandGainDb : value * mMaxToneGainDb;
+		if(gainDb == 0f || freq <= 0 || freq >= mSampleRate / 2) {
+			Arrays.fill(curve, 0f);
+			return;
+		}
+
+		double a = Math.pow(10, gainDb / 40.0);
+		double w0 = 2 * Math.PI * freq / mSampleRate;
+		double cosW0 = Math.cos(w0);
+		double sinW0 = Math.sin(w0);
+		double b0, b1, b2, a0, a1, a2;
+
+		if(type == EqPreset.TYPE_BAND) {
+			double alpha = sinW0 / (2 * mEntryQs[ix]);
+			b0 = 1 + alpha * a;
+			b1 = -2 * cosW0;
+			b2 = 1 - alpha * a;
+			a0 = 1 + alpha / a;
+			a1 = -2 * cosW0;
+			a2 = 1 - alpha / a;
+		} else {
+			double alpha = sinW0 / 2 * Math.sqrt(2); // Shelf slope S = 1
+			double sqrtA2alpha = 2 * Math.sqrt(a) * alpha;
+			if(type == EqPreset.TYPE_BASS) {
+				b0 = a * ((a + 1) - (a - 1) * cosW0 + sqrtA2alpha);
+				b1 = 2 * a * ((a - 1) - (a + 1) * cosW0);
+				b2 = a * ((a + 1) - (a - 1) * cosW0 - sqrtA2alpha);
+				a0 = (a + 1) + (a - 1) * cosW0 + sqrtA2alpha;
+				a1 = -2 * ((a - 1) + (a + 1) * cosW0);
+				a2 = (a + 1) + (a - 1) * cosW0 - sqrtA2alpha;
+			} else {
+				b0 = a * ((a + 1) + (a - 1) * cosW0 + sqrtA2alpha);
+				b1 = -2 * a * ((a - 1) + (a + 1) * cosW0);
+				b2 = a * ((a + 1) + (a - 1) * cosW0 - sqrtA2alpha);
+				a0 = (a + 1) - (a - 1) * cosW0 + sqrtA2alpha;
+				a1 = 2 * ((a - 1) - (a + 1) * cosW0);
+				a2 = (a + 1) - (a - 1) * cosW0 - sqrtA2alpha;
+			}
+		}
+
+		// |H(e^jw)|^2 in the phi = sin^2(w/2) form, which, unlike the cos(w) form, doesn't lose precision at the low frequencies:
+		// ((b0 + b1 + b2)^2 - 4 * (b0 * b1 + 4 * b0 * b2 + b1 * b2) * phi + 16 * b0 * b2 * phi^2) / (same for a)
+		final float n0 = (float)((b0 + b1 + b2) * (b0 + b1 + b2));
+		final float n1 = (float)(-4 * (b0 * b1 + 4 * b0 * b2 + b1 * b2));
+		final float n2 = (float)(16 * b0 * b2);
+		final float d0 = (float)((a0 + a1 + a2) * (a0 + a1 + a2));
+		final float d1 = (float)(-4 * (a0 * a1 + 4 * a0 * a2 + a1 * a2));
+		final float d2 = (float)(16 * a0 * a2);
+		final float[] phi = mPhi;
+		final float[] phi2 = mPhi2;
+		for(int p = 0, points = mPoints; p < points; p++) {
+			float num = n0 + n1 * phi[p] + n2 * phi2[p];
+			float den = d0 + d1 * phi[p] + d2 * phi2[p];
+			curve[p] = (float)(10 * Math.log10(num / den));
+		}
+	}
+
+	private static float preampDb(float value) {
+		if(value <= 0) {
+			return MIN_PREAMP_DB;
+		}
+		return Math.max(MIN_PREAMP_DB, (float)(20 * Math.log10(value)));
+	}
+
+	/**
+	 * @return band frequency from the name, e.g. "62" => 62, "1K" => 1000, "1.6K" => 1600, or 0 if not parseable
+	 */
+	static float parseBandFreq(@NonNull String name) {
+		int len = name.length();
+		float mul = 1;
+		if(len > 0 && (name.charAt(len - 1) == 'K' || name.charAt(len - 1) == 'k')) {
+			mul = 1000;
+			len--;
+		}
+		float f = EqPresetCodec.parseFloat(name, 0, len);
+		return Float.isNaN(f) ? 0 : f * mul;
+	}
+
+	private static double log2(double v) {
+		return Math.log(v) / Math.log(2);
+	}
+}
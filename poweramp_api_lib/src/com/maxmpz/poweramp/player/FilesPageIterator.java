@@ -0,0 +1,315 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+
+/**
+ * Streams the rows of the files list uri (e.g. /files, /folders/#/files) page by page, in {@link TableDefs.Files#_ID} order.<br>
+ * Each page is queried with {@link PowerampAPI#PARAM_LIMIT} and the keyset selection {@code folder_files._id > last id of the previous page},
+ * so only one page (plus one prefetched) is held at any time, regardless of the library size, and the provider never skips over rows with OFFSET.<br>
+ * While the current page is iterated, the next page is queried and its window filled on the shared worker thread.<br>
+ * Usage:
+ * <pre>
+ * FilesPageIterator it = new FilesPageIterator(context, uri, projection, null, null, 1000);
+ * try {
+ * 	while(it.moveToNext()) {
+ * 		Cursor c = it.getCursor();
+ * 		...
+ * 	}
+ * } finally {
+ * 	it.close();
+ * }
+ * </pre>
+ * NOTE: the uri sort order is not preserved, the rows are returned by _id.<br>
+ * THREADING: the iterator should be used from a single (worker) thread
+ */
+public class FilesPageIterator {
+	private static final String TAG = "FilesPageIterator";
+	private static final boolean LOG = false;
+
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	private static @Nullable Handler sWorkerHandler;
+
+	private final @NonNull Context mContext;
+	private final @NonNull Uri mPageUri;
+	private final @NonNull String[] mProjection;
+	private final int mIdColumn;
+	private final @Nullable String mSelection;
+	private final @Nullable String[] mSelectionArgs;
+	private final int mPageSize;
+
+	private @Nullable Cursor mCursor;
+	private @Nullable PageLoad mPrefetch;
+	private boolean mExhausted;
+	private boolean mClosed;
+
+	private int mPages;
+	private int mPrefetchWaits;
+
+
+	/**
+	 * @param uri files list uri
+	 * @param projection columns to return. {@link TableDefs.Files#_ID} is appended if missing
+	 * @param selection optional selection, combined with the keyset selection
+	 */
+	public FilesPageIterator(@NonNull Context context, @NonNull Uri uri, @NonNull String[] projection, @Nullable String selection,
+			@Nullable String[] selectionArgs, int pageSize) {
+		mContext = context;
+		mPageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+		mPageUri = uri.buildUpon().appendQueryParameter(PowerampAPI.PARAM_LIMIT, Integer.toString(mPageSize)).build();
+		mSelection = selection;
+		mSelectionArgs = selectionArgs;
+
+		int idColumn = -1;
+		for(int i = 0; i < projection.length; i++) {
+			if(TableDefs.Files._ID.equals(projection[i])) {
+				idColumn = i;
+				break;
+			}
+		}
+		if(idColumn < 0) {
+			String[] withId = new String[projection.length + 1];
+			System.arraycopy(projection, 0, withId, 0, projection.length);
+			idColumn = projection.length;
+			withId[idColumn] = TableDefs.Files._ID;
+			projection = withId;
+		}
+		mProjection = projection;
+		mIdColumn = idColumn;
+	}
+
+	/**
+	 * Moves to the next row, switching to the next page as needed
+	 * @return false if there are no more rows
+	 */
+	public boolean moveToNext() {
+		if(mClosed) {
+			return false;
+		}
+		Cursor c = mCursor;
+		if(c != null && c.moveToNext()) {
+			return true;
+		}
+		if(mExhausted) {
+			return false;
+		}
+
+		Cursor next;
+		if(c == null) {
+			next = query(-1); // First page
+		} else {
+			c.close();
+			mCursor = null;
+			next = awaitPrefetch();
+		}
+
+		if(next == null || next.getCount() == 0) {
+			if(next != null) {
+				next.close();
+			}
+			mExhausted = true;
+			return false;
+		}
+
+		mCursor = next;
+		mPages++;
+		int count = next.getCount();
+		if(count >= mPageSize && next.moveToLast()) {
+			prefetch(next.getLong(mIdColumn));
+		} else {
+			mExhausted = true; // Last page, no need to query again
+		}
+		next.moveToPosition(-1);
+		return next.moveToNext();
+	}
+
+	/**
+	 * @return the cursor positioned at the current row. NOTE: the cursor is owned by the iterator and is valid only until the next {@link #moveToNext()}
+	 */
+	public @Nullable Cursor getCursor() {
+		return mCursor;
+	}
+
+	/**
+	 * @return the projection index of {@link TableDefs.Files#_ID}
+	 */
+	public int getIdColumn() {
+		return mIdColumn;
+	}
+
+	/**
+	 * @return number of pages loaded so far
+	 */
+	public int getPages() {
+		return mPages;
+	}
+
+	/**
+	 * @return number of times the prefetched page wasn't ready yet when needed, for diagnostics
+	 */
+	public int getPrefetchWaits() {
+		return mPrefetchWaits;
+	}
+
+	public void close() {
+		if(mClosed) {
+			return;
+		}
+		mClosed = true;
+		if(mCursor != null) {
+			mCursor.close();
+			mCursor = null;
+		}
+		PageLoad prefetch = mPrefetch;
+		mPrefetch = null;
+		if(prefetch != null) {
+			prefetch.cancel();
+		}
+	}
+
+	private void prefetch(long afterId) {
+		PageLoad load = new PageLoad(afterId);
+		mPrefetch = load;
+		getWorkerHandler().post(load);
+	}
+
+	private @Nullable Cursor awaitPrefetch() {
+		PageLoad load = mPrefetch;
+		mPrefetch = null;
+		if(load == null) {
+			return null;
+		}
+		return load.await();
+	}
+
+	/**
+	 * @return the page with _id > afterId, with its window already filled, or null on failure
+	 */
+	@Nullable Cursor query(long afterId) {
+		String selection;
+		String[] selectionArgs;
+		if(afterId < 0) {
+			selection = mSelection;
+			selectionArgs = mSelectionArgs;
+		} else {
+			String keyset = TableDefs.Files._ID + ">?";
+			selection = mSelection != null ? "(" + mSelection + ") AND " + keyset : keyset;
+			int argsLen = mSelectionArgs != null ? mSelectionArgs.length : 0;
+			selectionArgs = new String[argsLen + 1];
+			if(argsLen > 0) {
+				System.arraycopy(mSelectionArgs, 0, selectionArgs, 0, argsLen);
+			}
+			selectionArgs[argsLen] = Long.toString(afterId);
+		}
+		try {
+			Cursor c = mContext.getContentResolver().query(mPageUri, mProjection, selection, selectionArgs, TableDefs.Files._ID);
+			if(c != null) {
+				c.getCount(); // Fills the window on the calling thread
+			}
+			if(LOG) Log.w(TAG, "query afterId=" + afterId + " count=" + (c != null ? c.getCount() : -1));
+			return c;
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+			return null;
+		}
+	}
+
+	private static @NonNull Handler getWorkerHandler() {
+		synchronized(FilesPageIterator.class) {
+			if(sWorkerHandler == null) {
+				HandlerThread thread = new HandlerThread(TAG);
+				thread.start();
+				sWorkerHandler = new Handler(thread.getLooper());
+			}
+			return sWorkerHandler;
+		}
+	}
+
+	private final class PageLoad implements Runnable {
+		private final long mAfterId;
+		private @Nullable Cursor mResult;
+		private boolean mDone;
+		private boolean mCancelled;
+
+		PageLoad(long afterId) {
+			mAfterId = afterId;
+		}
+
+		// Worker thread
+		@Override
+		public void run() {
+			synchronized(this) {
+				if(mCancelled) {
+					mDone = true;
+					return;
+				}
+			}
+			Cursor c = query(mAfterId);
+			synchronized(this) {
+				if(mCancelled) {
+					if(c != null) {
+						c.close();
+					}
+				} else {
+					mResult = c;
+				}
+				mDone = true;
+				notifyAll();
+			}
+		}
+
+		synchronized @Nullable Cursor await() {
+			if(!mDone) {
+				mPrefetchWaits++;
+			}
+			while(!mDone) {
+				try {
+					wait();
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					cancel();
+					return null;
+				}
+			}
+			Cursor c = mResult;
+			mResult = null;
+			return c;
+		}
+
+		synchronized void cancel() {
+			mCancelled = true;
+			if(mResult != null) {
+				mResult.close();
+				mResult = null;
+			}
+		}
+	}
+}
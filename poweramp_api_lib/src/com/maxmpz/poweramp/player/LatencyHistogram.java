@@ -0,0 +1,140 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+
+
+/**
+ * HDR-style log-linear histogram of non-negative values (e.g. latencies in microseconds).<br>
+ * Each power of 2 range is split into {@link #SUB_BUCKETS} linear buckets, so the recorded value precision is ~6% of the value,
+ * regardless of its magnitude. Values below {@link #SUB_BUCKETS} are exact. Values above {@link #MAX_VALUE} are clamped.<br>
+ * Fixed memory, no allocations on record.<br>
+ * THREADING: not synchronized
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 36;
+	/**
+	 * ~19 hours in us
+	 */
+	public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+	private static final int BUCKET_COUNT = SUB_BUCKETS * (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1);
+
+	private final long[] mCounts = new long[BUCKET_COUNT];
+	private long mTotalCount;
+	private long mMin = Long.MAX_VALUE;
+	private long mMax;
+	private long mSum;
+
+
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		} else if(value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		mCounts[indexOf(value)]++;
+		mTotalCount++;
+		mSum += value;
+		if(value < mMin) {
+			mMin = value;
+		}
+		if(value > mMax) {
+			mMax = value;
+		}
+	}
+
+	public long getTotalCount() {
+		return mTotalCount;
+	}
+
+	public long getMin() {
+		return mTotalCount > 0 ? mMin : 0;
+	}
+
+	public long getMax() {
+		return mMax;
+	}
+
+	public long getMean() {
+		return mTotalCount > 0 ? mSum / mTotalCount : 0;
+	}
+
+	/**
+	 * @param percentile 0..100
+	 * @return value at the given percentile (the middle of the bucket containing it, capped by max), or 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if(mTotalCount == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(percentile / 100.0 * mTotalCount);
+		if(rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts[i];
+			if(seen >= rank) {
+				long mid = (lowestValueAt(i) + highestValueAt(i)) >>> 1;
+				return Math.max(mMin, Math.min(mid, mMax));
+			}
+		}
+		return mMax;
+	}
+
+	public void reset() {
+		Arrays.fill(mCounts, 0);
+		mTotalCount = 0;
+		mMin = Long.MAX_VALUE;
+		mMax = 0;
+		mSum = 0;
+	}
+
+	static int indexOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int)value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		// (value >> shift) is in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+		return (shift + 1) * SUB_BUCKETS + (int)(value >> shift) - SUB_BUCKETS;
+	}
+
+	static long lowestValueAt(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		int sub = index % SUB_BUCKETS;
+		return (long)(SUB_BUCKETS + sub) << shift;
+	}
+
+	static long highestValueAt(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		return lowestValueAt(index) + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,826 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+
+/**
+ * In-memory mirror of the Poweramp library tables (files, folders, albums, artists, genres, playlists), kept in sync incrementally.<br>
+ * Each sync of the table loads only the rows with the watermark column ({@link TableDefs.Files#UPDATED_AT}, or CREATED_AT for the tables without
+ * updated_at) >= the max value seen so far. Deleted rows are detected by comparing per _id range count/sum checksums of the mirror
+ * with the provider's COUNT(*)/TOTAL(_id), bisecting only the mismatching ranges down to {@link #LEAF_RANGE} ids, where the actual ids are diffed.
+ * Thus, a sync with no changes costs 2 small provider queries per table.<br>
+ * Tables are synced on the {@link ChangeTracker} events, i.e. on {@link PowerampAPI#ACTION_RELOAD_DATA} according to its {@link PowerampAPI#TABLE} hint,
+ * and on the Scanner finished broadcasts.<br>
+ * Rows are stored column oriented, as in {@link ColumnarTable}: long/int columns in primitive arrays, string columns as dictionary codes,
+ * so no per row objects are created or retained.<br>
+ * NOTE: albums/artists/genres have no updated_at, so their in-place changes (e.g. num_files) are picked up only by {@link #resync(int)}.<br>
+ * THREADING: any. Syncing is done on the worker thread, listeners are called on the main thread
+ */
+public class LibraryMirror implements ChangeTracker.Listener {
+	private static final String TAG = "LibraryMirror";
+	private static final boolean LOG = false;
+
+	public static final int TABLE_FILES = 0;
+	public static final int TABLE_FOLDERS = 1;
+	public static final int TABLE_ALBUMS = 2;
+	public static final int TABLE_ARTISTS = 3;
+	public static final int TABLE_GENRES = 4;
+	public static final int TABLE_PLAYLISTS = 5;
+	public static final int TABLE_COUNT = 6;
+
+	/**
+	 * Max _id range size for which the ids are diffed directly, instead of further bisecting
+	 */
+	public static final int LEAF_RANGE = 512;
+
+	private static final int STRING_BUFFER_SIZE = 256;
+
+	public interface Listener {
+		/**
+		 * Called on the main thread when the mirrored table has changed
+		 * @param table one of TABLE_*
+		 */
+		public void onLibraryMirrorChanged(int table);
+	}
+
+	public interface Visitor {
+		/**
+		 * @param row the visited row accessor. NOTE: valid only during this call, should not be retained
+		 */
+		public void visit(long id, @NonNull Row row);
+	}
+
+	/**
+	 * Typed accessor for the visited row. Column indexes are in the projection order
+	 */
+	public static final class Row {
+		@Nullable MirroredTable mTable;
+		int mSlot;
+
+		Row() {
+		}
+
+		/**
+		 * @return the long/int column value, or 0 for the string column
+		 */
+		public long getLong(int col) {
+			return mTable.getLong(mSlot, col, 0);
+		}
+
+		/**
+		 * @return the long/int column value, truncated to int, or 0 for the string column
+		 */
+		public int getInt(int col) {
+			return (int)mTable.getLong(mSlot, col, 0);
+		}
+
+		/**
+		 * @return the string column value, string representation of the numeric one, or null
+		 */
+		public @Nullable String getString(int col) {
+			return mTable.getString(mSlot, col);
+		}
+	}
+
+	private static @Nullable LibraryMirror sInstance;
+
+	private final @NonNull Context mContext;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private @Nullable Handler mWorkerHandler;
+	private final Object mLock = new Object();
+	private final ArrayList<Listener> mListeners = new ArrayList<>();
+	private final @NonNull MirroredTable[] mTables = new MirroredTable[TABLE_COUNT];
+	private boolean mStarted;
+
+	private int mProviderQueries;
+	private int mDeltaRows;
+	private int mDeletedRows;
+
+
+	public static @NonNull LibraryMirror getInstance(@NonNull Context context) {
+		synchronized(LibraryMirror.class) {
+			LibraryMirror instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new LibraryMirror(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	LibraryMirror(@NonNull Context context) {
+		mContext = context;
+		mTables[TABLE_FILES] = new MirroredTable(TABLE_FILES, TableDefs.Files.TABLE, "files", TableDefs.Files._ID, TableDefs.Files.UPDATED_AT,
+				projection(new String[] { TableDefs.Files._ID, TableDefs.Files.FOLDER_ID, TableDefs.Files.ALBUM_ID, TableDefs.Files.ARTIST_ID },
+						new String[] { TableDefs.Files.DURATION, TableDefs.Files.RATING, TableDefs.Files.PLAYED_TIMES, TableDefs.Files.PLAYED_AT },
+						new String[] { TableDefs.Files.NAME, TableDefs.Files.TITLE_TAG }));
+		mTables[TABLE_FOLDERS] = new MirroredTable(TABLE_FOLDERS, TableDefs.Folders.TABLE, "folders", TableDefs.Folders._ID, TableDefs.Folders.UPDATED_AT,
+				projection(new String[] { TableDefs.Folders._ID, TableDefs.Folders.PARENT_ID },
+						new String[] { TableDefs.Folders.NUM_FILES },
+						new String[] { TableDefs.Folders.NAME, TableDefs.Folders.PATH }));
+		mTables[TABLE_ALBUMS] = new MirroredTable(TABLE_ALBUMS, TableDefs.Albums.TABLE, "albums", TableDefs.Albums._ID, TableDefs.Albums.CREATED_AT,
+				projection(new String[] { TableDefs.Albums._ID, TableDefs.Albums.ALBUM_ARTIST_ID },
+						new String[] { TableDefs.Albums.NUM_FILES },
+						new String[] { TableDefs.Albums.ALBUM }));
+		mTables[TABLE_ARTISTS] = new MirroredTable(TABLE_ARTISTS, TableDefs.Artists.TABLE, "artists", TableDefs.Artists._ID, TableDefs.Artists.CREATED_AT,
+				projection(new String[] { TableDefs.Artists._ID }, new String[0], new String[] { TableDefs.Artists.ARTIST }));
+		mTables[TABLE_GENRES] = new MirroredTable(TABLE_GENRES, TableDefs.Genres.TABLE, "genres", TableDefs.Genres._ID, TableDefs.Genres.CREATED_AT,
+				projection(new String[] { TableDefs.Genres._ID }, new String[0], new String[] { TableDefs.Genres.GENRE }));
+		mTables[TABLE_PLAYLISTS] = new MirroredTable(TABLE_PLAYLISTS, TableDefs.Playlists.TABLE, "playlists", TableDefs.Playlists._ID, TableDefs.Playlists.UPDATED_AT,
+				projection(new String[] { TableDefs.Playlists._ID },
+						new String[] { TableDefs.Playlists.NUM_FILES },
+						new String[] { TableDefs.Playlists.PLAYLIST }));
+	}
+
+	/**
+	 * Overrides the default mirrored columns (and their storage types) for the table. Should be called before {@link #start()}
+	 */
+	public void setProjection(int table, @NonNull ColumnarTable.Projection projection) {
+		synchronized(mLock) {
+			MirroredTable t = mTables[table];
+			t.setProjection(projection);
+			t.clear();
+		}
+	}
+
+	/**
+	 * @return the mirrored columns of the table, defining the row values order
+	 */
+	public @NonNull String[] getProjection(int table) {
+		synchronized(mLock) {
+			return mTables[table].mProjection.clone();
+		}
+	}
+
+	/**
+	 * @return {@link ColumnarTable#TYPE_LONG}, {@link ColumnarTable#TYPE_INT} or {@link ColumnarTable#TYPE_STRING}
+	 */
+	public int getColumnType(int table, int column) {
+		synchronized(mLock) {
+			return mTables[table].mTypes[column];
+		}
+	}
+
+	/**
+	 * Starts the initial load of all tables and listening to {@link ChangeTracker}. Safe to call multiple times
+	 */
+	public void start() {
+		synchronized(mLock) {
+			if(mStarted) {
+				return;
+			}
+			mStarted = true;
+		}
+		ChangeTracker.getInstance(mContext).addListener(this);
+		for(int table = 0; table < TABLE_COUNT; table++) {
+			sync(table);
+		}
+	}
+
+	public void stop() {
+		synchronized(mLock) {
+			if(!mStarted) {
+				return;
+			}
+			mStarted = false;
+		}
+		ChangeTracker.getInstance(mContext).removeListener(this);
+	}
+
+	public void addListener(@NonNull Listener listener) {
+		synchronized(mLock) {
+			if(!mListeners.contains(listener)) {
+				mListeners.add(listener);
+			}
+		}
+	}
+
+	public void removeListener(@NonNull Listener listener) {
+		synchronized(mLock) {
+			mListeners.remove(listener);
+		}
+	}
+
+	/**
+	 * @return true if the table initial load is done
+	 */
+	public boolean isLoaded(int table) {
+		synchronized(mLock) {
+			return mTables[table].mLoaded;
+		}
+	}
+
+	public int getRowCount(int table) {
+		synchronized(mLock) {
+			return mTables[table].mSize;
+		}
+	}
+
+	/**
+	 * @return true if the row is mirrored
+	 */
+	public boolean contains(int table, long id) {
+		synchronized(mLock) {
+			return mTables[table].mSlots.get(id) >= 0;
+		}
+	}
+
+	/**
+	 * @return the string value, or null if no such row or the value is null
+	 */
+	public @Nullable String getString(int table, long id, int column) {
+		synchronized(mLock) {
+			MirroredTable t = mTables[table];
+			int slot = (int)t.mSlots.get(id);
+			return slot >= 0 ? t.getString(slot, column) : null;
+		}
+	}
+
+	/**
+	 * @return the numeric value, or defaultValue if no such row or the column is not numeric
+	 */
+	public long getLong(int table, long id, int column, long defaultValue) {
+		synchronized(mLock) {
+			MirroredTable t = mTables[table];
+			int slot = (int)t.mSlots.get(id);
+			return slot >= 0 ? t.getLong(slot, column, defaultValue) : defaultValue;
+		}
+	}
+
+	/**
+	 * @return mirrored ids of the table, unsorted
+	 */
+	public @NonNull long[] getIds(int table) {
+		synchronized(mLock) {
+			MirroredTable t = mTables[table];
+			return Arrays.copyOf(t.mIds, t.mSize);
+		}
+	}
+
+	/**
+	 * Calls the visitor for each mirrored row, in no particular order. NOTE: the mirror is locked while visiting
+	 */
+	public void forEach(int table, @NonNull Visitor visitor) {
+		synchronized(mLock) {
+			MirroredTable t = mTables[table];
+			Row row = t.mRow;
+			for(int i = 0; i < t.mSize; i++) {
+				row.mSlot = i;
+				visitor.visit(t.mIds[i], row);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the incremental sync of the table
+	 */
+	public void sync(int table) {
+		post(mTables[table].mSyncRunnable);
+	}
+
+	/**
+	 * Drops the mirrored table and schedules its full reload
+	 */
+	public void resync(int table) {
+		synchronized(mLock) {
+			mTables[table].clear();
+		}
+		sync(table);
+	}
+
+	/**
+	 * @param table changed table, or null if unknown
+	 */
+	public void onReloadData(@Nullable String table) {
+		if(table == null) {
+			for(int i = 0; i < TABLE_COUNT; i++) {
+				sync(i);
+			}
+			return;
+		}
+		if(TableDefs.Files.TABLE.equals(table)) {
+			// Changed files can add or drop categories as well
+			sync(TABLE_FILES);
+			sync(TABLE_FOLDERS);
+			sync(TABLE_ALBUMS);
+			sync(TABLE_ARTISTS);
+			sync(TABLE_GENRES);
+			return;
+		}
+		if(TableDefs.PlaylistEntries.TABLE.equals(table)) {
+			sync(TABLE_PLAYLISTS);
+			return;
+		}
+		for(int i = 0; i < TABLE_COUNT; i++) {
+			if(mTables[i].mTable.equals(table)) {
+				sync(i);
+			}
+		}
+	}
+
+	@Override
+	public void onTableChanged(@NonNull String table, long seq, int source) {
+		onReloadData(table);
+	}
+
+	/**
+	 * @return provider queries made, rows loaded by the watermark and rows detected as deleted, for diagnostics
+	 */
+	public String getStats() {
+		synchronized(mLock) {
+			return "providerQueries=" + mProviderQueries + " deltaRows=" + mDeltaRows + " deletedRows=" + mDeletedRows;
+		}
+	}
+
+	private void post(@NonNull Runnable r) {
+		Handler handler;
+		synchronized(mLock) {
+			if(mWorkerHandler == null) {
+				HandlerThread thread = new HandlerThread(TAG);
+				thread.start();
+				mWorkerHandler = new Handler(thread.getLooper());
+			}
+			handler = mWorkerHandler;
+		}
+		handler.removeCallbacks(r); // Coalesce repeated reloads
+		handler.post(r);
+	}
+
+	// Worker thread
+	void syncTable(@NonNull MirroredTable t) {
+		String[] projection;
+		long watermark;
+		boolean loaded;
+		int generation;
+		synchronized(mLock) {
+			projection = t.mProjection;
+			watermark = t.mWatermark;
+			loaded = t.mLoaded;
+			generation = t.mGeneration;
+		}
+
+		int changed = loadDelta(t, projection, loaded ? watermark : Long.MIN_VALUE, generation);
+		if(loaded) {
+			changed += removeDeleted(t, generation);
+		}
+
+		synchronized(mLock) {
+			if(generation != t.mGeneration) {
+				return; // Cleared meanwhile, the full reload is already scheduled
+			}
+			t.mLoaded = true;
+		}
+		if(LOG) Log.w(TAG, "syncTable table=" + t.mTable + " changed=" + changed + " " + getStats());
+		if(changed > 0 || !loaded) {
+			notifyChanged(t.mIndex);
+		}
+	}
+
+	/**
+	 * @return number of rows loaded
+	 */
+	private int loadDelta(@NonNull MirroredTable t, @NonNull String[] projection, long watermark, int generation) {
+		String selection = watermark != Long.MIN_VALUE ? t.mWatermarkCol + ">=?" : null;
+		String[] selectionArgs = watermark != Long.MIN_VALUE ? new String[] { Long.toString(watermark) } : null;
+		int loaded = 0;
+		CharArrayBuffer buffer = new CharArrayBuffer(STRING_BUFFER_SIZE);
+		if(t.mIndex == TABLE_FILES) {
+			// The initial load of the files can be huge, thus, paged
+			FilesPageIterator it = new FilesPageIterator(mContext, t.mUri, projection, selection, selectionArgs, FilesPageIterator.DEFAULT_PAGE_SIZE);
+			try {
+				while(it.moveToNext()) {
+					Cursor c = it.getCursor();
+					if(c != null) {
+						putRow(t, c, buffer, generation);
+						loaded++;
+					}
+				}
+			} finally {
+				synchronized(mLock) {
+					mProviderQueries += it.getPages();
+				}
+				it.close();
+			}
+		} else {
+			Cursor c = query(t.mUri, projection, selection, selectionArgs);
+			if(c != null) {
+				try {
+					while(c.moveToNext()) {
+						putRow(t, c, buffer, generation);
+						loaded++;
+					}
+				} finally {
+					c.close();
+				}
+			}
+		}
+		synchronized(mLock) {
+			mDeltaRows += loaded;
+		}
+		return loaded;
+	}
+
+	private void putRow(@NonNull MirroredTable t, @NonNull Cursor c, @NonNull CharArrayBuffer buffer, int generation) {
+		long id = c.getLong(t.mIdIx);
+		long watermark = c.getLong(t.mWatermarkIx);
+		synchronized(mLock) {
+			if(generation != t.mGeneration) {
+				return; // Cleared or projection changed meanwhile
+			}
+			t.put(id, c, buffer);
+			if(watermark > t.mWatermark) {
+				t.mWatermark = watermark;
+			}
+		}
+	}
+
+	/**
+	 * @return number of rows removed from the mirror
+	 */
+	private int removeDeleted(@NonNull MirroredTable t, int generation) {
+		long[] ids;
+		synchronized(mLock) {
+			ids = Arrays.copyOf(t.mIds, t.mSize);
+		}
+		if(ids.length == 0) {
+			return 0;
+		}
+		Arrays.sort(ids);
+		// Prefix sums for O(log n) local range checksums
+		long[] prefix = new long[ids.length + 1];
+		for(int i = 0; i < ids.length; i++) {
+			prefix[i + 1] = prefix[i] + ids[i];
+		}
+		LongLongHashMap deleted = new LongLongHashMap(0, 0);
+		checkRange(t, ids, prefix, ids[0], ids[ids.length - 1] + 1, deleted);
+		if(deleted.size() == 0) {
+			return 0;
+		}
+		final MirroredTable table = t;
+		synchronized(mLock) {
+			if(generation != t.mGeneration) {
+				return 0;
+			}
+			deleted.forEach(new LongLongHashMap.Visitor() {
+				@Override
+				public void visit(long key, long value) {
+					table.remove(key);
+				}
+			});
+			mDeletedRows += deleted.size();
+		}
+		return deleted.size();
+	}
+
+	/**
+	 * Compares [fromId, toId) range checksums and recurses into the halves on mismatch
+	 */
+	private void checkRange(@NonNull MirroredTable t, @NonNull long[] ids, @NonNull long[] prefix, long fromId, long toId, @NonNull LongLongHashMap deleted) {
+		int from = lowerBound(ids, fromId);
+		int to = lowerBound(ids, toId);
+		int localCount = to - from;
+		if(localCount == 0) {
+			return; // Nothing mirrored, nothing to delete
+		}
+		long localSum = prefix[to] - prefix[from];
+
+		String selection = t.mIdCol + ">=? AND " + t.mIdCol + "<?";
+		String[] selectionArgs = { Long.toString(fromId), Long.toString(toId) };
+		long remoteCount = -1;
+		long remoteSum = 0;
+		Cursor c = query(t.mUri, new String[] { "COUNT(*)", "TOTAL(" + t.mIdCol + ")" }, selection, selectionArgs);
+		if(c != null) {
+			try {
+				if(c.moveToFirst()) {
+					remoteCount = c.getLong(0);
+					remoteSum = (long)c.getDouble(1);
+				}
+			} finally {
+				c.close();
+			}
+		}
+		if(remoteCount == localCount && remoteSum == localSum) {
+			return;
+		}
+
+		if(remoteCount == 0) {
+			for(int i = from; i < to; i++) {
+				deleted.put(ids[i], 0);
+			}
+		} else if(toId - fromId <= LEAF_RANGE || remoteCount < 0) {
+			// Diff the actual ids. Also used if the aggregate query failed
+			LongLongHashMap remote = new LongLongHashMap(localCount, 0);
+			c = query(t.mUri, new String[] { t.mIdCol }, selection, selectionArgs);
+			if(c == null) {
+				return; // Can't say anything
+			}
+			try {
+				while(c.moveToNext()) {
+					remote.put(c.getLong(0), 1);
+				}
+			} finally {
+				c.close();
+			}
+			for(int i = from; i < to; i++) {
+				if(!remote.containsKey(ids[i])) {
+					deleted.put(ids[i], 0);
+				}
+			}
+		} else {
+			long mid = fromId + (toId - fromId) / 2;
+			checkRange(t, ids, prefix, fromId, mid, deleted);
+			checkRange(t, ids, prefix, mid, toId, deleted);
+		}
+	}
+
+	private static int lowerBound(@NonNull long[] ids, long id) {
+		int lo = 0;
+		int hi = ids.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(ids[mid] < id) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private @Nullable Cursor query(@NonNull Uri uri, @NonNull String[] projection, @Nullable String selection, @Nullable String[] selectionArgs) {
+		synchronized(mLock) {
+			mProviderQueries++;
+		}
+		try {
+			return mContext.getContentResolver().query(uri, projection, selection, selectionArgs, null);
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+			return null;
+		}
+	}
+
+	private void notifyChanged(final int table) {
+		final ArrayList<Listener> listeners;
+		synchronized(mLock) {
+			if(mListeners.isEmpty()) {
+				return;
+			}
+			listeners = new ArrayList<>(mListeners);
+		}
+		mMainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				for(Listener listener : listeners) {
+					listener.onLibraryMirrorChanged(table);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Mirrored rows of one table. Rows are kept in dense slot arrays, one per column, id => slot in {@link LongLongHashMap}, removal moves the last slot into the hole.
+	 * String columns are dictionary encoded, the dictionary only grows until {@link #clear()}.<br>
+	 * NOTE: mutable state is guarded by LibraryMirror.mLock
+	 */
+	final class MirroredTable {
+		final int mIndex;
+		final @NonNull String mTable;
+		final @NonNull Uri mUri;
+		final @NonNull String mIdCol;
+		final @NonNull String mWatermarkCol;
+		@NonNull String[] mProjection;
+		@NonNull int[] mTypes;
+		int mIdIx;
+		int mWatermarkIx;
+
+		final @NonNull LongLongHashMap mSlots = new LongLongHashMap(0, -1);
+		@NonNull long[] mIds = new long[16];
+		@NonNull Object[] mData; // long[] / int[] / int[] codes, per column
+		@NonNull ColumnarTable.StringDictionary[] mDicts;
+		int mSize;
+		final @NonNull Row mRow = new Row();
+		long mWatermark = Long.MIN_VALUE;
+		boolean mLoaded;
+		int mGeneration; // Incremented on clear, so the sync started before it doesn't apply stale rows
+
+		final Runnable mSyncRunnable = new Runnable() {
+			@Override
+			public void run() {
+				syncTable(MirroredTable.this);
+			}
+		};
+
+		MirroredTable(int index, @NonNull String table, @NonNull String path, @NonNull String idCol, @NonNull String watermarkCol, @NonNull ColumnarTable.Projection projection) {
+			mIndex = index;
+			mTable = table;
+			mUri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath(path).build();
+			mIdCol = idCol;
+			mWatermarkCol = watermarkCol;
+			mRow.mTable = this;
+			setProjection(projection);
+		}
+
+		/**
+		 * Appends id/watermark columns as long ones, if missing. Drops the stored rows, so should be followed by {@link #clear()}
+		 */
+		void setProjection(@NonNull ColumnarTable.Projection projection) {
+			String[] columns = projection.toArray();
+			int[] types = Arrays.copyOf(projection.mTypes, columns.length);
+			int idIx = indexOf(columns, mIdCol);
+			if(idIx < 0) {
+				columns = append(columns, mIdCol);
+				types = appendType(types, ColumnarTable.TYPE_LONG);
+				idIx = columns.length - 1;
+			}
+			int watermarkIx = indexOf(columns, mWatermarkCol);
+			if(watermarkIx < 0) {
+				columns = append(columns, mWatermarkCol);
+				types = appendType(types, ColumnarTable.TYPE_LONG);
+				watermarkIx = columns.length - 1;
+			}
+			mProjection = columns;
+			mTypes = types;
+			mIdIx = idIx;
+			mWatermarkIx = watermarkIx;
+			allocColumns(mIds.length);
+		}
+
+		private void allocColumns(int capacity) {
+			int columns = mTypes.length;
+			mData = new Object[columns];
+			mDicts = new ColumnarTable.StringDictionary[columns];
+			for(int col = 0; col < columns; col++) {
+				if(mTypes[col] == ColumnarTable.TYPE_LONG) {
+					mData[col] = new long[capacity];
+				} else {
+					mData[col] = new int[capacity];
+					if(mTypes[col] == ColumnarTable.TYPE_STRING) {
+						mDicts[col] = new ColumnarTable.StringDictionary();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Stores the current cursor row, the cursor columns are expected to be in the projection order
+		 */
+		void put(long id, @NonNull Cursor c, @NonNull CharArrayBuffer buffer) {
+			int slot = (int)mSlots.get(id);
+			if(slot < 0) {
+				slot = mSize++;
+				if(slot == mIds.length) {
+					grow(slot * 2);
+				}
+				mIds[slot] = id;
+				mSlots.put(id, slot);
+			}
+			for(int col = 0, columns = mTypes.length; col < columns; col++) {
+				switch(mTypes[col]) {
+					case ColumnarTable.TYPE_LONG:
+						((long[])mData[col])[slot] = c.getLong(col);
+						break;
+					case ColumnarTable.TYPE_INT:
+						((int[])mData[col])[slot] = c.getInt(col);
+						break;
+					default:
+						if(c.isNull(col)) {
+							((int[])mData[col])[slot] = ColumnarTable.NULL_CODE;
+						} else {
+							c.copyStringToBuffer(col, buffer);
+							((int[])mData[col])[slot] = mDicts[col].encode(buffer.data, buffer.sizeCopied);
+						}
+						break;
+				}
+			}
+		}
+
+		private void grow(int capacity) {
+			mIds = Arrays.copyOf(mIds, capacity);
+			for(int col = 0, columns = mTypes.length; col < columns; col++) {
+				Object data = mData[col];
+				mData[col] = data instanceof long[] ? Arrays.copyOf((long[])data, capacity) : Arrays.copyOf((int[])data, capacity);
+			}
+		}
+
+		void remove(long id) {
+			int slot = (int)mSlots.remove(id);
+			if(slot < 0) {
+				return;
+			}
+			int last = --mSize;
+			if(slot != last) {
+				mIds[slot] = mIds[last];
+				for(int col = 0, columns = mTypes.length; col < columns; col++) {
+					Object data = mData[col];
+					if(data instanceof long[]) {
+						((long[])data)[slot] = ((long[])data)[last];
+					} else {
+						((int[])data)[slot] = ((int[])data)[last];
+					}
+				}
+				mSlots.put(mIds[slot], slot);
+			}
+		}
+
+		long getLong(int slot, int col, long defaultValue) {
+			switch(mTypes[col]) {
+				case ColumnarTable.TYPE_LONG:
+					return ((long[])mData[col])[slot];
+				case ColumnarTable.TYPE_INT:
+					return ((int[])mData[col])[slot];
+				default:
+					return defaultValue;
+			}
+		}
+
+		@Nullable String getString(int slot, int col) {
+			switch(mTypes[col]) {
+				case ColumnarTable.TYPE_LONG:
+					return Long.toString(((long[])mData[col])[slot]);
+				case ColumnarTable.TYPE_INT:
+					return Integer.toString(((int[])mData[col])[slot]);
+				default:
+					int code = ((int[])mData[col])[slot];
+					return code == ColumnarTable.NULL_CODE ? null : mDicts[col].get(code);
+			}
+		}
+
+		void clear() {
+			mSlots.clear();
+			allocColumns(mIds.length); // Drops the dictionaries with the strings of the removed rows
+			mSize = 0;
+			mWatermark = Long.MIN_VALUE;
+			mLoaded = false;
+			mGeneration++;
+		}
+	}
+
+	private static int indexOf(@NonNull String[] array, @NonNull String value) {
+		for(int i = 0; i < array.length; i++) {
+			if(value.equals(array[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static @NonNull String[] append(@NonNull String[] array, @NonNull String value) {
+		String[] res = Arrays.copyOf(array, array.length + 1);
+		res[array.length] = value;
+		return res;
+	}
+
+	/**
+	 * @return projection of the given long columns, then int ones, then string ones
+	 */
+	private static @NonNull ColumnarTable.Projection projection(@NonNull String[] longs, @NonNull String[] ints, @NonNull String[] strings) {
+		ColumnarTable.Projection p = new ColumnarTable.Projection();
+		for(String column : longs) {
+			p.addLong(column);
+		}
+		for(String column : ints) {
+			p.addInt(column);
+		}
+		for(String column : strings) {
+			p.addString(column);
+		}
+		return p;
+	}
+
+	private static @NonNull int[] appendType(@NonNull int[] array, int type) {
+		int[] res = Arrays.copyOf(array, array.length + 1);
+		res[array.length] = type;
+		return res;
+	}
+}
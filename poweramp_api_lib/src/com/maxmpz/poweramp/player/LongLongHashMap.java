@@ -0,0 +1,196 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+
+
+/**
+ * Open addressing (linear probing) long to long hash map over primitive arrays, no boxing, no per entry allocations.<br>
+ * Removal uses backward shift deletion, so there are no tombstones and lookups stay O(1) with any put/remove mix.<br>
+ * THREADING: not synchronized
+ */
+public class LongLongHashMap {
+	private static final int MIN_CAPACITY = 16;
+	/**
+	 * Max load factor is 1/2, i.e. capacity >= 2 * size
+	 */
+	private static final int MAX_LOAD_SHIFT = 1;
+
+	private final long mNoValue;
+	private long[] mKeys;
+	private long[] mValues;
+	private boolean[] mUsed;
+	private int mMask;
+	private int mSize;
+
+
+	/**
+	 * @param noValue value returned by {@link #get(long)} for the missing keys
+	 */
+	public LongLongHashMap(int expectedSize, long noValue) {
+		mNoValue = noValue;
+		allocate(capacityFor(expectedSize));
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public long getNoValue() {
+		return mNoValue;
+	}
+
+	/**
+	 * @return value for the key, or noValue
+	 */
+	public long get(long key) {
+		int ix = indexOf(key);
+		return ix >= 0 ? mValues[ix] : mNoValue;
+	}
+
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * @return previous value, or noValue
+	 */
+	public long put(long key, long value) {
+		if((mSize + 1) << MAX_LOAD_SHIFT > mKeys.length) {
+			rehash(mKeys.length << 1);
+		}
+		int mask = mMask;
+		int ix = hash(key) & mask;
+		while(mUsed[ix]) {
+			if(mKeys[ix] == key) {
+				long prev = mValues[ix];
+				mValues[ix] = value;
+				return prev;
+			}
+			ix = (ix + 1) & mask;
+		}
+		mUsed[ix] = true;
+		mKeys[ix] = key;
+		mValues[ix] = value;
+		mSize++;
+		return mNoValue;
+	}
+
+	/**
+	 * @return removed value, or noValue
+	 */
+	public long remove(long key) {
+		int ix = indexOf(key);
+		if(ix < 0) {
+			return mNoValue;
+		}
+		long prev = mValues[ix];
+		mSize--;
+
+		// Backward shift: move following entries of the probe chain into the freed slot if their home position allows it
+		int mask = mMask;
+		int free = ix;
+		int next = (free + 1) & mask;
+		while(mUsed[next]) {
+			int home = hash(mKeys[next]) & mask;
+			// Entry at next can be moved to free if its home is not within (free, next] (cyclically)
+			if(((next - home) & mask) >= ((next - free) & mask)) {
+				mKeys[free] = mKeys[next];
+				mValues[free] = mValues[next];
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		mUsed[free] = false;
+		return prev;
+	}
+
+	public void clear() {
+		Arrays.fill(mUsed, false);
+		mSize = 0;
+	}
+
+	/**
+	 * Calls the visitor for each entry, in no particular order
+	 */
+	public interface Visitor {
+		public void visit(long key, long value);
+	}
+
+	public void forEach(Visitor visitor) {
+		for(int i = 0; i < mKeys.length; i++) {
+			if(mUsed[i]) {
+				visitor.visit(mKeys[i], mValues[i]);
+			}
+		}
+	}
+
+	private int indexOf(long key) {
+		int mask = mMask;
+		int ix = hash(key) & mask;
+		while(mUsed[ix]) {
+			if(mKeys[ix] == key) {
+				return ix;
+			}
+			ix = (ix + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void rehash(int capacity) {
+		long[] keys = mKeys;
+		long[] values = mValues;
+		boolean[] used = mUsed;
+		allocate(capacity);
+		mSize = 0;
+		for(int i = 0; i < keys.length; i++) {
+			if(used[i]) {
+				put(keys[i], values[i]);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		mKeys = new long[capacity];
+		mValues = new long[capacity];
+		mUsed = new boolean[capacity];
+		mMask = capacity - 1;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while(capacity < (expectedSize << MAX_LOAD_SHIFT)) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	// Murmur3 fmix64, ids are sequential, so spreading is required for linear probing
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+}
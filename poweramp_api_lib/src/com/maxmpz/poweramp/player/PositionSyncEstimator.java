@@ -0,0 +1,247 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import android.util.Log;
+
+
+/**
+ * Estimates Poweramp in-track position between sync broadcasts.<br>
+ * Poweramp reports positions in whole seconds, so each sync only tells that the real position is within [pos, pos + 1s) at the moment the broadcast was sent.
+ * The estimator intersects these windows over the playing segment (propagated by the local clock), which gives sub-second accuracy after few syncs.<br>
+ * Broadcast delivery latency is estimated from the {@link PowerampAPI#TIMESTAMP} extra (where available) or from POS_SYNC request round trips,
+ * and local clock drift is estimated over long sync windows.<br>
+ * All times are {@link android.os.SystemClock#elapsedRealtime()} based, except event timestamps, which are System.currentTimeMillis() based as sent by Poweramp.<br>
+ * THREADING: single thread (usually UI)
+ */
+public class PositionSyncEstimator {
+	private static final String TAG = "PositionSyncEstimator";
+	private static final boolean LOG = false;
+
+	/**
+	 * Granularity of the positions reported by Poweramp
+	 */
+	private static final int QUANTUM_MS = 1000;
+
+	/**
+	 * Latency samples above this are considered bogus (e.g. sender/receiver wall clock changed in between)
+	 */
+	private static final int MAX_LATENCY_MS = 2000;
+
+	/**
+	 * Minimum playing window used for drift samples. Shorter windows are dominated by the reported positions quantization
+	 */
+	private static final int DRIFT_MIN_WINDOW_MS = 60000;
+
+	/**
+	 * Maximum position window width for the drift baseline. The first sync window is the whole {@link #QUANTUM_MS}, which would dominate the drift samples
+	 */
+	private static final int DRIFT_BASE_MAX_WINDOW_MS = QUANTUM_MS / 4;
+
+	/**
+	 * Drift is clamped to this (relative) value. Anything bigger is not a clock drift, but a missed seek/pause
+	 */
+	private static final float MAX_DRIFT = 0.005f;
+
+	/**
+	 * Assumed drift estimation uncertainty, used to widen the position window over time
+	 */
+	private static final float DRIFT_UNCERTAINTY = 0.001f;
+
+	private static final float LATENCY_ALPHA = 0.125f;
+	private static final float LATENCY_DEV_ALPHA = 0.25f;
+	private static final float DRIFT_ALPHA = 0.1f;
+
+	private float mLatencyMs;
+	private float mLatencyDevMs;
+	private boolean mHasLatency;
+
+	private float mDrift;
+
+	// Current position window, valid at mLastSyncTime
+	private boolean mHasWindow;
+	private long mLastSyncTime;
+	private long mWindowLoMs;
+	private long mWindowHiMs;
+
+	// Drift baseline - the first sync in the current playing segment
+	private long mBaseTime;
+	private long mBasePositionMs;
+
+	private long mSyncRequestTime;
+
+	private int mSyncs;
+	private int mWindowResets;
+
+
+	/**
+	 * Forgets the current position window. Should be called when the position changes not due to the playback, e.g. on seek, pause, track change
+	 */
+	public void reset() {
+		mHasWindow = false;
+		mBaseTime = 0;
+	}
+
+	/**
+	 * Should be called when POS_SYNC command is sent, allowing latency estimation for the replies without timestamps
+	 */
+	public void onSyncRequested(long now) {
+		mSyncRequestTime = now;
+	}
+
+	/**
+	 * Processes position sync received while playing.
+	 * @param reportedPositionMs the position reported by Poweramp, in milliseconds
+	 * @param eventTimestamp {@link PowerampAPI#TIMESTAMP} extra value or 0 if not available
+	 * @param now current elapsedRealtime
+	 * @param nowWall current System.currentTimeMillis()
+	 * @return corrected position at {@code now}
+	 */
+	public long onSync(long reportedPositionMs, long eventTimestamp, long now, long nowWall) {
+		mSyncs++;
+		updateLatency(eventTimestamp, now, nowWall);
+
+		int latency = Math.round(mLatencyMs);
+		long lo = reportedPositionMs + latency;
+		long hi = lo + QUANTUM_MS;
+
+		if(mHasWindow) {
+			long dt = now - mLastSyncTime;
+			long advance = Math.round(dt * (1f + mDrift));
+			long widen = Math.round(dt * DRIFT_UNCERTAINTY + mLatencyDevMs);
+			long prevLo = mWindowLoMs + advance - widen;
+			long prevHi = mWindowHiMs + advance + widen;
+
+			long newLo = Math.max(lo, prevLo);
+			long newHi = Math.min(hi, prevHi);
+			if(newLo < newHi) {
+				lo = newLo;
+				hi = newHi;
+			} else {
+				// Windows don't intersect - most probably, position jumped on Poweramp side. Restart estimation
+				if(LOG) Log.w(TAG, "onSync window reset prev=[" + prevLo + "," + prevHi + ") new=[" + lo + "," + hi + ")");
+				mWindowResets++;
+				mBaseTime = 0;
+			}
+		}
+
+		updateDrift(lo, hi, now);
+
+		mHasWindow = true;
+		mWindowLoMs = lo;
+		mWindowHiMs = hi;
+		mLastSyncTime = now;
+
+		if(LOG) Log.w(TAG, "onSync reported=" + reportedPositionMs + " window=[" + lo + "," + hi + ") latency=" + mLatencyMs + " drift=" + mDrift);
+
+		return (lo + hi) / 2;
+	}
+
+	/**
+	 * @return estimated position at {@code now} or -1 if there were no syncs since the last reset
+	 */
+	public long getPositionMs(long now) {
+		if(!mHasWindow) {
+			return -1;
+		}
+		return (mWindowLoMs + mWindowHiMs) / 2 + Math.round((now - mLastSyncTime) * (1f + mDrift));
+	}
+
+	/**
+	 * @return estimated maximum position error at {@code now}, in milliseconds, or Integer.MAX_VALUE if there were no syncs since the last reset
+	 */
+	public int estimateErrorMs(long now) {
+		if(!mHasWindow) {
+			return Integer.MAX_VALUE;
+		}
+		return (int)((mWindowHiMs - mWindowLoMs) / 2 + (now - mLastSyncTime) * (Math.abs(mDrift) + DRIFT_UNCERTAINTY) + mLatencyDevMs);
+	}
+
+	/**
+	 * @return relative drift of the Poweramp playback clock vs local elapsedRealtime, e.g. 0.001 means Poweramp position advances 0.1% faster
+	 */
+	public float getDrift() {
+		return mDrift;
+	}
+
+	public float getLatencyMs() {
+		return mLatencyMs;
+	}
+
+	public int getSyncs() {
+		return mSyncs;
+	}
+
+	public int getWindowResets() {
+		return mWindowResets;
+	}
+
+	private void updateLatency(long eventTimestamp, long now, long nowWall) {
+		long sample = -1;
+		if(eventTimestamp > 0) {
+			sample = nowWall - eventTimestamp;
+		} else if(mSyncRequestTime > 0) {
+			// Assume command delivery and broadcast delivery take about the same time
+			sample = (now - mSyncRequestTime) / 2;
+		}
+		mSyncRequestTime = 0;
+
+		if(sample < 0 || sample > MAX_LATENCY_MS) {
+			return;
+		}
+
+		if(!mHasLatency) {
+			mLatencyMs = sample;
+			mLatencyDevMs = sample / 2f;
+			mHasLatency = true;
+		} else {
+			float err = sample - mLatencyMs;
+			mLatencyMs += LATENCY_ALPHA * err;
+			mLatencyDevMs += LATENCY_DEV_ALPHA * (Math.abs(err) - mLatencyDevMs);
+		}
+	}
+
+	/**
+	 * Samples the drift using the intersected position window middle. The baseline is taken once the window is narrow enough
+	 */
+	private void updateDrift(long lo, long hi, long now) {
+		long positionMs = (lo + hi) / 2;
+		if(mBaseTime == 0) {
+			if(hi - lo > DRIFT_BASE_MAX_WINDOW_MS) {
+				return;
+			}
+			mBaseTime = now;
+			mBasePositionMs = positionMs;
+			return;
+		}
+		long dt = now - mBaseTime;
+		if(dt < DRIFT_MIN_WINDOW_MS) {
+			return;
+		}
+		float sample = (float)(positionMs - mBasePositionMs) / dt - 1f;
+		if(sample > MAX_DRIFT) {
+			sample = MAX_DRIFT;
+		} else if(sample < -MAX_DRIFT) {
+			sample = -MAX_DRIFT;
+		}
+		mDrift += DRIFT_ALPHA * (sample - mDrift);
+	}
+}
@@ -73,6 +73,11 @@ public final class PowerampAPI {
 	 */
 	public static final String PARAM_SHUFFLE = "shf";
 	
+	/**
+	 * Uri query parameter - SQL LIMIT, int
+	 */
+	public static final String PARAM_LIMIT = "lim";
+	
 	
 	/**
 	 * Poweramp Control action.
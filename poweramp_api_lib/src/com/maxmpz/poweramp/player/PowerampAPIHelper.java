@@ -12,6 +12,7 @@ import android.util.Log;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import org.eclipse.jdt.annotation.Nullable;
 
 public class PowerampAPIHelper {
@@ -19,8 +20,33 @@ public class PowerampAPIHelper {
 	private static final boolean LOG = false;
 	
 
+	private static volatile @Nullable CommandLatencyTracker sLatencyTracker;
+
+	/**
+	 * Enables (non-null tracker) or disables (null) command latency instrumentation for the commands sent via {@link #startPAService(Context, Intent)}
+	 * and {@link PowerampClient}
+	 */
+	public static void setLatencyTracker(@Nullable CommandLatencyTracker tracker) {
+		sLatencyTracker = tracker;
+	}
+
+	public static @Nullable CommandLatencyTracker getLatencyTracker() {
+		return sLatencyTracker;
+	}
+
 	public static void startPAService(Context context, Intent intent) {
+		startPAService(context, intent, true);
+	}
+
+	/**
+	 * @param track if false, the command is not reported to the latency tracker, e.g. as it was already reported for the failed bound channel send
+	 */
+	static void startPAService(Context context, Intent intent, boolean track) {
 		intent.setComponent(PowerampAPI.PLAYER_SERVICE_COMPONENT_NAME);
+		CommandLatencyTracker tracker = sLatencyTracker;
+		if(track && tracker != null) {
+			tracker.onCommandSent(intent);
+		}
 		if(Build.VERSION.SDK_INT >= 26) {
 			context.startForegroundService(intent);
 		} else {
@@ -28,6 +54,33 @@ public class PowerampAPIHelper {
 		}
 	}
 
+	/**
+	 * Sends the batch as the individual intents, in the batch order. Same as sendBatch(context, batch, false)
+	 */
+	public static void sendBatch(Context context, CommandBatch batch) {
+		sendBatch(context, batch, false);
+	}
+
+	/**
+	 * @param envelope if true, sends the batch as one {@link CommandBatch#COMMAND_BATCH} envelope intent. NOTE: released Poweramp builds don't handle
+	 * the envelope and drop it silently, so this should be true only if the receiving service is known to handle it (explicit opt-in by the caller).
+	 * Otherwise, the batch is unrolled into the individual intents, sent in the batch order
+	 */
+	public static void sendBatch(Context context, CommandBatch batch, boolean envelope) {
+		int size = batch.size();
+		if(size == 0) {
+			return;
+		}
+		if(envelope && size > 1) {
+			startPAService(context, batch.toEnvelope());
+		} else {
+			ArrayList<Intent> intents = batch.toIntents();
+			for(int i = 0; i < size; i++) {
+				startPAService(context, intents.get(i));
+			}
+		}
+	}
+
 	// WARNING: openFileDescriptor() will return the original image right from embed track loaded in Poweramp or
 	// file cached image. The later is more or less under control in terms of size, though, that can be in-folder user provided image.
 	// As for embed album art, the resulting bitmap can be any size. Poweramp has some upper limits on embed album art, still, the decoded image can be very large.
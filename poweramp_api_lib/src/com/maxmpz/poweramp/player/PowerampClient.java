@@ -0,0 +1,360 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.HashSet;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+
+/**
+ * Sends API commands to Poweramp via a persistent bound {@link Messenger} channel, avoiding (foreground) service start per command.<br>
+ * The channel is used only after the service confirmed it understands the protocol ({@link #MSG_PING}/{@link #MSG_PONG} handshake), until then,
+ * and whenever the channel is broken, commands are sent as the usual intents via {@link PowerampAPIHelper#startPAService(Context, Intent)}.<br>
+ * The bind is a probe: it doesn't create the service (no BIND_AUTO_CREATE), the returned binder must be a {@link Messenger}, and the handshake must complete
+ * within {@link #HANDSHAKE_TIMEOUT_MS}, otherwise the client unbinds. A service which returned a non-Messenger binder or didn't reply is remembered
+ * as unsupported (per component, for the process lifetime) and further {@link #connect()} calls don't bind to it again.<br>
+ * Protocol:<br>
+ * {@link #MSG_PING} - sent by the client after bind, with {@link Message#replyTo} set. The service should reply with {@link #MSG_PONG}<br>
+ * {@link #MSG_API_COMMAND} - the command, {@link Message#getData()} contains the command intent extras, plus the intent data uri (if any) as
+ * {@link #EXTRA_DATA_URI}<br>
+ * THREADING: any, callbacks are called on the main thread
+ */
+public class PowerampClient {
+	private static final String TAG = "PowerampClient";
+	private static final boolean LOG = false;
+
+	public static final int MSG_PING = 1;
+	public static final int MSG_PONG = 2;
+	public static final int MSG_API_COMMAND = 3;
+
+	/**
+	 * Max time from the bind to {@link #MSG_PONG}
+	 */
+	public static final int HANDSHAKE_TIMEOUT_MS = 3000;
+
+	private static final String MESSENGER_DESCRIPTOR = "android.os.IMessenger";
+
+	/**
+	 * {@link #MSG_API_COMMAND} data extra<br>
+	 * {@code Uri} - the command intent data
+	 */
+	public static final String EXTRA_DATA_URI = "dataUri";
+
+	public interface ChannelCallback {
+		/**
+		 * Called when the bound channel becomes usable or broken
+		 */
+		public void onChannelChanged(boolean bound);
+	}
+
+	private static final HashSet<String> sUnsupported = new HashSet<>(); // Flattened component names
+
+	private final @NonNull Context mContext;
+	private final @NonNull ComponentName mServiceComponent;
+	private @Nullable ChannelCallback mCallback;
+
+	private final Object mLock = new Object();
+	private boolean mBinding;
+	private @Nullable Messenger mService; // Set once handshake is done
+	private @Nullable Messenger mPendingService; // Connected, but waiting for handshake
+
+	private int mBinderCommands;
+	private int mIntentCommands;
+
+	private final Handler mReplyHandler = new Handler(Looper.getMainLooper()) {
+		@Override
+		public void handleMessage(Message msg) {
+			if(msg.what == MSG_PONG) {
+				ChannelCallback callback;
+				synchronized(mLock) {
+					if(mPendingService == null) {
+						return;
+					}
+					mService = mPendingService;
+					mPendingService = null;
+					callback = mCallback;
+				}
+				removeCallbacks(mHandshakeTimeout);
+				if(LOG) Log.w(TAG, "handshake done");
+				if(callback != null) {
+					callback.onChannelChanged(true);
+				}
+			}
+		}
+	};
+	private final Messenger mReplyMessenger = new Messenger(mReplyHandler);
+
+
+	public PowerampClient(@NonNull Context context) {
+		this(context, PowerampAPI.PLAYER_SERVICE_COMPONENT_NAME);
+	}
+
+	/**
+	 * @param serviceComponent the service to bind to. Normally {@link PowerampAPI#PLAYER_SERVICE_COMPONENT_NAME}, can be a stand-in service for testing
+	 */
+	public PowerampClient(@NonNull Context context, @NonNull ComponentName serviceComponent) {
+		mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+		mServiceComponent = serviceComponent;
+	}
+
+	public void setCallback(@Nullable ChannelCallback callback) {
+		synchronized(mLock) {
+			mCallback = callback;
+		}
+	}
+
+	/**
+	 * Binds to the already running service. Commands sent before the handshake completes are sent as intents.
+	 * Does nothing if the service was found unsupported before, see {@link #isSupported()}
+	 */
+	public void connect() {
+		synchronized(mLock) {
+			if(mBinding || !isSupported()) {
+				return;
+			}
+			Intent intent = new Intent(PowerampAPI.ACTION_API_COMMAND).setComponent(mServiceComponent);
+			try {
+				// NOTE: no BIND_AUTO_CREATE - the probe shouldn't create the service and keep it created
+				mBinding = mContext.bindService(intent, mConnection, 0);
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+			}
+			if(LOG) Log.w(TAG, "connect mBinding=" + mBinding);
+		}
+		mReplyHandler.removeCallbacks(mHandshakeTimeout);
+		mReplyHandler.postDelayed(mHandshakeTimeout, HANDSHAKE_TIMEOUT_MS);
+	}
+
+	/**
+	 * @return false if the service was found not supporting the channel, i.e. returned non-Messenger binder or didn't complete the handshake
+	 */
+	public boolean isSupported() {
+		synchronized(sUnsupported) {
+			return !sUnsupported.contains(mServiceComponent.flattenToString());
+		}
+	}
+
+	public void disconnect() {
+		boolean wasBound;
+		ChannelCallback callback;
+		mReplyHandler.removeCallbacks(mHandshakeTimeout);
+		synchronized(mLock) {
+			if(!mBinding) {
+				return;
+			}
+			mBinding = false;
+			wasBound = mService != null;
+			mService = null;
+			mPendingService = null;
+			callback = mCallback;
+			try {
+				mContext.unbindService(mConnection);
+			} catch(Throwable th) {
+				Log.e(TAG, "", th);
+			}
+		}
+		if(wasBound && callback != null) {
+			callback.onChannelChanged(false);
+		}
+	}
+
+	/**
+	 * @return true if the bound channel is established and commands go through it
+	 */
+	public boolean isBound() {
+		synchronized(mLock) {
+			return mService != null;
+		}
+	}
+
+	public void sendCommand(int command) {
+		sendCommand(new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, command));
+	}
+
+	/**
+	 * Sends the command intent via the bound channel, if available, or as the service intent otherwise
+	 * @param intent {@link PowerampAPI#ACTION_API_COMMAND} intent with {@link PowerampAPI#COMMAND} and the command extras
+	 */
+	public void sendCommand(@NonNull Intent intent) {
+		Messenger service;
+		synchronized(mLock) {
+			service = mService;
+		}
+		boolean tracked = false;
+		if(service != null) {
+			Bundle data = intent.getExtras() != null ? new Bundle(intent.getExtras()) : new Bundle();
+			Uri uri = intent.getData();
+			if(uri != null) {
+				data.putParcelable(EXTRA_DATA_URI, uri);
+			}
+			Message msg = Message.obtain(null, MSG_API_COMMAND);
+			msg.setData(data);
+			// NOTE: reported before the send, as the confirming broadcast may arrive before send() returns. The fallback below doesn't report it again
+			CommandLatencyTracker tracker = PowerampAPIHelper.getLatencyTracker();
+			if(tracker != null) {
+				tracker.onCommandSent(intent);
+				tracked = true;
+			}
+			try {
+				service.send(msg);
+				synchronized(mLock) {
+					mBinderCommands++;
+				}
+				return;
+			} catch(RemoteException ex) {
+				Log.e(TAG, "sendCommand channel broken, falling back to intent", ex);
+				onChannelBroken(service);
+			}
+		}
+
+		synchronized(mLock) {
+			mIntentCommands++;
+		}
+		if(PowerampAPI.PLAYER_SERVICE_COMPONENT_NAME.equals(mServiceComponent)) {
+			PowerampAPIHelper.startPAService(mContext, intent, !tracked);
+		} else {
+			mContext.startService(intent.setComponent(mServiceComponent));
+		}
+	}
+
+	/**
+	 * @return number of commands sent via the bound channel
+	 */
+	public int getBinderCommands() {
+		synchronized(mLock) {
+			return mBinderCommands;
+		}
+	}
+
+	/**
+	 * @return number of commands sent as intents
+	 */
+	public int getIntentCommands() {
+		synchronized(mLock) {
+			return mIntentCommands;
+		}
+	}
+
+	void onChannelBroken(@NonNull Messenger service) {
+		ChannelCallback callback = null;
+		synchronized(mLock) {
+			if(mService == service) {
+				mService = null;
+				callback = mCallback;
+			}
+		}
+		if(callback != null) {
+			callback.onChannelChanged(false);
+		}
+	}
+
+	/**
+	 * Unbinds and remembers the service as unsupported
+	 */
+	void onUnsupported(@NonNull String reason) {
+		Log.w(TAG, "channel not supported component=" + mServiceComponent + " reason=" + reason);
+		synchronized(sUnsupported) {
+			sUnsupported.add(mServiceComponent.flattenToString());
+		}
+		disconnect();
+	}
+
+	private final Runnable mHandshakeTimeout = new Runnable() {
+		@Override
+		public void run() {
+			boolean connected;
+			synchronized(mLock) {
+				if(!mBinding || mService != null) {
+					return;
+				}
+				connected = mPendingService != null;
+			}
+			if(connected) {
+				onUnsupported("handshake timeout");
+			} else {
+				// The service isn't running, don't keep the binding waiting for it. Can be retried with connect()
+				if(LOG) Log.w(TAG, "handshake timeout, not connected");
+				disconnect();
+			}
+		}
+	};
+
+	private final ServiceConnection mConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			if(LOG) Log.w(TAG, "onServiceConnected name=" + name + " binder=" + binder);
+			if(binder == null) {
+				onUnsupported("null binder");
+				return;
+			}
+			String descriptor;
+			try {
+				descriptor = binder.getInterfaceDescriptor();
+			} catch(RemoteException ex) {
+				descriptor = null;
+			}
+			if(!MESSENGER_DESCRIPTOR.equals(descriptor)) {
+				// Don't send IMessenger transactions to some other interface
+				onUnsupported("binder descriptor=" + descriptor);
+				return;
+			}
+			Messenger messenger = new Messenger(binder);
+			synchronized(mLock) {
+				mPendingService = messenger;
+			}
+			Message msg = Message.obtain(null, MSG_PING);
+			msg.replyTo = mReplyMessenger;
+			try {
+				messenger.send(msg);
+			} catch(RemoteException ex) {
+				Log.e(TAG, "", ex);
+			}
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			if(LOG) Log.w(TAG, "onServiceDisconnected name=" + name);
+			Messenger service;
+			synchronized(mLock) {
+				service = mService;
+				mPendingService = null;
+			}
+			if(service != null) {
+				onChannelBroken(service);
+			}
+			// NOTE: while bound, onServiceConnected will be called again once the service is started again. The handshake is repeated then
+		}
+	};
+}
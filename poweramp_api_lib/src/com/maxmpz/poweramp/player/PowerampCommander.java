@@ -0,0 +1,267 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.util.Log;
+
+
+/**
+ * Sends API commands and reports when they have taken effect, i.e. when the confirming Poweramp broadcast is received:<br>
+ * NEXT/PREVIOUS - {@link PowerampAPI#ACTION_TRACK_CHANGED}<br>
+ * TOGGLE_PLAY_PAUSE/PAUSE/RESUME - {@link PowerampAPI#ACTION_STATUS_CHANGED}<br>
+ * SEEK - {@link PowerampAPI#ACTION_TRACK_POS_SYNC} (requested via POS_SYNC right after the seek) with the seeked position<br>
+ * SET_EQU_PRESET - {@link PowerampAPI#ACTION_EQU_CHANGED} with the preset id<br>
+ * Broadcasts are correlated with the requests by {@link PowerampAPI#TIMESTAMP} - a broadcast confirms only the requests sent before it was generated,
+ * so the stale sticky intents delivered on register are ignored. Each broadcast confirms the oldest matching pending request.<br>
+ * If no confirmation arrives within the timeout, the callback is called with null broadcast.<br>
+ * NOTE: Poweramp throttles some commands (e.g. NEXT, see {@link PowerampAPI.Commands}), throttled commands are reported as timed out.<br>
+ * Callbacks are Java 7 compatible alternative to CompletableFuture (API 24+).<br>
+ * THREADING: UI thread
+ */
+public class PowerampCommander {
+	private static final String TAG = "PowerampCommander";
+	private static final boolean LOG = false;
+
+	public static final int DEFAULT_TIMEOUT_MS = 3000;
+
+	/**
+	 * Allowed difference between the request wall time and the broadcast timestamp, both are System.currentTimeMillis() on the same device,
+	 * but Poweramp may stamp the broadcast with the event time preceding the broadcast sending
+	 */
+	private static final int TIMESTAMP_SLACK_MS = 50;
+
+	/**
+	 * Seek confirmation position tolerance, seconds
+	 */
+	private static final int SEEK_POSITION_TOLERANCE = 1;
+
+	public interface ResultCallback {
+		/**
+		 * @param command the command sent
+		 * @param broadcast the confirming broadcast, or null if timed out
+		 */
+		public void onCommandResult(int command, @Nullable Intent broadcast);
+	}
+
+	public interface BroadcastMatcher {
+		/**
+		 * @return true if the broadcast confirms the command
+		 */
+		public boolean matches(@NonNull Intent broadcast);
+	}
+
+	private final @NonNull Context mContext;
+	private final Handler mHandler = new Handler();
+	private final ArrayList<Pending> mPending = new ArrayList<>();
+	private int mTimeoutMs = DEFAULT_TIMEOUT_MS;
+	private boolean mRegistered;
+
+
+	public PowerampCommander(@NonNull Context context) {
+		mContext = context;
+	}
+
+	public void setTimeout(int ms) {
+		mTimeoutMs = ms;
+	}
+
+	/**
+	 * Registers the broadcasts receiver. Should be called before sending commands, e.g. in onResume
+	 */
+	public void register() {
+		if(mRegistered) {
+			return;
+		}
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(PowerampAPI.ACTION_TRACK_CHANGED);
+		filter.addAction(PowerampAPI.ACTION_STATUS_CHANGED);
+		filter.addAction(PowerampAPI.ACTION_TRACK_POS_SYNC);
+		filter.addAction(PowerampAPI.ACTION_EQU_CHANGED);
+		mContext.registerReceiver(mReceiver, filter);
+		mRegistered = true;
+	}
+
+	/**
+	 * Unregisters the receiver. All pending requests are reported as timed out
+	 */
+	public void unregister() {
+		if(!mRegistered) {
+			return;
+		}
+		mContext.unregisterReceiver(mReceiver);
+		mRegistered = false;
+
+		ArrayList<Pending> pending = new ArrayList<>(mPending);
+		mPending.clear();
+		for(Pending p : pending) {
+			mHandler.removeCallbacks(p);
+			p.complete(null);
+		}
+	}
+
+	public int getPendingCount() {
+		return mPending.size();
+	}
+
+	public void next(@Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.NEXT), PowerampAPI.ACTION_TRACK_CHANGED, null, callback);
+	}
+
+	public void previous(@Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.PREVIOUS), PowerampAPI.ACTION_TRACK_CHANGED, null, callback);
+	}
+
+	public void togglePlayPause(@Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.TOGGLE_PLAY_PAUSE), PowerampAPI.ACTION_STATUS_CHANGED, null, callback);
+	}
+
+	public void pause(@Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.PAUSE), PowerampAPI.ACTION_STATUS_CHANGED, new BroadcastMatcher() {
+			@Override
+			public boolean matches(@NonNull Intent broadcast) {
+				return broadcast.getBooleanExtra(PowerampAPI.PAUSED, false);
+			}
+		}, callback);
+	}
+
+	public void resume(@Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.RESUME), PowerampAPI.ACTION_STATUS_CHANGED, new BroadcastMatcher() {
+			@Override
+			public boolean matches(@NonNull Intent broadcast) {
+				return !broadcast.getBooleanExtra(PowerampAPI.PAUSED, true);
+			}
+		}, callback);
+	}
+
+	/**
+	 * @param position position in seconds
+	 */
+	public void seek(final int position, @Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.SEEK).putExtra(PowerampAPI.Track.POSITION, position), PowerampAPI.ACTION_TRACK_POS_SYNC, new BroadcastMatcher() {
+			@Override
+			public boolean matches(@NonNull Intent broadcast) {
+				int pos = broadcast.getIntExtra(PowerampAPI.Track.POSITION, -1);
+				return pos >= 0 && Math.abs(pos - position) <= SEEK_POSITION_TOLERANCE;
+			}
+		}, callback);
+		// Poweramp doesn't broadcast the seek result on its own
+		PowerampAPIHelper.startPAService(mContext, command(PowerampAPI.Commands.POS_SYNC));
+	}
+
+	public void setEquPreset(final long presetId, @Nullable ResultCallback callback) {
+		send(command(PowerampAPI.Commands.SET_EQU_PRESET).putExtra(PowerampAPI.ID, presetId), PowerampAPI.ACTION_EQU_CHANGED, new BroadcastMatcher() {
+			@Override
+			public boolean matches(@NonNull Intent broadcast) {
+				return broadcast.getLongExtra(PowerampAPI.ID, Long.MIN_VALUE) == presetId;
+			}
+		}, callback);
+	}
+
+	/**
+	 * Sends the command and waits for the confirming broadcast
+	 * @param commandIntent {@link PowerampAPI#ACTION_API_COMMAND} intent with {@link PowerampAPI#COMMAND}
+	 * @param confirmAction one of the actions: {@link PowerampAPI#ACTION_TRACK_CHANGED}, {@link PowerampAPI#ACTION_STATUS_CHANGED},
+	 * {@link PowerampAPI#ACTION_TRACK_POS_SYNC}, {@link PowerampAPI#ACTION_EQU_CHANGED}
+	 * @param matcher optional additional check of the broadcast
+	 */
+	public void send(@NonNull Intent commandIntent, @NonNull String confirmAction, @Nullable BroadcastMatcher matcher, @Nullable ResultCallback callback) {
+		if(!mRegistered) {
+			Log.e(TAG, "send not registered, command won't be confirmed");
+		}
+		Pending p = new Pending(commandIntent.getIntExtra(PowerampAPI.COMMAND, 0), confirmAction, matcher, callback, System.currentTimeMillis());
+		mPending.add(p);
+		mHandler.postDelayed(p, mTimeoutMs);
+		if(LOG) Log.w(TAG, "send command=" + p.mCommand + " confirmAction=" + confirmAction);
+		PowerampAPIHelper.startPAService(mContext, commandIntent);
+	}
+
+	private static @NonNull Intent command(int command) {
+		return new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, command);
+	}
+
+	void onBroadcast(@NonNull Intent intent) {
+		String action = intent.getAction();
+		if(action == null) {
+			return;
+		}
+		// TPOS_SYNC has no timestamp and is not sticky, thus it's always fresh
+		long ts = intent.getLongExtra(PowerampAPI.TIMESTAMP, 0);
+		for(int i = 0, size = mPending.size(); i < size; i++) {
+			Pending p = mPending.get(i);
+			if(action.equals(p.mAction)
+					&& (ts == 0 || ts + TIMESTAMP_SLACK_MS >= p.mSentAt)
+					&& (p.mMatcher == null || p.mMatcher.matches(intent))
+			) {
+				mPending.remove(i);
+				mHandler.removeCallbacks(p);
+				if(LOG) Log.w(TAG, "onBroadcast confirmed command=" + p.mCommand + " in=" + (System.currentTimeMillis() - p.mSentAt) + "ms");
+				p.complete(intent);
+				return;
+			}
+		}
+	}
+
+	private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			onBroadcast(intent);
+		}
+	};
+
+	private class Pending implements Runnable {
+		final int mCommand;
+		final @NonNull String mAction;
+		final @Nullable BroadcastMatcher mMatcher;
+		final @Nullable ResultCallback mCallback;
+		final long mSentAt;
+
+		Pending(int command, @NonNull String action, @Nullable BroadcastMatcher matcher, @Nullable ResultCallback callback, long sentAt) {
+			mCommand = command;
+			mAction = action;
+			mMatcher = matcher;
+			mCallback = callback;
+			mSentAt = sentAt;
+		}
+
+		// Timeout
+		@Override
+		public void run() {
+			if(mPending.remove(this)) {
+				if(LOG) Log.w(TAG, "timeout command=" + mCommand);
+				complete(null);
+			}
+		}
+
+		void complete(@Nullable Intent broadcast) {
+			if(mCallback != null) {
+				mCallback.onCommandResult(mCommand, broadcast);
+			}
+		}
+	}
+}
@@ -0,0 +1,550 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.Log;
+
+
+/**
+ * Caches {@link PowerampAPI#ROOT_URI} query results, keyed by uri + projection + selection + args + sort order.<br>
+ * Results are materialized into immutable {@link Snapshot}s with per column primitive storage where possible (long[]/double[]).<br>
+ * Each cached uri depends on the set of tables derived from its path segments (e.g. /albums/#/files => albums, folder_files). Entries are evicted when
+ * {@link ChangeTracker} reports a change of any of their tables. A result loaded while its table changed is returned, but not cached.<br>
+ * The total estimated snapshot size is capped, least recently used entries are evicted first.<br>
+ * Queries sorted by RANDOM() are not cached.<br>
+ * THREADING: any, {@link #query} does blocking provider calls on misses
+ */
+public class QueryCache implements ChangeTracker.Listener {
+	private static final String TAG = "QueryCache";
+	private static final boolean LOG = false;
+
+	public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private static final String[] FILES_DEPS = { TableDefs.Files.TABLE };
+
+	private static @Nullable QueryCache sInstance;
+
+	private final @NonNull Context mContext;
+	private final @NonNull ChangeTracker mTracker;
+	private final Object mLock = new Object();
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true); // Access order for LRU
+	private int mMaxBytes = DEFAULT_MAX_BYTES;
+	private int mBytes;
+	private boolean mListening;
+
+	private int mHits;
+	private int mMisses;
+	private int mEvictions;
+	private int mInvalidations;
+
+
+	public static @NonNull QueryCache getInstance(@NonNull Context context) {
+		synchronized(QueryCache.class) {
+			QueryCache instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new QueryCache(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	QueryCache(@NonNull Context context) {
+		mContext = context;
+		mTracker = ChangeTracker.getInstance(context);
+	}
+
+	public void setMaxBytes(int maxBytes) {
+		synchronized(mLock) {
+			mMaxBytes = maxBytes;
+			trim();
+		}
+	}
+
+	/**
+	 * @return cached or freshly loaded snapshot, or null on provider failure
+	 */
+	public @Nullable Snapshot query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs,
+			@Nullable String sortOrder) {
+		if(sortOrder != null && sortOrder.contains("RANDOM()")) {
+			return load(uri, projection, selection, selectionArgs, sortOrder);
+		}
+		String key = buildKey(uri, projection, selection, selectionArgs, sortOrder);
+		long seq;
+		synchronized(mLock) {
+			Entry entry = mEntries.get(key);
+			if(entry != null) {
+				mHits++;
+				return entry.mSnapshot;
+			}
+			mMisses++;
+			if(!mListening) {
+				mListening = true;
+				mTracker.addListener(this);
+			}
+			seq = mTracker.getSequence(); // Taken before the query, so a change during the query is detected
+		}
+
+		Snapshot snapshot = load(uri, projection, selection, selectionArgs, sortOrder);
+		if(snapshot == null) {
+			return null;
+		}
+
+		String[] deps = getTables(uri);
+		synchronized(mLock) {
+			// NOTE: checked under the lock, as the sequence is incremented before onTableChanged() is called. Any later change waits for
+			// the lock in onTableChanged() and drops this entry
+			for(String table : deps) {
+				if(mTracker.hasChangedSince(table, seq)) {
+					if(LOG) Log.w(TAG, "query changed while loading uri=" + uri + " table=" + table);
+					return snapshot;
+				}
+			}
+			Entry prev = mEntries.put(key, new Entry(snapshot, deps));
+			if(prev != null) {
+				mBytes -= prev.mSnapshot.mBytes;
+			}
+			mBytes += snapshot.mBytes;
+			trim();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Drops all cached snapshots
+	 */
+	public void clear() {
+		synchronized(mLock) {
+			mEntries.clear();
+			mBytes = 0;
+		}
+	}
+
+	@Override
+	public void onTableChanged(@NonNull String table, long seq, int source) {
+		synchronized(mLock) {
+			Iterator<Entry> it = mEntries.values().iterator();
+			while(it.hasNext()) {
+				Entry entry = it.next();
+				if(entry.dependsOn(table)) {
+					it.remove();
+					mBytes -= entry.mSnapshot.mBytes;
+					mInvalidations++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return hits / (hits + misses), or 0 if no queries yet
+	 */
+	public float getHitRate() {
+		synchronized(mLock) {
+			int total = mHits + mMisses;
+			return total > 0 ? (float)mHits / total : 0;
+		}
+	}
+
+	/**
+	 * @return hit/miss/eviction/invalidation counters and memory usage, for diagnostics
+	 */
+	public String getStats() {
+		synchronized(mLock) {
+			return "hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions + " invalidations=" + mInvalidations
+					+ " entries=" + mEntries.size() + " bytes=" + mBytes + "/" + mMaxBytes;
+		}
+	}
+
+	// NOTE: under mLock
+	private void trim() {
+		Iterator<Entry> it = mEntries.values().iterator();
+		while(mBytes > mMaxBytes && it.hasNext()) {
+			Entry entry = it.next(); // Eldest first
+			it.remove();
+			mBytes -= entry.mSnapshot.mBytes;
+			mEvictions++;
+		}
+	}
+
+	private @Nullable Snapshot load(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs,
+			@Nullable String sortOrder) {
+		Cursor c = null;
+		try {
+			c = mContext.getContentResolver().query(uri, projection, selection, selectionArgs, sortOrder);
+			if(c != null) {
+				return Snapshot.from(c);
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+		return null;
+	}
+
+	static @NonNull String buildKey(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs,
+			@Nullable String sortOrder) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(uri.toString()).append('\u0001');
+		if(projection != null) {
+			for(String col : projection) {
+				sb.append(col).append(',');
+			}
+		}
+		sb.append('\u0001').append(selection).append('\u0001');
+		if(selectionArgs != null) {
+			for(String arg : selectionArgs) {
+				sb.append(arg).append('\u0002');
+			}
+		}
+		sb.append('\u0001').append(sortOrder);
+		return sb.toString();
+	}
+
+	/**
+	 * @return tables the uri results depend on. Unknown uris depend on all tables
+	 */
+	static @NonNull String[] getTables(@NonNull Uri uri) {
+		List<String> segments = uri.getPathSegments();
+		ArrayList<String> tables = new ArrayList<>(4);
+		for(int i = 0, size = segments.size(); i < size; i++) {
+			String[] deps = getSegmentTables(segments.get(i));
+			if(deps == ChangeTracker.ALL_TABLES) {
+				return deps;
+			}
+			if(deps == null) {
+				continue;
+			}
+			for(String table : deps) {
+				if(!tables.contains(table)) {
+					tables.add(table);
+				}
+			}
+		}
+		return tables.isEmpty() ? ChangeTracker.ALL_TABLES : tables.toArray(new String[tables.size()]);
+	}
+
+	/**
+	 * @return tables for the path segment, null for the numeric id segments, or ALL_TABLES for unknown segments
+	 */
+	private static @Nullable String[] getSegmentTables(@NonNull String segment) {
+		if(segment.length() > 0 && Character.isDigit(segment.charAt(0))) {
+			return null;
+		}
+		switch(segment) {
+			case "files":
+			case "most_played":
+			case "top_rated":
+			case "recently_added":
+			case "recently_played":
+			case "long":
+			case "search":
+				return FILES_DEPS;
+			case "folders":
+			case "folders_and_files":
+				return new String[] { TableDefs.Folders.TABLE, TableDefs.Files.TABLE };
+			case "albums":
+				return new String[] { TableDefs.Albums.TABLE, TableDefs.Files.TABLE };
+			case "artists":
+				return new String[] { TableDefs.Artists.TABLE, TableDefs.Files.TABLE };
+			case "artists_albums":
+				return new String[] { TableDefs.AlbumsByArtist.TABLE, TableDefs.Albums.TABLE, TableDefs.Artists.TABLE, TableDefs.Files.TABLE };
+			case "album_artists":
+				return new String[] { TableDefs.AlbumArtists.TABLE, TableDefs.Files.TABLE };
+			case "composers":
+				return new String[] { TableDefs.Composers.TABLE, TableDefs.Files.TABLE };
+			case "genres":
+				return new String[] { TableDefs.Genres.TABLE, TableDefs.GenreEntries.TABLE, TableDefs.Files.TABLE };
+			case "playlists":
+				return new String[] { TableDefs.Playlists.TABLE, TableDefs.PlaylistEntries.TABLE, TableDefs.Files.TABLE };
+			case "queue":
+				return new String[] { TableDefs.Queue.TABLE, TableDefs.Files.TABLE };
+			case TableDefs.EqPresets.TABLE:
+				return new String[] { TableDefs.EqPresets.TABLE };
+			case TableDefs.EqPresetSongs.TABLE:
+				return new String[] { TableDefs.EqPresetSongs.TABLE };
+			case TableDefs.ReverbPresets.TABLE:
+				return new String[] { TableDefs.ReverbPresets.TABLE };
+			default:
+				return ChangeTracker.ALL_TABLES;
+		}
+	}
+
+	private static final class Entry {
+		final @NonNull Snapshot mSnapshot;
+		final @NonNull String[] mTables;
+
+		Entry(@NonNull Snapshot snapshot, @NonNull String[] tables) {
+			mSnapshot = snapshot;
+			mTables = tables;
+		}
+
+		boolean dependsOn(@NonNull String table) {
+			for(String t : mTables) {
+				if(t.equals(table)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Immutable materialized query result. Integer columns are stored as long[], float columns as double[], others (strings, blobs, mixed) as Object[]
+	 */
+	public static final class Snapshot {
+		private static final int OBJECT_OVERHEAD = 16;
+
+		private final @NonNull String[] mColumns;
+		private final int mRowCount;
+		private final @NonNull Object[] mData; // Per column long[], double[] or Object[]
+		private final @NonNull boolean[][] mNulls; // Per column null flags for primitive columns, null if no nulls
+		final int mBytes;
+
+		private Snapshot(@NonNull String[] columns, int rowCount, @NonNull Object[] data, @NonNull boolean[][] nulls, int bytes) {
+			mColumns = columns;
+			mRowCount = rowCount;
+			mData = data;
+			mNulls = nulls;
+			mBytes = bytes;
+		}
+
+		static @NonNull Snapshot from(@NonNull Cursor c) {
+			String[] columns = c.getColumnNames();
+			int columnCount = columns.length;
+			int rows = c.getCount();
+			Object[] data = new Object[columnCount];
+			boolean[][] nulls = new boolean[columnCount][];
+			long bytes = OBJECT_OVERHEAD * 4;
+
+			// Single pass over the rows. Each column starts with the primitive storage matching its first non-null value,
+			// and falls back to Object[] on the mixed types
+			int[] types = new int[columnCount];
+			int row = 0;
+			c.moveToPosition(-1);
+			while(row < rows && c.moveToNext()) {
+				for(int col = 0; col < columnCount; col++) {
+					int t = c.getType(col);
+					Object arr = data[col];
+					if(types[col] == Cursor.FIELD_TYPE_NULL && t != Cursor.FIELD_TYPE_NULL) {
+						types[col] = t;
+						data[col] = arr = t == Cursor.FIELD_TYPE_INTEGER ? new long[rows] : t == Cursor.FIELD_TYPE_FLOAT ? new double[rows] : new Object[rows];
+					}
+					if(t == Cursor.FIELD_TYPE_NULL) {
+						if(!(arr instanceof Object[])) {
+							if(nulls[col] == null) {
+								nulls[col] = new boolean[rows];
+							}
+							nulls[col][row] = true;
+						}
+					} else if(arr instanceof long[] && t == Cursor.FIELD_TYPE_INTEGER) {
+						((long[])arr)[row] = c.getLong(col);
+					} else if(arr instanceof double[] && t == Cursor.FIELD_TYPE_FLOAT) {
+						((double[])arr)[row] = c.getDouble(col);
+					} else {
+						if(!(arr instanceof Object[])) {
+							data[col] = arr = toObjects(arr, nulls[col], row, rows);
+							nulls[col] = null;
+						}
+						((Object[])arr)[row] = readValue(c, col, t);
+					}
+				}
+				row++;
+			}
+			for(int col = 0; col < columnCount; col++) {
+				if(data[col] == null) {
+					data[col] = new Object[rows]; // All nulls
+					nulls[col] = null;
+				}
+				bytes += estimateBytes(data[col], rows) + (nulls[col] != null ? rows : 0);
+			}
+			return new Snapshot(columns, row, data, nulls, (int)Math.min(bytes, Integer.MAX_VALUE));
+		}
+
+		public int getCount() {
+			return mRowCount;
+		}
+
+		public @NonNull String[] getColumnNames() {
+			return mColumns.clone();
+		}
+
+		public int getColumnIndex(@NonNull String column) {
+			for(int i = 0; i < mColumns.length; i++) {
+				if(mColumns[i].equals(column)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		public boolean isNull(int row, int col) {
+			Object arr = mData[col];
+			if(arr instanceof Object[]) {
+				return ((Object[])arr)[row] == null;
+			}
+			boolean[] nulls = mNulls[col];
+			return nulls != null && nulls[row];
+		}
+
+		public long getLong(int row, int col) {
+			Object arr = mData[col];
+			if(arr instanceof long[]) {
+				return ((long[])arr)[row];
+			}
+			if(arr instanceof double[]) {
+				return (long)((double[])arr)[row];
+			}
+			Object value = ((Object[])arr)[row];
+			if(value instanceof Number) {
+				return ((Number)value).longValue();
+			}
+			if(value instanceof String) {
+				try {
+					return Long.parseLong((String)value);
+				} catch(NumberFormatException ex) {
+					return 0;
+				}
+			}
+			return 0;
+		}
+
+		public int getInt(int row, int col) {
+			return (int)getLong(row, col);
+		}
+
+		public double getDouble(int row, int col) {
+			Object arr = mData[col];
+			if(arr instanceof double[]) {
+				return ((double[])arr)[row];
+			}
+			if(arr instanceof long[]) {
+				return ((long[])arr)[row];
+			}
+			Object value = ((Object[])arr)[row];
+			return value instanceof Number ? ((Number)value).doubleValue() : 0;
+		}
+
+		public @Nullable String getString(int row, int col) {
+			if(isNull(row, col)) {
+				return null;
+			}
+			Object arr = mData[col];
+			if(arr instanceof long[]) {
+				return Long.toString(((long[])arr)[row]);
+			}
+			if(arr instanceof double[]) {
+				return Double.toString(((double[])arr)[row]);
+			}
+			Object value = ((Object[])arr)[row];
+			return value instanceof byte[] ? null : value.toString();
+		}
+
+		/**
+		 * @return new cursor over the snapshot, e.g. for the adapters. The snapshot itself is not copied per row
+		 */
+		public @NonNull Cursor newCursor() {
+			MatrixCursor c = new MatrixCursor(mColumns, mRowCount);
+			Object[] row = new Object[mColumns.length];
+			for(int r = 0; r < mRowCount; r++) {
+				for(int col = 0; col < mColumns.length; col++) {
+					Object arr = mData[col];
+					if(isNull(r, col)) {
+						row[col] = null;
+					} else if(arr instanceof long[]) {
+						row[col] = ((long[])arr)[r];
+					} else if(arr instanceof double[]) {
+						row[col] = ((double[])arr)[r];
+					} else {
+						row[col] = ((Object[])arr)[r];
+					}
+				}
+				c.addRow(row);
+			}
+			return c;
+		}
+
+		private static @Nullable Object readValue(@NonNull Cursor c, int col, int type) {
+			switch(type) {
+				case Cursor.FIELD_TYPE_INTEGER:
+					return c.getLong(col);
+				case Cursor.FIELD_TYPE_FLOAT:
+					return c.getDouble(col);
+				case Cursor.FIELD_TYPE_BLOB:
+					return c.getBlob(col);
+				case Cursor.FIELD_TYPE_STRING:
+					return c.getString(col);
+				default:
+					return null;
+			}
+		}
+
+		private static @NonNull Object[] toObjects(@Nullable Object arr, @Nullable boolean[] nulls, int filled, int rows) {
+			Object[] res = new Object[rows];
+			for(int i = 0; i < filled; i++) {
+				if(nulls != null && nulls[i]) {
+					continue;
+				}
+				if(arr instanceof long[]) {
+					res[i] = ((long[])arr)[i];
+				} else if(arr instanceof double[]) {
+					res[i] = ((double[])arr)[i];
+				}
+			}
+			return res;
+		}
+
+		private static long estimateBytes(@NonNull Object arr, int rows) {
+			if(!(arr instanceof Object[])) {
+				return OBJECT_OVERHEAD + rows * 8L;
+			}
+			long bytes = OBJECT_OVERHEAD + rows * 4L;
+			for(Object value : (Object[])arr) {
+				if(value instanceof String) {
+					bytes += OBJECT_OVERHEAD * 2 + ((String)value).length() * 2L;
+				} else if(value instanceof byte[]) {
+					bytes += OBJECT_OVERHEAD + ((byte[])value).length;
+				} else if(value != null) {
+					bytes += OBJECT_OVERHEAD + 8;
+				}
+			}
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			return super.toString() + " columns=" + Arrays.toString(mColumns) + " rows=" + mRowCount + " bytes=" + mBytes;
+		}
+	}
+}
@@ -25,7 +25,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
+import java.util.ArrayList;
 
 
 /**
@@ -34,6 +37,15 @@ import android.util.Log;
  * - your app calls registerAndLoadStatus() (for example, in activity onResume).
  * - when Poweramp seeks the track (throttled to 500ms)
  * - when track is started/resumed/paused
+ * 
+ * Position is extrapolated from the last sync using monotonic {@link SystemClock#elapsedRealtime()}, thus wall clock changes don't affect it.<br>
+ * In high resolution mode (see {@link #setHighResolution(boolean)}) position is reported in milliseconds via {@link TrackTimeListenerMs}, either
+ * on {@link #HIGH_RES_UPDATE_DELAY} ticks or, optionally, on each display frame (see {@link #setFrameCallbacksEnabled(boolean)})<br>
+ * With adaptive sync enabled (see {@link #setAdaptiveSync(boolean, int)}), syncs are corrected for the broadcast latency and clock drift, and
+ * extra POS_SYNC requests are sent only when the estimated position error exceeds the given threshold<br>
+ * Consumers needing different granularity can {@link #subscribe(int, TrackTimeListenerMs)} with their own resolution or to the specific trigger points
+ * ({@link #subscribeAtPosition(long, TrackTimeListenerMs)}, {@link #subscribeAtFraction(float, TrackTimeListenerMs)}). Ticks are scheduled only as often
+ * as the most demanding subscriber requires
  */
 public class RemoteTrackTime {
 	private static final String TAG = "RemoteTrackTime";
@@ -41,12 +53,45 @@ public class RemoteTrackTime {
 
 	private static final int UPDATE_DELAY = 1000;
 	
+	/**
+	 * Tick delay used in high resolution mode when frame callbacks are not enabled
+	 */
+	public static final int HIGH_RES_UPDATE_DELAY = 50;
+	
+	private static final int MIN_TICK_DELAY = 10;
+	
+	private static final int MIN_SYNC_REQUEST_INTERVAL = 2000;
+	private static final int MAX_SYNC_REQUEST_INTERVAL = 30000;
+	
+	/**
+	 * Position jump to before this position (e.g. the same track played again) re-arms the fired trigger subscriptions
+	 */
+	private static final int REARM_POSITION_MS = 1000;
+	
 	private Context mContext;
 	int mPosition;
+	long mPositionMs;
 	
 	long mStartTimeMs;
-	int mStartPosition;
+	long mStartPositionMs;
 	private boolean mPlaying;
+	private boolean mHighResolution;
+	private boolean mFrameCallbacksEnabled;
+	private boolean mFrameCallbackPosted;
+	
+	private PositionSyncEstimator mEstimator;
+	private int mMaxSyncErrorMs;
+	private long mLastSyncRequestTime;
+	private int mSyncRequestInterval = MIN_SYNC_REQUEST_INTERVAL;
+	private int mSyncRequests;
+	
+	private long mTrackId = PowerampAPI.NO_ID;
+	private long mDurationMs;
+	/**
+	 * False after the track change until the first position sync/update for the new track. Trigger subscriptions don't fire meanwhile
+	 */
+	private boolean mPositionKnown = true;
+	private final ArrayList<Subscription> mSubscriptions = new ArrayList<>();
 	
 	Handler mHandler = new Handler();
 	
@@ -57,7 +102,57 @@ public class RemoteTrackTime {
 		public void onTrackPositionChanged(int position);
 	}
 	
+	/**
+	 * Receives high resolution position updates, see {@link RemoteTrackTime#setHighResolution(boolean)}
+	 */
+	public interface TrackTimeListenerMs {
+		/**
+		 * @param positionMs extrapolated in-track position in milliseconds
+		 */
+		public void onTrackPositionChangedMs(long positionMs);
+	}
+	
 	TrackTimeListener mTrackTimeListener;
+	TrackTimeListenerMs mTrackTimeListenerMs;
+	
+	/**
+	 * Position subscription, either periodic (with the given resolution) or a single trigger point. Trigger points are delivered once per track
+	 * (see {@link RemoteTrackTime#updateTrack(long, int)}) when the position reaches or passes them, including by seek. The same track played again
+	 * (position synced back to the track start) re-arms them
+	 */
+	public static final class Subscription {
+		final TrackTimeListenerMs mListener;
+		final int mResolutionMs;
+		final long mTriggerPositionMs;
+		final float mTriggerFraction;
+		long mLastDeliveredMs = -1;
+		boolean mFired;
+		boolean mRemoved;
+		
+		Subscription(TrackTimeListenerMs listener, int resolutionMs, long triggerPositionMs, float triggerFraction) {
+			mListener = listener;
+			mResolutionMs = resolutionMs;
+			mTriggerPositionMs = triggerPositionMs;
+			mTriggerFraction = triggerFraction;
+		}
+		
+		boolean isTrigger() {
+			return mResolutionMs <= 0;
+		}
+		
+		/**
+		 * @return absolute trigger position or -1 if the trigger position is unknown (no duration yet)
+		 */
+		long getTriggerMs(long durationMs) {
+			if(mTriggerPositionMs >= 0) {
+				return mTriggerPositionMs;
+			}
+			if(durationMs <= 0) {
+				return -1;
+			}
+			return (long)(durationMs * mTriggerFraction);
+		}
+	}
 	
 	
 	public RemoteTrackTime(Context context) {
@@ -67,15 +162,12 @@ public class RemoteTrackTime {
 	public void registerAndLoadStatus() {
 		IntentFilter filter = new IntentFilter(PowerampAPI.ACTION_TRACK_POS_SYNC);
 		mContext.registerReceiver(mTrackPosSyncReceiver, filter);
-		try {
-			mContext.startService(PowerampAPI.newAPIIntent().putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.POS_SYNC));
-		} catch(Throwable th) {
-			Log.e(TAG, "", th);
-		}
+		requestPosSync();
 		
 		if(mPlaying) {
 			mHandler.removeCallbacks(mTickRunnable);
 			mHandler.postDelayed(mTickRunnable, 0);
+			postFrameCallback();
 		}
 	}
 	
@@ -86,6 +178,20 @@ public class RemoteTrackTime {
 			} catch(Exception ex){}
 		}
 		mHandler.removeCallbacks(mTickRunnable);
+		removeFrameCallback();
+	}
+	
+	private void requestPosSync() {
+		try {
+			mContext.startService(PowerampAPI.newAPIIntent().putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.POS_SYNC));
+			mLastSyncRequestTime = SystemClock.elapsedRealtime();
+			mSyncRequests++;
+			if(mEstimator != null) {
+				mEstimator.onSyncRequested(mLastSyncRequestTime);
+			}
+		} catch(Throwable th) {
+			Log.e(TAG, "", th);
+		}
 	}
 	
 	private BroadcastReceiver mTrackPosSyncReceiver = new BroadcastReceiver() {
@@ -93,7 +199,7 @@ public class RemoteTrackTime {
 		public void onReceive(Context context, Intent intent) {
 			int pos = intent.getIntExtra(PowerampAPI.Track.POSITION, 0);
 			if(LOG) Log.w(TAG, "mTrackPosSyncReceiver sync=" + pos);
-			updateTrackPosition(pos);
+			syncTrackPosition(pos, intent.getLongExtra(PowerampAPI.TIMESTAMP, 0));
 		}
 		
 	};
@@ -102,51 +208,390 @@ public class RemoteTrackTime {
 		mTrackTimeListener = l;
 	}
 
+	public void setTrackTimeListenerMs(TrackTimeListenerMs l) {
+		mTrackTimeListenerMs = l;
+	}
+
+	/**
+	 * Enables or disables high resolution mode. In this mode position is extrapolated each {@link #HIGH_RES_UPDATE_DELAY} ms (or each frame, if
+	 * frame callbacks are enabled) and reported to {@link TrackTimeListenerMs}. {@link TrackTimeListener} is still called, but only when whole seconds
+	 * position changes
+	 */
+	public void setHighResolution(boolean highResolution) {
+		if(mHighResolution != highResolution) {
+			mHighResolution = highResolution;
+			if(mPlaying) {
+				restartTicks();
+			}
+		}
+	}
+
+	public boolean isHighResolution() {
+		return mHighResolution;
+	}
+
+	/**
+	 * If enabled (and high resolution mode is on), position is updated on each display frame via {@link Choreographer} instead of the handler ticks.
+	 * Enable this only while the position view is actually visible, e.g. in onResume/onPause or on view visibility changes.
+	 * THREADING: UI thread
+	 */
+	public void setFrameCallbacksEnabled(boolean enabled) {
+		if(mFrameCallbacksEnabled != enabled) {
+			mFrameCallbacksEnabled = enabled;
+			if(mPlaying) {
+				restartTicks();
+			}
+		}
+	}
+
+	/**
+	 * Enables or disables adaptive sync. When enabled, position syncs are corrected for the estimated broadcast latency and local clock drift, and
+	 * POS_SYNC is requested from Poweramp when the estimated position error exceeds maxErrorMs (with backoff, if syncs can't get error below that).
+	 * Makes sense mostly with high resolution mode
+	 */
+	public void setAdaptiveSync(boolean enabled, int maxErrorMs) {
+		if(enabled) {
+			if(mEstimator == null) {
+				mEstimator = new PositionSyncEstimator();
+			}
+			mMaxSyncErrorMs = maxErrorMs;
+		} else {
+			mEstimator = null;
+		}
+		mSyncRequestInterval = MIN_SYNC_REQUEST_INTERVAL;
+	}
+
+	/**
+	 * @return the adaptive sync estimator or null if adaptive sync is disabled
+	 */
+	public PositionSyncEstimator getEstimator() {
+		return mEstimator;
+	}
+
+	/**
+	 * @return number of POS_SYNC commands sent by this instance
+	 */
+	public int getSyncRequests() {
+		return mSyncRequests;
+	}
+
+	/**
+	 * @return current extrapolated position in milliseconds
+	 */
+	public long getPositionMs() {
+		if(mPlaying) {
+			return extrapolatePositionMs(SystemClock.elapsedRealtime());
+		}
+		return mPositionMs;
+	}
+
+	private long extrapolatePositionMs(long now) {
+		long elapsed = now - mStartTimeMs;
+		if(mEstimator != null) {
+			elapsed = Math.round(elapsed * (1f + mEstimator.getDrift()));
+		}
+		return elapsed + mStartPositionMs;
+	}
+
+	/**
+	 * Subscribes to periodic position updates
+	 * @param resolutionMs desired updates interval, e.g. 1000 for the widget, 50 for the lyrics
+	 */
+	public Subscription subscribe(int resolutionMs, TrackTimeListenerMs l) {
+		if(resolutionMs <= 0) throw new IllegalArgumentException("bad resolutionMs=" + resolutionMs);
+		return addSubscription(new Subscription(l, resolutionMs, -1, -1f));
+	}
+
+	/**
+	 * Subscribes to a single per-track trigger at the given position
+	 */
+	public Subscription subscribeAtPosition(long positionMs, TrackTimeListenerMs l) {
+		if(positionMs < 0) throw new IllegalArgumentException("bad positionMs=" + positionMs);
+		return addSubscription(new Subscription(l, 0, positionMs, -1f));
+	}
+
+	/**
+	 * Subscribes to a single per-track trigger at the given fraction of the track duration, e.g. 0.5f for the scrobbler
+	 */
+	public Subscription subscribeAtFraction(float fraction, TrackTimeListenerMs l) {
+		if(fraction < 0f || fraction > 1f) throw new IllegalArgumentException("bad fraction=" + fraction);
+		return addSubscription(new Subscription(l, 0, -1, fraction));
+	}
+
+	private Subscription addSubscription(Subscription sub) {
+		mSubscriptions.add(sub);
+		if(mPlaying) {
+			restartTicks();
+		}
+		return sub;
+	}
+
+	public void unsubscribe(Subscription sub) {
+		sub.mRemoved = true;
+		mSubscriptions.remove(sub);
+	}
+
+	/**
+	 * @return current track duration in milliseconds, as set by {@link #updateTrackDuration(int)}, or 0 if not known
+	 */
+	public long getDurationMs() {
+		return mDurationMs;
+	}
+
 	// REVISIT: not used to update duration here ATM
 	public void updateTrackDuration(int duration) {
+		mDurationMs = duration * 1000L;
 		if(mTrackTimeListener != null) {
 			mTrackTimeListener.onTrackDurationChanged(duration);
 		}
 	}
 
+	/**
+	 * Should be called on each track change, allows trigger subscriptions to fire again for the new track.<br>
+	 * On the track id change, the position is reset to 0 and the trigger subscriptions wait for the first position sync/update of the new track,
+	 * so the previous track position isn't extrapolated against the new duration
+	 * @param trackId {@link PowerampAPI.Track#ID}
+	 * @param duration track duration in seconds
+	 */
+	public void updateTrack(long trackId, int duration) {
+		if(trackId != mTrackId) {
+			mTrackId = trackId;
+			mPositionMs = 0;
+			mPosition = 0;
+			mStartPositionMs = 0;
+			mStartTimeMs = SystemClock.elapsedRealtime();
+			mPositionKnown = false;
+			if(mEstimator != null) {
+				mEstimator.reset();
+			}
+			for(int i = 0, size = mSubscriptions.size(); i < size; i++) {
+				Subscription sub = mSubscriptions.get(i);
+				sub.mFired = false;
+				sub.mLastDeliveredMs = -1;
+			}
+		}
+		updateTrackDuration(duration);
+	}
+
 	public void updateTrackPosition(int position) {
-		mPosition = position;
-		if(LOG) Log.w(TAG, "updateTrackPosition mPosition=>" + mPosition);
+		syncTrackPosition(position, 0);
+	}
+
+	/**
+	 * Applies position reported by Poweramp
+	 * @param position position in seconds
+	 * @param timestamp {@link PowerampAPI#TIMESTAMP} of the intent which reported the position or 0 if not available
+	 */
+	public void syncTrackPosition(int position, long timestamp) {
+		long positionMs = position * 1000L;
+		if(mEstimator != null && mPlaying) {
+			positionMs = mEstimator.onSync(positionMs, timestamp, SystemClock.elapsedRealtime(), System.currentTimeMillis());
+		}
+		setPositionMs(positionMs);
+	}
+
+	/**
+	 * Sets position locally with milliseconds precision, e.g. for optimistic updates on seek
+	 */
+	public void updateTrackPositionMs(long positionMs) {
+		if(mEstimator != null) {
+			mEstimator.reset();
+		}
+		setPositionMs(positionMs);
+	}
+
+	private void setPositionMs(long positionMs) {
+		mPositionMs = positionMs;
+		mPositionKnown = true;
+		mPosition = (int)(positionMs / 1000);
+		if(LOG) Log.w(TAG, "updateTrackPositionMs mPositionMs=>" + mPositionMs);
 		if(mPlaying) {
-			mStartTimeMs = System.currentTimeMillis();
-			mStartPosition = mPosition;
+			mStartTimeMs = SystemClock.elapsedRealtime();
+			mStartPositionMs = mPositionMs;
 		}
 		if(mTrackTimeListener != null) {
-			mTrackTimeListener.onTrackPositionChanged(position);
+			mTrackTimeListener.onTrackPositionChanged(mPosition);
+		}
+		if(mHighResolution && mTrackTimeListenerMs != null) {
+			mTrackTimeListenerMs.onTrackPositionChangedMs(mPositionMs);
+		}
+		deliverSubscriptions(mPositionMs, true);
+		if(mPlaying) {
+			restartTicks(); // Trigger points are now at the different distance
 		}
 	}
 	
 	protected Runnable mTickRunnable = new Runnable() {
 		@Override
 		public void run() {
-			mPosition = (int)(System.currentTimeMillis() - mStartTimeMs + 500) / 1000 + mStartPosition; 
-			if(LOG) Log.w(TAG, "mTickRunnable mPosition=" + mPosition);
+			tick();
+			mHandler.removeCallbacks(mTickRunnable);
+			if(!mHighResolution || !mFrameCallbacksEnabled) {
+				postTick();
+			}
+		}
+	};
+	
+	private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			mFrameCallbackPosted = false;
+			if(mPlaying && mHighResolution && mFrameCallbacksEnabled) {
+				tick();
+				postFrameCallback();
+			}
+		}
+	};
+	
+	void tick() {
+		long now = SystemClock.elapsedRealtime();
+		mPositionMs = extrapolatePositionMs(now);
+		int position = (int)((mPositionMs + 500) / 1000);
+		if(LOG) Log.w(TAG, "tick mPositionMs=" + mPositionMs);
+		if(mHighResolution && mTrackTimeListenerMs != null) {
+			mTrackTimeListenerMs.onTrackPositionChangedMs(mPositionMs);
+		}
+		// Seconds listener is called only on the actual seconds change, as the ticks can be more frequent due to the subscriptions
+		if(position != mPosition) {
+			mPosition = position;
 			if(mTrackTimeListener != null) {
 				mTrackTimeListener.onTrackPositionChanged(mPosition);
 			}
-			mHandler.removeCallbacks(mTickRunnable);
-			mHandler.postDelayed(mTickRunnable, UPDATE_DELAY);
 		}
-	};
+		deliverSubscriptions(mPositionMs, false);
+		if(mEstimator != null) {
+			checkSyncError(now);
+		}
+	}
+	
+	private void deliverSubscriptions(long positionMs, boolean jumped) {
+		int size = mSubscriptions.size();
+		if(size == 0) {
+			return;
+		}
+		// NOTE: listeners can unsubscribe (themselves or others), thus, iterating the snapshot and skipping the removed ones
+		Subscription[] subs = mSubscriptions.toArray(new Subscription[size]);
+		for(int i = 0; i < size; i++) {
+			Subscription sub = subs[i];
+			if(sub.mRemoved) {
+				continue;
+			}
+			if(sub.isTrigger()) {
+				long triggerMs = sub.getTriggerMs(mDurationMs);
+				if(sub.mFired && jumped && positionMs < REARM_POSITION_MS && positionMs < triggerMs) {
+					sub.mFired = false; // Played again from the start
+				}
+				if(!sub.mFired && mPositionKnown) {
+					if(triggerMs >= 0 && positionMs >= triggerMs) {
+						sub.mFired = true;
+						sub.mListener.onTrackPositionChangedMs(positionMs);
+					}
+				}
+			} else if(jumped || sub.mLastDeliveredMs < 0 || positionMs - sub.mLastDeliveredMs >= sub.mResolutionMs) {
+				sub.mLastDeliveredMs = positionMs;
+				sub.mListener.onTrackPositionChangedMs(positionMs);
+			}
+		}
+	}
+	
+	/**
+	 * @return delay till the next needed tick or -1 if no ticks needed
+	 */
+	private int calcNextTickDelay() {
+		int delay = Integer.MAX_VALUE;
+		if(mTrackTimeListener != null || mEstimator != null) {
+			delay = UPDATE_DELAY;
+		}
+		if(mHighResolution && (mTrackTimeListener != null || mTrackTimeListenerMs != null)) {
+			delay = HIGH_RES_UPDATE_DELAY;
+		}
+		long positionMs = mPositionMs;
+		for(int i = 0, size = mSubscriptions.size(); i < size; i++) {
+			Subscription sub = mSubscriptions.get(i);
+			long subDelay;
+			if(sub.isTrigger()) {
+				long triggerMs = sub.getTriggerMs(mDurationMs);
+				if(sub.mFired || triggerMs < 0 || !mPositionKnown) {
+					continue;
+				}
+				subDelay = triggerMs - positionMs;
+			} else {
+				subDelay = sub.mLastDeliveredMs < 0 ? 0 : sub.mLastDeliveredMs + sub.mResolutionMs - positionMs;
+			}
+			if(subDelay < delay) {
+				delay = (int)subDelay;
+			}
+		}
+		if(delay == Integer.MAX_VALUE) {
+			return -1;
+		}
+		return delay < MIN_TICK_DELAY ? MIN_TICK_DELAY : delay;
+	}
+	
+	private void postTick() {
+		int delay = calcNextTickDelay();
+		if(delay >= 0) {
+			mHandler.postDelayed(mTickRunnable, delay);
+		}
+	}
+	
+	private void checkSyncError(long now) {
+		if(now - mLastSyncRequestTime < mSyncRequestInterval) {
+			return;
+		}
+		if(mEstimator.estimateErrorMs(now) > mMaxSyncErrorMs) {
+			if(LOG) Log.w(TAG, "checkSyncError requesting sync error=" + mEstimator.estimateErrorMs(now) + " interval=" + mSyncRequestInterval);
+			// If previous request didn't help, back off
+			if(now - mLastSyncRequestTime < mSyncRequestInterval * 2L) {
+				mSyncRequestInterval = Math.min(mSyncRequestInterval * 2, MAX_SYNC_REQUEST_INTERVAL);
+			}
+			requestPosSync();
+		} else {
+			mSyncRequestInterval = MIN_SYNC_REQUEST_INTERVAL;
+		}
+	}
+	
+	private void restartTicks() {
+		mHandler.removeCallbacks(mTickRunnable);
+		removeFrameCallback();
+		if(mHighResolution && mFrameCallbacksEnabled) {
+			postFrameCallback();
+		} else {
+			postTick();
+		}
+	}
+	
+	void postFrameCallback() {
+		if(!mFrameCallbackPosted && mHighResolution && mFrameCallbacksEnabled) {
+			Choreographer.getInstance().postFrameCallback(mFrameCallback);
+			mFrameCallbackPosted = true;
+		}
+	}
+	
+	private void removeFrameCallback() {
+		if(mFrameCallbackPosted) {
+			Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+			mFrameCallbackPosted = false;
+		}
+	}
 	
 	public void startSongProgress() {
 		if(!mPlaying) {
-			mStartTimeMs = System.currentTimeMillis();
-			mStartPosition = mPosition;
-			mHandler.removeCallbacks(mTickRunnable);
-			mHandler.postDelayed(mTickRunnable, UPDATE_DELAY);
+			mStartTimeMs = SystemClock.elapsedRealtime();
+			mStartPositionMs = mPositionMs;
 			mPlaying = true;
+			if(mEstimator != null) {
+				mEstimator.reset();
+			}
+			restartTicks();
 		}
 	}
 	
 	public void stopSongProgress() {
 		if(mPlaying) {
+			mPositionMs = extrapolatePositionMs(SystemClock.elapsedRealtime());
 			mHandler.removeCallbacks(mTickRunnable);
+			removeFrameCallback();
 			mPlaying = false;
 		}
 	}
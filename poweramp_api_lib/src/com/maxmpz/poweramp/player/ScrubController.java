@@ -0,0 +1,259 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * Hold-to-scrub controller, e.g. for long pressed next/prev buttons.<br>
+ * For the first {@link #setNativeScrubMaxMs(int)} ms of the hold, Poweramp native {@link PowerampAPI.Commands#BEGIN_FAST_FORWARD}/{@link PowerampAPI.Commands#BEGIN_REWIND}
+ * is used, which gives the audible feedback at a constant speed. If the hold continues, the controller switches to the accelerated scrubbing, where
+ * the position is advanced locally by the acceleration curve and pushed to Poweramp via the {@link SeekController} coalesced SEEKs.<br>
+ * Poweramp doesn't report the position during the native ff/rw, so it's modeled locally at {@link #NATIVE_SPEED} and pushed to RemoteTrackTime,
+ * and the accelerated scrubbing continues from the modeled position. If the hold ends in the native phase, POS_SYNC is requested for the actual position.<br>
+ * The position model is kept in RemoteTrackTime, so the UI continues from the scrubbed position on release without jumping back.<br>
+ * Forward scrubbing needs the track duration ({@link RemoteTrackTime#getDurationMs()}). If it's not known, the native ff is not switched
+ * to the accelerated scrubbing and the SEEKs scrubbing doesn't advance past the start position.<br>
+ * THREADING: UI thread
+ */
+public class ScrubController {
+	private static final String TAG = "ScrubController";
+	private static final boolean LOG = false;
+
+	private static final int DEFAULT_NATIVE_SCRUB_MAX_MS = 1500;
+
+	/**
+	 * Scrub speed (track ms per real ms) at the moment of switching to the accelerated scrubbing
+	 */
+	private static final float BASE_SPEED = 4f;
+	private static final float MAX_SPEED = 60f;
+	/**
+	 * Hold time (after switching to the accelerated scrubbing) at which speed doubles over BASE_SPEED.
+	 * Speed grows quadratically: BASE_SPEED * (1 + (t / ACCELERATION_TIME_MS)^2)
+	 */
+	private static final float ACCELERATION_TIME_MS = 1500f;
+	/**
+	 * Assumed Poweramp native ff/rw speed (track ms per real ms), used for the local position model during the native phase
+	 */
+	private static final float NATIVE_SPEED = BASE_SPEED;
+	private static final int NATIVE_TICK_MS = 100;
+
+	private static final int STATE_IDLE = 0;
+	private static final int STATE_NATIVE = 1;
+	private static final int STATE_SEEKING = 2;
+
+	private final @NonNull Context mContext;
+	private final @NonNull RemoteTrackTime mRemoteTrackTime;
+	private final @NonNull SeekController mSeekController;
+	private final Handler mHandler = new Handler();
+
+	private int mNativeScrubMaxMs = DEFAULT_NATIVE_SCRUB_MAX_MS;
+
+	private int mState = STATE_IDLE;
+	private boolean mForward;
+	private long mSeekingStartTime;
+	private long mLastTickTime;
+	private long mPositionMs;
+	private long mStartPositionMs;
+	private long mNativeStartTime;
+
+
+	public ScrubController(@NonNull Context context, @NonNull RemoteTrackTime remoteTrackTime, @NonNull SeekController seekController) {
+		mContext = context;
+		mRemoteTrackTime = remoteTrackTime;
+		mSeekController = seekController;
+	}
+
+	/**
+	 * @param ms max hold time for Poweramp native ff/rw. 0 disables native ff/rw, scrubbing is done via SEEKs only. Integer.MAX_VALUE disables SEEKs scrubbing
+	 */
+	public void setNativeScrubMaxMs(int ms) {
+		mNativeScrubMaxMs = ms;
+	}
+
+	public boolean isScrubbing() {
+		return mState != STATE_IDLE;
+	}
+
+	/**
+	 * Starts scrubbing, e.g. on long press
+	 */
+	public void begin(boolean forward) {
+		if(mState != STATE_IDLE) {
+			end();
+		}
+		mForward = forward;
+		mStartPositionMs = mPositionMs = mRemoteTrackTime.getPositionMs();
+		if(mNativeScrubMaxMs > 0) {
+			mState = STATE_NATIVE;
+			mNativeStartTime = SystemClock.elapsedRealtime();
+			sendCommand(forward ? PowerampAPI.Commands.BEGIN_FAST_FORWARD : PowerampAPI.Commands.BEGIN_REWIND);
+			mHandler.postDelayed(mNativeTickRunnable, NATIVE_TICK_MS);
+			if(mNativeScrubMaxMs != Integer.MAX_VALUE) {
+				mHandler.postDelayed(mSwitchToSeekingRunnable, mNativeScrubMaxMs);
+			}
+		} else {
+			startSeeking();
+		}
+		if(LOG) Log.w(TAG, "begin forward=" + forward + " state=" + mState);
+	}
+
+	/**
+	 * Ends scrubbing, e.g. on touch up. Safe to call if not scrubbing
+	 */
+	public void end() {
+		if(LOG) Log.w(TAG, "end state=" + mState + " mPositionMs=" + mPositionMs);
+		mHandler.removeCallbacks(mSwitchToSeekingRunnable);
+		mHandler.removeCallbacks(mTickRunnable);
+		mHandler.removeCallbacks(mNativeTickRunnable);
+		switch(mState) {
+			case STATE_NATIVE:
+				sendCommand(mForward ? PowerampAPI.Commands.END_FAST_FORWARD : PowerampAPI.Commands.END_REWIND);
+				// Show the modeled position until the actual one is synced
+				mRemoteTrackTime.updateTrackPositionMs(modelNativePositionMs(SystemClock.elapsedRealtime()));
+				sendCommand(PowerampAPI.Commands.POS_SYNC);
+				break;
+
+			case STATE_SEEKING:
+				advance(SystemClock.elapsedRealtime());
+				if(mPositionMs != mStartPositionMs) {
+					mSeekController.seekMs(mPositionMs);
+					mSeekController.flush();
+				}
+				break;
+		}
+		mState = STATE_IDLE;
+	}
+
+	private final Runnable mSwitchToSeekingRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if(mState == STATE_NATIVE) {
+				if(mForward && mRemoteTrackTime.getDurationMs() <= 0) {
+					if(LOG) Log.w(TAG, "mSwitchToSeekingRunnable no duration, staying native");
+					return;
+				}
+				mHandler.removeCallbacks(mNativeTickRunnable);
+				sendCommand(mForward ? PowerampAPI.Commands.END_FAST_FORWARD : PowerampAPI.Commands.END_REWIND);
+				mPositionMs = modelNativePositionMs(SystemClock.elapsedRealtime());
+				mRemoteTrackTime.updateTrackPositionMs(mPositionMs);
+				startSeeking();
+			}
+		}
+	};
+
+	private final Runnable mNativeTickRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if(mState == STATE_NATIVE) {
+				mRemoteTrackTime.updateTrackPositionMs(modelNativePositionMs(SystemClock.elapsedRealtime()));
+				mHandler.postDelayed(mNativeTickRunnable, NATIVE_TICK_MS);
+			}
+		}
+	};
+
+	private final Runnable mTickRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if(mState == STATE_SEEKING) {
+				if(advance(SystemClock.elapsedRealtime())) {
+					mSeekController.seekMs(mPositionMs);
+					mHandler.postDelayed(mTickRunnable, PowerampAPI.MIN_TIME_BETWEEN_SEEKS_MS);
+				} else {
+					// Reached track boundary
+					end();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Continues from mPositionMs, i.e. from wherever native ff/rw (as modeled) or playback brought the track
+	 */
+	void startSeeking() {
+		mState = STATE_SEEKING;
+		mStartPositionMs = mPositionMs;
+		mSeekingStartTime = mLastTickTime = SystemClock.elapsedRealtime();
+		mHandler.postDelayed(mTickRunnable, PowerampAPI.MIN_TIME_BETWEEN_SEEKS_MS);
+		if(LOG) Log.w(TAG, "startSeeking mPositionMs=" + mPositionMs);
+	}
+
+	/**
+	 * @return false if track boundary is reached
+	 */
+	boolean advance(long now) {
+		long dt = now - mLastTickTime;
+		mLastTickTime = now;
+
+		float t = (now - mSeekingStartTime) / ACCELERATION_TIME_MS;
+		float speed = BASE_SPEED * (1f + t * t);
+		if(speed > MAX_SPEED) {
+			speed = MAX_SPEED;
+		}
+
+		long delta = (long)(dt * speed);
+		mPositionMs += mForward ? delta : -delta;
+
+		if(mPositionMs <= 0) {
+			mPositionMs = 0;
+			return false;
+		}
+		long maxPositionMs = getMaxPositionMs(mStartPositionMs);
+		if(mForward && mPositionMs >= maxPositionMs) {
+			mPositionMs = maxPositionMs;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the local model of the native ff/rw position
+	 */
+	long modelNativePositionMs(long now) {
+		long delta = (long)((now - mNativeStartTime) * NATIVE_SPEED);
+		if(!mForward) {
+			return Math.max(0, mStartPositionMs - delta);
+		}
+		return Math.min(mStartPositionMs + delta, getMaxPositionMs(mStartPositionMs));
+	}
+
+	/**
+	 * @return the max forward scrub position. Stops a bit before the end, so Poweramp doesn't advance to the next track. If the duration is unknown,
+	 * forward scrubbing is clamped to the startPositionMs
+	 */
+	private long getMaxPositionMs(long startPositionMs) {
+		long durationMs = mRemoteTrackTime.getDurationMs();
+		if(durationMs <= 0) {
+			return startPositionMs;
+		}
+		return Math.max(durationMs - 1000, 0);
+	}
+
+	private void sendCommand(int command) {
+		PowerampAPIHelper.startPAService(mContext, new Intent(PowerampAPI.ACTION_API_COMMAND).putExtra(PowerampAPI.COMMAND, command));
+	}
+}
@@ -0,0 +1,172 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+/**
+ * Coalesces seek requests, e.g. from the seekbar dragging, so that at most one {@link PowerampAPI.Commands#SEEK} is sent per
+ * {@link PowerampAPI#MIN_TIME_BETWEEN_SEEKS_MS}.<br>
+ * The first seek is sent immediately, intermediate seeks are replaced by the latest one, and the latest requested position is always sent
+ * (trailing edge), so the final seekbar position is never lost.<br>
+ * If RemoteTrackTime is given, it's updated optimistically on each requested seek, so the UI doesn't wait for Poweramp sync.<br>
+ * THREADING: UI thread
+ */
+public class SeekController {
+	private static final String TAG = "SeekController";
+	private static final boolean LOG = false;
+
+	private static final int NO_POSITION = -1;
+
+	private final Context mContext;
+	private final @Nullable RemoteTrackTime mRemoteTrackTime;
+	private final Handler mHandler = new Handler();
+
+	private int mMinTimeBetweenSeeksMs = PowerampAPI.MIN_TIME_BETWEEN_SEEKS_MS;
+
+	private long mLastSentTime;
+	private int mLastSentPosition = NO_POSITION;
+	private int mPendingPosition = NO_POSITION;
+
+	private int mRequestedSeeks;
+	private int mSentSeeks;
+
+
+	public SeekController(Context context, @Nullable RemoteTrackTime remoteTrackTime) {
+		mContext = context;
+		mRemoteTrackTime = remoteTrackTime;
+	}
+
+	/**
+	 * Overrides the default {@link PowerampAPI#MIN_TIME_BETWEEN_SEEKS_MS}
+	 */
+	public void setMinTimeBetweenSeeks(int ms) {
+		mMinTimeBetweenSeeksMs = ms;
+	}
+
+	/**
+	 * Requests seek. The seek is either sent immediately or deferred till the rate limit allows it, replacing any pending seek
+	 * @param position position in seconds
+	 */
+	public void seek(int position) {
+		seekMs(position * 1000L);
+	}
+
+	/**
+	 * Same as {@link #seek(int)}, but RemoteTrackTime is optimistically updated with milliseconds precision.
+	 * Poweramp is still seeked with seconds precision
+	 */
+	public void seekMs(long positionMs) {
+		mRequestedSeeks++;
+
+		if(mRemoteTrackTime != null) {
+			mRemoteTrackTime.updateTrackPositionMs(positionMs);
+		}
+
+		int position = (int)(positionMs / 1000);
+
+		long sinceLast = SystemClock.elapsedRealtime() - mLastSentTime;
+		if(mPendingPosition == NO_POSITION && sinceLast >= mMinTimeBetweenSeeksMs) {
+			send(position);
+		} else {
+			if(mPendingPosition == NO_POSITION) {
+				mHandler.postDelayed(mTrailingRunnable, mMinTimeBetweenSeeksMs - sinceLast);
+			}
+			mPendingPosition = position;
+			if(LOG) Log.w(TAG, "seek deferred position=" + position);
+		}
+	}
+
+	/**
+	 * Sends pending seek (if any) immediately, ignoring rate limit. Should be called when user stops dragging the seekbar
+	 */
+	public void flush() {
+		if(mPendingPosition != NO_POSITION) {
+			mHandler.removeCallbacks(mTrailingRunnable);
+			int position = mPendingPosition;
+			mPendingPosition = NO_POSITION;
+			send(position);
+		}
+	}
+
+	/**
+	 * Drops pending seek (if any), e.g. on activity pause
+	 */
+	public void cancel() {
+		mHandler.removeCallbacks(mTrailingRunnable);
+		mPendingPosition = NO_POSITION;
+	}
+
+	/**
+	 * @return number of seeks requested via {@link #seek(int)}
+	 */
+	public int getRequestedSeeks() {
+		return mRequestedSeeks;
+	}
+
+	/**
+	 * @return number of SEEK commands actually sent to Poweramp
+	 */
+	public int getSentSeeks() {
+		return mSentSeeks;
+	}
+
+	/**
+	 * @return number of SEEK commands saved by coalescing (excluding currently pending seek)
+	 */
+	public int getSavedSeeks() {
+		return mRequestedSeeks - mSentSeeks - (mPendingPosition != NO_POSITION ? 1 : 0);
+	}
+
+	private final Runnable mTrailingRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if(mPendingPosition != NO_POSITION) {
+				int position = mPendingPosition;
+				mPendingPosition = NO_POSITION;
+				send(position);
+			}
+		}
+	};
+
+	void send(int position) {
+		long now = SystemClock.elapsedRealtime();
+		long prevSentTime = mLastSentTime;
+		mLastSentTime = now;
+		if(position == mLastSentPosition && now - prevSentTime < mMinTimeBetweenSeeksMs * 2L) {
+			// Poweramp has just been seeked there. Still counts for the rate limiting
+			if(LOG) Log.w(TAG, "send skipped same position=" + position);
+			return;
+		}
+		mLastSentPosition = position;
+		mSentSeeks++;
+		if(LOG) Log.w(TAG, "send position=" + position + " requested=" + mRequestedSeeks + " sent=" + mSentSeeks);
+		PowerampAPIHelper.startPAService(mContext, new Intent(PowerampAPI.ACTION_API_COMMAND)
+				.putExtra(PowerampAPI.COMMAND, PowerampAPI.Commands.SEEK)
+				.putExtra(PowerampAPI.Track.POSITION, position));
+	}
+}
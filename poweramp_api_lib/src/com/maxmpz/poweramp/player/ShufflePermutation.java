@@ -0,0 +1,222 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Random;
+import org.eclipse.jdt.annotation.NonNull;
+
+
+/**
+ * Lazy pseudo-random permutation of [0, size) indexes, e.g. for the client side shuffled queue over the large category.<br>
+ * The index for the position is computed with the Feistel network over the smallest even bit width covering the size, keyed by the seed,
+ * plus the cycle walking for the values outside the size. This takes O(1) memory, independent of the size, and O(1) expected time
+ * (fewer than 4 network evaluations on average) for any position, so next/previous/jump are all the same cost.<br>
+ * The permutation is fully defined by (size, seed), so the shuffle can be persisted as seed + position and resumed later.<br>
+ * Usage:
+ * <pre>
+ * ShufflePermutation.Ids ids = TrackSampler.getInstance(context).getIds(TrackSampler.FILES_URI);
+ * ShufflePermutation shuffle = new ShufflePermutation(ids.size(), seed);
+ * shuffle.setPosition(savedPosition);
+ * long next = ids.get(shuffle.next());
+ * </pre>
+ * THREADING: permutation methods - any. Position methods - single thread
+ */
+public class ShufflePermutation {
+	private static final int ROUNDS = 6;
+
+	/**
+	 * Index => id mapping the permutation is applied to, e.g. {@link TrackSampler#getIds(android.net.Uri)}
+	 */
+	public interface Ids {
+		public int size();
+
+		/**
+		 * @param index 0..size() - 1
+		 */
+		public long get(int index);
+	}
+
+	private final int mSize;
+	private final long mSeed;
+	private final int mHalfBits;
+	private final long mHalfMask;
+	private final @NonNull long[] mKeys = new long[ROUNDS];
+	private int mPosition = -1;
+
+
+	/**
+	 * @param size number of indexes, >= 0
+	 * @param seed shuffle session seed, see {@link #newSeed()}
+	 */
+	public ShufflePermutation(int size, long seed) {
+		if(size < 0) {
+			throw new IllegalArgumentException("size=" + size);
+		}
+		mSize = size;
+		mSeed = seed;
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1));
+		mHalfBits = (bits + 1) >> 1;
+		mHalfMask = (1L << mHalfBits) - 1;
+		long s = seed;
+		for(int i = 0; i < ROUNDS; i++) {
+			s += 0x9E3779B97F4A7C15L; // SplitMix64 sequence
+			mKeys[i] = mix(s);
+		}
+	}
+
+	public static long newSeed() {
+		return new Random().nextLong();
+	}
+
+	public int getSize() {
+		return mSize;
+	}
+
+	public long getSeed() {
+		return mSeed;
+	}
+
+	/**
+	 * @param position 0..size - 1
+	 * @return the index at the position
+	 */
+	public int get(int position) {
+		if(position < 0 || position >= mSize) {
+			throw new IndexOutOfBoundsException("position=" + position + " size=" + mSize);
+		}
+		long x = position;
+		do {
+			x = encrypt(x);
+		} while(x >= mSize);
+		return (int)x;
+	}
+
+	/**
+	 * Inverse of {@link #get(int)}, e.g. to continue the shuffle from the track selected by user
+	 * @param index 0..size - 1
+	 * @return the position of the index
+	 */
+	public int indexOf(int index) {
+		if(index < 0 || index >= mSize) {
+			throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+		}
+		long x = index;
+		do {
+			x = decrypt(x);
+		} while(x >= mSize);
+		return (int)x;
+	}
+
+	/**
+	 * @return the current position, -1 before the first {@link #next()}
+	 */
+	public int getPosition() {
+		return mPosition;
+	}
+
+	/**
+	 * @param position -1..size - 1, e.g. the stored position to resume from
+	 */
+	public void setPosition(int position) {
+		if(position < -1 || position >= mSize) {
+			throw new IndexOutOfBoundsException("position=" + position + " size=" + mSize);
+		}
+		mPosition = position;
+	}
+
+	public boolean hasNext() {
+		return mPosition + 1 < mSize;
+	}
+
+	public boolean hasPrevious() {
+		return mPosition > 0;
+	}
+
+	/**
+	 * Moves to the next position
+	 * @return the index at the new position
+	 */
+	public int next() {
+		int index = get(mPosition + 1);
+		mPosition++;
+		return index;
+	}
+
+	/**
+	 * Moves to the previous position
+	 * @return the index at the new position
+	 */
+	public int previous() {
+		int index = get(mPosition - 1);
+		mPosition--;
+		return index;
+	}
+
+	/**
+	 * Adds up to count ids.get(next()) to the writer, advancing the position. The writer is not committed
+	 * @param ids ids to shuffle, ids.size() should be the permutation size
+	 * @return number of ids added
+	 */
+	public int writeTo(@NonNull EntriesBatchWriter writer, @NonNull Ids ids, int count) {
+		long[] chunk = new long[Math.min(count, 256)];
+		int written = 0;
+		while(written < count && hasNext()) {
+			int n = 0;
+			while(n < chunk.length && written + n < count && hasNext()) {
+				chunk[n++] = ids.get(next());
+			}
+			writer.addAll(chunk, 0, n);
+			written += n;
+		}
+		return written;
+	}
+
+	private long encrypt(long x) {
+		long l = x >>> mHalfBits;
+		long r = x & mHalfMask;
+		for(int i = 0; i < ROUNDS; i++) {
+			long t = r;
+			r = l ^ (mix(r ^ mKeys[i]) & mHalfMask);
+			l = t;
+		}
+		return (l << mHalfBits) | r;
+	}
+
+	private long decrypt(long x) {
+		long l = x >>> mHalfBits;
+		long r = x & mHalfMask;
+		for(int i = ROUNDS - 1; i >= 0; i--) {
+			long t = l;
+			l = r ^ (mix(l ^ mKeys[i]) & mHalfMask);
+			r = t;
+		}
+		return (l << mHalfBits) | r;
+	}
+
+	/**
+	 * MurmurHash3 64 bit finalizer
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB93FE1A85EC5L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -0,0 +1,372 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+
+/**
+ * Draws random track ids without ORDER BY RANDOM(), which sorts the whole result on each call.<br>
+ * The ids of the uri (all files, or a category files uri, e.g. albums/#/files) are loaded once and kept as sorted id ranges ({@link IdRanges}):
+ * library ids are mostly contiguous, so this is usually a few ranges instead of a long per track.
+ * A sample is then k random indexes mapped to ids, O(k log ranges), independent of the library size.<br>
+ * Without replacement, the indexes are drawn by the partial Fisher-Yates shuffle over the virtual index array, with only the swapped slots
+ * stored in the map, so it's O(k) time and memory.<br>
+ * The loaded ranges are dropped when {@link ChangeTracker} reports a change of the uri tables.
+ * For one-off samples over a cursor, see {@link #reservoirSample(Cursor, int, int, Random)}.<br>
+ * THREADING: any, {@link #sample} does blocking provider calls on the first call for the uri and after changes
+ */
+public class TrackSampler implements ChangeTracker.Listener {
+	private static final String TAG = "TrackSampler";
+	private static final boolean LOG = false;
+
+	public static final @NonNull Uri FILES_URI = TypedQuery.getUri(TypedQuery.FILES);
+
+	private static final int MAX_CACHED_URIS = 8;
+
+	private static @Nullable TrackSampler sInstance;
+
+	private final @NonNull Context mContext;
+	private final @NonNull ChangeTracker mTracker;
+	private final Object mLock = new Object();
+	private final LinkedHashMap<String, IdRanges> mRanges = new LinkedHashMap<String, IdRanges>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, IdRanges> eldest) {
+			return size() > MAX_CACHED_URIS;
+		}
+	};
+	private final @NonNull Random mRandom = new Random();
+	private boolean mListening;
+
+	private int mLoads;
+	private int mSamples;
+	private long mDrawn;
+
+
+	public static @NonNull TrackSampler getInstance(@NonNull Context context) {
+		synchronized(TrackSampler.class) {
+			TrackSampler instance = sInstance;
+			if(instance == null) {
+				Context appContext = context.getApplicationContext();
+				sInstance = instance = new TrackSampler(appContext != null ? appContext : context);
+			}
+			return instance;
+		}
+	}
+
+	TrackSampler(@NonNull Context context) {
+		mContext = context;
+		mTracker = ChangeTracker.getInstance(context);
+	}
+
+	/**
+	 * @return up to count random ids from all files, or empty array if there are no files or the provider failed
+	 */
+	public @NonNull long[] sample(int count, boolean withReplacement) {
+		return sample(FILES_URI, count, withReplacement, mRandom);
+	}
+
+	/**
+	 * @param uri files uri, e.g. files, albums/#/files, playlists/#/files. NOTE: for playlists/queue, the sampled ids are folder_files ids, not entries ids
+	 * @param withReplacement if true, returns exactly count ids (if uri has any), possibly repeated. If false, returns min(count, size) distinct ids
+	 * @param random random source, e.g. seeded for reproducible samples
+	 */
+	public @NonNull long[] sample(@NonNull Uri uri, int count, boolean withReplacement, @NonNull Random random) {
+		IdRanges ranges = getRanges(uri);
+		if(ranges == null || count <= 0) {
+			return new long[0];
+		}
+		long[] res = withReplacement ? ranges.sampleWithReplacement(count, random) : ranges.sampleWithoutReplacement(count, random);
+		synchronized(mLock) {
+			mSamples++;
+			mDrawn += res.length;
+		}
+		return res;
+	}
+
+	/**
+	 * @return the sorted distinct ids of the uri as index => id mapping, e.g. for {@link ShufflePermutation}, loading them if needed, or null on failure.
+	 * The returned ids are immutable, the same instance is returned until the uri tables change
+	 */
+	public @Nullable ShufflePermutation.Ids getIds(@NonNull Uri uri) {
+		return getRanges(uri);
+	}
+
+	/**
+	 * @return the number of ids for the uri, loading them if needed, or -1 on failure
+	 */
+	public int getCount(@NonNull Uri uri) {
+		IdRanges ranges = getRanges(uri);
+		return ranges != null ? ranges.size() : -1;
+	}
+
+	/**
+	 * Drops all loaded ids
+	 */
+	public void clear() {
+		synchronized(mLock) {
+			mRanges.clear();
+		}
+	}
+
+	@Override
+	public void onTableChanged(@NonNull String table, long seq, int source) {
+		synchronized(mLock) {
+			Iterator<IdRanges> it = mRanges.values().iterator();
+			while(it.hasNext()) {
+				if(it.next().dependsOn(table)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return load/sample counters and the loaded ranges, for diagnostics
+	 */
+	public String getStats() {
+		synchronized(mLock) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("loads=").append(mLoads).append(" samples=").append(mSamples).append(" drawn=").append(mDrawn);
+			for(Map.Entry<String, IdRanges> e : mRanges.entrySet()) {
+				sb.append(' ').append(e.getKey()).append(" ids=").append(e.getValue().size()).append(" ranges=").append(e.getValue().getRangeCount());
+			}
+			return sb.toString();
+		}
+	}
+
+	private @Nullable IdRanges getRanges(@NonNull Uri uri) {
+		String key = uri.toString();
+		long seq;
+		synchronized(mLock) {
+			IdRanges ranges = mRanges.get(key);
+			if(ranges != null) {
+				return ranges;
+			}
+			if(!mListening) {
+				mListening = true;
+				mTracker.addListener(this);
+			}
+			seq = mTracker.getSequence(); // Taken before the query, so a change during the query is detected
+			mLoads++;
+		}
+
+		String[] deps = QueryCache.getTables(uri);
+		long[] ids = loadIds(uri);
+		if(ids == null) {
+			return null;
+		}
+		IdRanges ranges = IdRanges.fromIds(ids, deps);
+
+		synchronized(mLock) {
+			// NOTE: checked under the lock, same as QueryCache, so a change after the check drops the ranges in onTableChanged()
+			for(String table : deps) {
+				if(mTracker.hasChangedSince(table, seq)) {
+					if(LOG) Log.w(TAG, "getRanges changed while loading uri=" + uri + " table=" + table);
+					return ranges;
+				}
+			}
+			mRanges.put(key, ranges);
+		}
+		if(LOG) Log.w(TAG, "getRanges uri=" + uri + " ids=" + ranges.size() + " ranges=" + ranges.getRangeCount());
+		return ranges;
+	}
+
+	private @Nullable long[] loadIds(@NonNull Uri uri) {
+		Cursor c = null;
+		try {
+			c = mContext.getContentResolver().query(uri, new String[] { TableDefs.Files._ID }, null, null, null);
+			if(c == null) {
+				return null;
+			}
+			long[] ids = new long[c.getCount()];
+			int count = 0;
+			while(count < ids.length && c.moveToNext()) {
+				ids[count++] = c.getLong(0);
+			}
+			return count == ids.length ? ids : Arrays.copyOf(ids, count);
+		} catch(Throwable th) {
+			Log.e(TAG, "uri=" + uri, th);
+			return null;
+		} finally {
+			if(c != null) {
+				c.close();
+			}
+		}
+	}
+
+	/**
+	 * Single pass reservoir sample (Algorithm L) of the long column, without replacement. Skips the rows between the picks with {@link Cursor#move(int)}
+	 * instead of reading them. The cursor is not closed
+	 * @return up to count values in the reservoir order
+	 */
+	public static @NonNull long[] reservoirSample(@NonNull Cursor c, int column, int count, @NonNull Random random) {
+		if(count <= 0) {
+			return new long[0];
+		}
+		long[] res = new long[count];
+		int size = 0;
+		c.moveToPosition(-1);
+		while(size < count && c.moveToNext()) {
+			res[size++] = c.getLong(column);
+		}
+		if(size < count) {
+			return Arrays.copyOf(res, size);
+		}
+
+		double w = Math.exp(Math.log(nextOpenDouble(random)) / count);
+		while(true) {
+			int skip = (int)Math.min(Integer.MAX_VALUE - 1, Math.floor(Math.log(nextOpenDouble(random)) / Math.log(1 - w)));
+			if(!c.move(skip + 1)) {
+				break;
+			}
+			res[random.nextInt(count)] = c.getLong(column);
+			w *= Math.exp(Math.log(nextOpenDouble(random)) / count);
+		}
+		return res;
+	}
+
+	/**
+	 * @return uniform double in (0, 1)
+	 */
+	private static double nextOpenDouble(@NonNull Random random) {
+		double d;
+		do {
+			d = random.nextDouble();
+		} while(d == 0);
+		return d;
+	}
+
+	/**
+	 * Sorted distinct ids as [start, start + length) ranges. Immutable
+	 */
+	static final class IdRanges implements ShufflePermutation.Ids {
+		private final @NonNull long[] mStarts;
+		private final @NonNull int[] mOffsets; // Index of the first id of the range, plus the total size as the last element
+		private final @NonNull String[] mTables;
+
+		private IdRanges(@NonNull long[] starts, @NonNull int[] offsets, @NonNull String[] tables) {
+			mStarts = starts;
+			mOffsets = offsets;
+			mTables = tables;
+		}
+
+		/**
+		 * @param ids ids in any order, sorted in place. Duplicates (e.g. the same file twice in the playlist) are counted once
+		 */
+		static @NonNull IdRanges fromIds(@NonNull long[] ids, @NonNull String[] tables) {
+			Arrays.sort(ids);
+			int ranges = 0;
+			for(int i = 0; i < ids.length; i++) {
+				if(i == 0 || ids[i] > ids[i - 1] + 1) {
+					ranges++;
+				}
+			}
+			long[] starts = new long[ranges];
+			int[] offsets = new int[ranges + 1];
+			int r = -1;
+			int size = 0;
+			for(int i = 0; i < ids.length; i++) {
+				if(i > 0 && ids[i] == ids[i - 1]) {
+					continue;
+				}
+				if(i == 0 || ids[i] > ids[i - 1] + 1) {
+					r++;
+					starts[r] = ids[i];
+					offsets[r] = size;
+				}
+				size++;
+			}
+			offsets[ranges] = size;
+			return new IdRanges(starts, offsets, tables);
+		}
+
+		@Override
+		public int size() {
+			return mOffsets[mStarts.length];
+		}
+
+		int getRangeCount() {
+			return mStarts.length;
+		}
+
+		/**
+		 * @param index 0..size() - 1
+		 */
+		@Override
+		public long get(int index) {
+			int r = Arrays.binarySearch(mOffsets, 0, mStarts.length, index);
+			if(r < 0) {
+				r = -r - 2; // The range starting before the index
+			}
+			return mStarts[r] + (index - mOffsets[r]);
+		}
+
+		boolean dependsOn(@NonNull String table) {
+			for(String t : mTables) {
+				if(t.equals(table)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@NonNull long[] sampleWithReplacement(int count, @NonNull Random random) {
+			int size = size();
+			if(size == 0) {
+				return new long[0];
+			}
+			long[] res = new long[count];
+			for(int i = 0; i < count; i++) {
+				res[i] = get(random.nextInt(size));
+			}
+			return res;
+		}
+
+		@NonNull long[] sampleWithoutReplacement(int count, @NonNull Random random) {
+			int size = size();
+			if(count > size) {
+				count = size;
+			}
+			// Partial Fisher-Yates over the virtual [0, size) array. The map holds only the slots moved by the swaps
+			LongLongHashMap swapped = new LongLongHashMap(count * 2, -1);
+			long[] res = new long[count];
+			for(int i = 0; i < count; i++) {
+				int j = i + random.nextInt(size - i);
+				long atJ = swapped.get(j);
+				long atI = swapped.get(i);
+				res[i] = get((int)(atJ >= 0 ? atJ : j));
+				swapped.put(j, atI >= 0 ? atI : i);
+			}
+			return res;
+		}
+	}
+}
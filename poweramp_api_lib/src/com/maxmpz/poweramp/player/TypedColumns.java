@@ -0,0 +1,219 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+
+/**
+ * Typed mirror of {@link TableDefs}: the same columns as {@link Column} descriptors, which know their table and value type.
+ * Used with {@link TypedQuery}.<br>
+ * NOTE: the column names are taken from TableDefs, the types are from the TableDefs docs. A column added to TableDefs should be added here too
+ */
+public interface TypedColumns {
+	public interface Files {
+		public static final @NonNull Column _ID = new Column(TableDefs.Files.TABLE, TableDefs.Files._ID, Column.TYPE_LONG);
+		public static final @NonNull Column NAME = new Column(TableDefs.Files.TABLE, TableDefs.Files.NAME, Column.TYPE_STRING);
+		public static final @NonNull Column TRACK_NUMBER = new Column(TableDefs.Files.TABLE, TableDefs.Files.TRACK_NUMBER, Column.TYPE_INT);
+		public static final @NonNull Column NAME_WITHOUT_NUMBER = new Column(TableDefs.Files.TABLE, TableDefs.Files.NAME_WITHOUT_NUMBER, Column.TYPE_STRING);
+		public static final @NonNull Column TAG_STATUS = new Column(TableDefs.Files.TABLE, TableDefs.Files.TAG_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column TRACK_TAG = new Column(TableDefs.Files.TABLE, TableDefs.Files.TRACK_TAG, Column.TYPE_INT);
+		public static final @NonNull Column FOLDER_ID = new Column(TableDefs.Files.TABLE, TableDefs.Files.FOLDER_ID, Column.TYPE_LONG);
+		public static final @NonNull Column TITLE_TAG = new Column(TableDefs.Files.TABLE, TableDefs.Files.TITLE_TAG, Column.TYPE_STRING);
+		public static final @NonNull Column DURATION = new Column(TableDefs.Files.TABLE, TableDefs.Files.DURATION, Column.TYPE_INT);
+		public static final @NonNull Column UPDATED_AT = new Column(TableDefs.Files.TABLE, TableDefs.Files.UPDATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column FILE_TYPE = new Column(TableDefs.Files.TABLE, TableDefs.Files.FILE_TYPE, Column.TYPE_INT);
+		public static final @NonNull Column PLAYED_AT = new Column(TableDefs.Files.TABLE, TableDefs.Files.PLAYED_AT, Column.TYPE_INT);
+		public static final @NonNull Column FILE_CREATED_AT = new Column(TableDefs.Files.TABLE, TableDefs.Files.FILE_CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Files.TABLE, TableDefs.Files.AA_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column FULL_PATH = new Column(TableDefs.Files.TABLE, TableDefs.Files.FULL_PATH, Column.TYPE_STRING);
+		public static final @NonNull Column RATING = new Column(TableDefs.Files.TABLE, TableDefs.Files.RATING, Column.TYPE_INT);
+		public static final @NonNull Column PLAYED_TIMES = new Column(TableDefs.Files.TABLE, TableDefs.Files.PLAYED_TIMES, Column.TYPE_INT);
+		public static final @NonNull Column ALBUM_ID = new Column(TableDefs.Files.TABLE, TableDefs.Files.ALBUM_ID, Column.TYPE_LONG);
+		public static final @NonNull Column ARTIST_ID = new Column(TableDefs.Files.TABLE, TableDefs.Files.ARTIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column ALBUM_ARTIST_ID = new Column(TableDefs.Files.TABLE, TableDefs.Files.ALBUM_ARTIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column COMPOSER_ID = new Column(TableDefs.Files.TABLE, TableDefs.Files.COMPOSER_ID, Column.TYPE_LONG);
+		public static final @NonNull Column YEAR = new Column(TableDefs.Files.TABLE, TableDefs.Files.YEAR, Column.TYPE_INT);
+		public static final @NonNull Column OFFSET_MS = new Column(TableDefs.Files.TABLE, TableDefs.Files.OFFSET_MS, Column.TYPE_INT);
+		public static final @NonNull Column CUE_FOLDER_ID = new Column(TableDefs.Files.TABLE, TableDefs.Files.CUE_FOLDER_ID, Column.TYPE_LONG);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Files.TABLE, TableDefs.Files.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column WAVE = new Column(TableDefs.Files.TABLE, TableDefs.Files.WAVE, Column.TYPE_BLOB);
+		public static final @NonNull Column META = new Column(TableDefs.Files.TABLE, TableDefs.Files.META, Column.TYPE_STRING, Column.FLAG_HEAVY);
+	}
+
+	public interface RawFiles {
+		public static final @NonNull Column _ID = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles._ID, Column.TYPE_LONG);
+		public static final @NonNull Column NAME = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.NAME, Column.TYPE_STRING);
+		public static final @NonNull Column TITLE_TAG = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.TITLE_TAG, Column.TYPE_STRING);
+		public static final @NonNull Column UPDATED_AT = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.UPDATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column PLAYED_AT = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.PLAYED_AT, Column.TYPE_INT);
+		public static final @NonNull Column FULL_PATH = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.FULL_PATH, Column.TYPE_STRING);
+		public static final @NonNull Column PLAYED_TIMES = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.PLAYED_TIMES, Column.TYPE_INT);
+		public static final @NonNull Column ALBUM_ID = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.ALBUM_ID, Column.TYPE_LONG);
+		public static final @NonNull Column ARTIST_ID = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.ARTIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column ALBUM_ARTIST_ID = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.ALBUM_ARTIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column COMPOSER_ID = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.COMPOSER_ID, Column.TYPE_LONG);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column META = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.META, Column.TYPE_STRING, Column.FLAG_HEAVY);
+		public static final @NonNull Column ALBUM_TAG = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.ALBUM_TAG, Column.TYPE_STRING);
+		public static final @NonNull Column ARTIST_TAG = new Column(TableDefs.RawFiles.TABLE, TableDefs.RawFiles.ARTIST_TAG, Column.TYPE_STRING);
+	}
+
+	public interface Folders {
+		public static final @NonNull Column _ID = new Column(TableDefs.Folders.TABLE, TableDefs.Folders._ID, Column.TYPE_LONG);
+		public static final @NonNull Column NAME = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.NAME, Column.TYPE_STRING);
+		public static final @NonNull Column PARENT_NAME = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.PARENT_NAME, Column.TYPE_STRING);
+		public static final @NonNull Column PATH = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.PATH, Column.TYPE_STRING);
+		public static final @NonNull Column THUMB = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.THUMB, Column.TYPE_STRING);
+		public static final @NonNull Column DIR_MODIFIED_AT = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.DIR_MODIFIED_AT, Column.TYPE_INT);
+		public static final @NonNull Column UPDATED_AT = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.UPDATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column PARENT_ID = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.PARENT_ID, Column.TYPE_LONG);
+		public static final @NonNull Column IS_CUE = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.IS_CUE, Column.TYPE_INT);
+		public static final @NonNull Column NUM_CUE_FILES = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.NUM_CUE_FILES, Column.TYPE_INT);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column NUM_SUBFOLDERS = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.NUM_SUBFOLDERS, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.NUM_ALL_FILES, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.AA_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column PARENT_NAME_SUBQUERY = new Column(TableDefs.Folders.TABLE, TableDefs.Folders.PARENT_NAME_SUBQUERY, Column.TYPE_STRING);
+	}
+
+	public interface Albums {
+		public static final @NonNull Column _ID = new Column(TableDefs.Albums.TABLE, TableDefs.Albums._ID, Column.TYPE_LONG);
+		public static final @NonNull Column ALBUM = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.ALBUM, Column.TYPE_STRING);
+		public static final @NonNull Column ALBUM_SORT = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.ALBUM_SORT, Column.TYPE_STRING);
+		public static final @NonNull Column ALBUM_ARTIST_ID = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.ALBUM_ARTIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.NUM_ALL_FILES, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Albums.TABLE, TableDefs.Albums.AA_STATUS, Column.TYPE_INT);
+	}
+
+	public interface Artists {
+		public static final @NonNull Column _ID = new Column(TableDefs.Artists.TABLE, TableDefs.Artists._ID, Column.TYPE_LONG);
+		public static final @NonNull Column ARTIST = new Column(TableDefs.Artists.TABLE, TableDefs.Artists.ARTIST, Column.TYPE_STRING);
+		public static final @NonNull Column ARTIST_SORT = new Column(TableDefs.Artists.TABLE, TableDefs.Artists.ARTIST_SORT, Column.TYPE_STRING);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Artists.TABLE, TableDefs.Artists.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Artists.TABLE, TableDefs.Artists.AA_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.Artists.TABLE, TableDefs.Artists.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.Artists.TABLE, TableDefs.Artists.NUM_ALL_FILES, Column.TYPE_INT);
+	}
+
+	public interface AlbumArtists {
+		public static final @NonNull Column _ID = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists._ID, Column.TYPE_LONG);
+		public static final @NonNull Column ALBUM_ARTIST = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists.ALBUM_ARTIST, Column.TYPE_STRING);
+		public static final @NonNull Column ALBUM_ARTIST_SORT = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists.ALBUM_ARTIST_SORT, Column.TYPE_STRING);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists.AA_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.AlbumArtists.TABLE, TableDefs.AlbumArtists.NUM_ALL_FILES, Column.TYPE_INT);
+	}
+
+	public interface AlbumsByArtist {
+		public static final @NonNull Column _ID = new Column(TableDefs.AlbumsByArtist.TABLE, TableDefs.AlbumsByArtist._ID, Column.TYPE_LONG);
+		public static final @NonNull Column ARTIST_ID = new Column(TableDefs.AlbumsByArtist.TABLE, TableDefs.AlbumsByArtist.ARTIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column ALBUM_ID = new Column(TableDefs.AlbumsByArtist.TABLE, TableDefs.AlbumsByArtist.ALBUM_ID, Column.TYPE_LONG);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.AlbumsByArtist.TABLE, TableDefs.AlbumsByArtist.CREATED_AT, Column.TYPE_INT);
+	}
+
+	public interface Composers {
+		public static final @NonNull Column _ID = new Column(TableDefs.Composers.TABLE, TableDefs.Composers._ID, Column.TYPE_LONG);
+		public static final @NonNull Column COMPOSER = new Column(TableDefs.Composers.TABLE, TableDefs.Composers.COMPOSER, Column.TYPE_STRING);
+		public static final @NonNull Column COMPOSER_SORT = new Column(TableDefs.Composers.TABLE, TableDefs.Composers.COMPOSER_SORT, Column.TYPE_STRING);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Composers.TABLE, TableDefs.Composers.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Composers.TABLE, TableDefs.Composers.AA_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.Composers.TABLE, TableDefs.Composers.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.Composers.TABLE, TableDefs.Composers.NUM_ALL_FILES, Column.TYPE_INT);
+	}
+
+	public interface Genres {
+		public static final @NonNull Column _ID = new Column(TableDefs.Genres.TABLE, TableDefs.Genres._ID, Column.TYPE_LONG);
+		public static final @NonNull Column GENRE = new Column(TableDefs.Genres.TABLE, TableDefs.Genres.GENRE, Column.TYPE_STRING);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Genres.TABLE, TableDefs.Genres.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.Genres.TABLE, TableDefs.Genres.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.Genres.TABLE, TableDefs.Genres.NUM_ALL_FILES, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Genres.TABLE, TableDefs.Genres.AA_STATUS, Column.TYPE_INT);
+	}
+
+	public interface GenreEntries {
+		public static final @NonNull Column _ID = new Column(TableDefs.GenreEntries.TABLE, TableDefs.GenreEntries._ID, Column.TYPE_LONG);
+		public static final @NonNull Column FOLDER_FILE_ID = new Column(TableDefs.GenreEntries.TABLE, TableDefs.GenreEntries.FOLDER_FILE_ID, Column.TYPE_LONG);
+		public static final @NonNull Column GENRE_ID = new Column(TableDefs.GenreEntries.TABLE, TableDefs.GenreEntries.GENRE_ID, Column.TYPE_LONG);
+	}
+
+	public interface PlaylistEntries {
+		public static final @NonNull Column _ID = new Column(TableDefs.PlaylistEntries.TABLE, TableDefs.PlaylistEntries._ID, Column.TYPE_LONG);
+		public static final @NonNull Column FOLDER_FILE_ID = new Column(TableDefs.PlaylistEntries.TABLE, TableDefs.PlaylistEntries.FOLDER_FILE_ID, Column.TYPE_LONG);
+		public static final @NonNull Column PLAYLIST_ID = new Column(TableDefs.PlaylistEntries.TABLE, TableDefs.PlaylistEntries.PLAYLIST_ID, Column.TYPE_LONG);
+		public static final @NonNull Column SORT = new Column(TableDefs.PlaylistEntries.TABLE, TableDefs.PlaylistEntries.SORT, Column.TYPE_INT);
+	}
+
+	public interface Playlists {
+		public static final @NonNull Column _ID = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists._ID, Column.TYPE_LONG);
+		public static final @NonNull Column PLAYLIST = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.PLAYLIST, Column.TYPE_STRING);
+		public static final @NonNull Column MTIME = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.MTIME, Column.TYPE_INT);
+		public static final @NonNull Column PATH = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.PATH, Column.TYPE_STRING);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column UPDATED_AT = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.UPDATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column NUM_FILES = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.NUM_FILES, Column.TYPE_INT);
+		public static final @NonNull Column NUM_ALL_FILES = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.NUM_ALL_FILES, Column.TYPE_INT);
+		public static final @NonNull Column AA_STATUS = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.AA_STATUS, Column.TYPE_INT);
+		public static final @NonNull Column TOTAL_DURATION = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.TOTAL_DURATION, Column.TYPE_STRING);
+		public static final @NonNull Column IS_FILE = new Column(TableDefs.Playlists.TABLE, TableDefs.Playlists.IS_FILE, Column.TYPE_INT);
+	}
+
+	public interface Queue {
+		public static final @NonNull Column _ID = new Column(TableDefs.Queue.TABLE, TableDefs.Queue._ID, Column.TYPE_LONG);
+		public static final @NonNull Column FOLDER_FILE_ID = new Column(TableDefs.Queue.TABLE, TableDefs.Queue.FOLDER_FILE_ID, Column.TYPE_LONG);
+		public static final @NonNull Column CREATED_AT = new Column(TableDefs.Queue.TABLE, TableDefs.Queue.CREATED_AT, Column.TYPE_INT);
+		public static final @NonNull Column SORT = new Column(TableDefs.Queue.TABLE, TableDefs.Queue.SORT, Column.TYPE_INT);
+		public static final @NonNull Column CALC_PLAYED = new Column(TableDefs.Queue.TABLE, TableDefs.Queue.CALC_PLAYED, Column.TYPE_INT);
+		public static final @NonNull Column CALC_UNPLAYED = new Column(TableDefs.Queue.TABLE, TableDefs.Queue.CALC_UNPLAYED, Column.TYPE_INT);
+	}
+
+	public interface ShuffleSessionIds {
+		public static final @NonNull Column _ID = new Column(TableDefs.ShuffleSessionIds.TABLE, TableDefs.ShuffleSessionIds._ID, Column.TYPE_LONG);
+	}
+
+	public interface EqPresets {
+		public static final @NonNull Column _ID = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets._ID, Column.TYPE_LONG);
+		public static final @NonNull Column PRESET = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.PRESET, Column.TYPE_INT);
+		public static final @NonNull Column _DATA = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets._DATA, Column.TYPE_STRING);
+		public static final @NonNull Column NAME = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.NAME, Column.TYPE_STRING);
+		public static final @NonNull Column BIND_TO_SPEAKER = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.BIND_TO_SPEAKER, Column.TYPE_INT);
+		public static final @NonNull Column BIND_TO_WIRED = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.BIND_TO_WIRED, Column.TYPE_INT);
+		public static final @NonNull Column BIND_TO_BT = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.BIND_TO_BT, Column.TYPE_INT);
+		public static final @NonNull Column BIND_TO_USB = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.BIND_TO_USB, Column.TYPE_INT);
+		public static final @NonNull Column BIND_TO_OTHER = new Column(TableDefs.EqPresets.TABLE, TableDefs.EqPresets.BIND_TO_OTHER, Column.TYPE_INT);
+	}
+
+	public interface EqPresetSongs {
+		public static final @NonNull Column _ID = new Column(TableDefs.EqPresetSongs.TABLE, TableDefs.EqPresetSongs._ID, Column.TYPE_LONG);
+		public static final @NonNull Column FILE_ID = new Column(TableDefs.EqPresetSongs.TABLE, TableDefs.EqPresetSongs.FILE_ID, Column.TYPE_LONG);
+		public static final @NonNull Column PRESET_ID = new Column(TableDefs.EqPresetSongs.TABLE, TableDefs.EqPresetSongs.PRESET_ID, Column.TYPE_LONG);
+	}
+
+	public interface ReverbPresets {
+		public static final @NonNull Column _ID = new Column(TableDefs.ReverbPresets.TABLE, TableDefs.ReverbPresets._ID, Column.TYPE_LONG);
+		public static final @NonNull Column _DATA = new Column(TableDefs.ReverbPresets.TABLE, TableDefs.ReverbPresets._DATA, Column.TYPE_STRING);
+		public static final @NonNull Column NAME = new Column(TableDefs.ReverbPresets.TABLE, TableDefs.ReverbPresets.NAME, Column.TYPE_STRING);
+	}
+}
@@ -0,0 +1,354 @@
+/*
+Copyright (C) 2011-2018 Maksim Petrov
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted for widgets, plugins, applications and other software
+which communicate with Poweramp application on Android platform.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE FOUNDATION OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.maxmpz.poweramp.player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+
+/**
+ * Query builder over {@link TypedColumns}.<br>
+ * - the projection contains only the selected columns, each once. {@link #getColumnIndex(Column)} gives its cursor index without the name lookup<br>
+ * - the limit is passed as {@link PowerampAPI#PARAM_LIMIT}, not appended to the sort order<br>
+ * - the uris are built once per path and cached<br>
+ * - in debuggable apps, selecting the heavy column (e.g. {@link TypedColumns.Files#WAVE}, META) without {@link #allowHeavy()} logs the warning<br>
+ * Usage:
+ * <pre>
+ * TypedQuery q = new TypedQuery(TypedQuery.path(TypedQuery.FOLDERS, folderId, TypedQuery.FILES))
+ *   .select(TypedColumns.Files._ID, TypedColumns.Files.NAME, TypedColumns.Files.DURATION)
+ *   .orderBy(TypedColumns.Files.NAME, TypedQuery.ORDER_NOCASE);
+ * Cursor c = q.query(context);
+ * int duration = c.getInt(q.getColumnIndex(TypedColumns.Files.DURATION));
+ * </pre>
+ * THREADING: building - any single thread, query - worker thread
+ */
+public class TypedQuery {
+	private static final String TAG = "TypedQuery";
+
+	public static final @NonNull String FILES = "files";
+	public static final @NonNull String FOLDERS = "folders";
+	public static final @NonNull String ALBUMS = "albums";
+	public static final @NonNull String ARTISTS = "artists";
+	public static final @NonNull String ALBUM_ARTISTS = "album_artists";
+	public static final @NonNull String COMPOSERS = "composers";
+	public static final @NonNull String GENRES = "genres";
+	public static final @NonNull String PLAYLISTS = "playlists";
+	public static final @NonNull String QUEUE = "queue";
+
+	public static final int ORDER_DESC = 0x1;
+	public static final int ORDER_NOCASE = 0x2;
+
+	private static final int MAX_CACHED_URIS = 128;
+
+	private static final HashMap<String, Uri> sUris = new HashMap<>();
+	private static int sDebuggable = -1; // -1 - not checked yet
+
+	private final @NonNull String mPath;
+	private final ArrayList<Column> mColumns = new ArrayList<>();
+	private final ArrayList<String> mAliases = new ArrayList<>();
+	private @Nullable StringBuilder mSelection;
+	private final ArrayList<String> mSelectionArgs = new ArrayList<>();
+	private @Nullable StringBuilder mSortOrder;
+	private int mLimit;
+	private @Nullable String mFilter;
+	private boolean mAllowHeavy;
+	private boolean mHasHeavy;
+
+	private @Nullable String[] mProjection; // Built lazily, reset on change
+	private @Nullable Uri mUri;
+
+
+	/**
+	 * @param path the path relative to {@link PowerampAPI#ROOT_URI}, e.g. {@link #FILES} or {@link #path(String, long, String)}
+	 */
+	public TypedQuery(@NonNull String path) {
+		mPath = path;
+	}
+
+	/**
+	 * @return category/id/sub path, e.g. albums/10/files
+	 */
+	public static @NonNull String path(@NonNull String category, long id, @NonNull String sub) {
+		return category + "/" + id + "/" + sub;
+	}
+
+	/**
+	 * @return cached uri for the path relative to {@link PowerampAPI#ROOT_URI}
+	 */
+	public static @NonNull Uri getUri(@NonNull String path) {
+		synchronized(sUris) {
+			Uri uri = sUris.get(path);
+			if(uri == null) {
+				if(sUris.size() >= MAX_CACHED_URIS) {
+					sUris.clear(); // Mostly the same few paths are used, the id paths are rarely repeated
+				}
+				uri = PowerampAPI.ROOT_URI.buildUpon().appendEncodedPath(path).build();
+				sUris.put(path, uri);
+			}
+			return uri;
+		}
+	}
+
+	/**
+	 * Adds the columns to the projection. Already selected columns are skipped
+	 */
+	public @NonNull TypedQuery select(@NonNull Column... columns) {
+		for(Column column : columns) {
+			add(column, null);
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the column as "name AS alias", e.g. _id for the CursorAdapter
+	 */
+	public @NonNull TypedQuery selectAs(@NonNull Column column, @NonNull String alias) {
+		add(column, alias);
+		return this;
+	}
+
+	/**
+	 * Allows the heavy columns in the projection, i.e. disables the debug warning
+	 */
+	public @NonNull TypedQuery allowHeavy() {
+		mAllowHeavy = true;
+		return this;
+	}
+
+	/**
+	 * Adds the selection, ANDed with the previous ones
+	 */
+	public @NonNull TypedQuery where(@NonNull String selection, @NonNull String... args) {
+		StringBuilder sb = mSelection;
+		if(sb == null) {
+			mSelection = sb = new StringBuilder();
+		} else {
+			sb.append(" AND ");
+		}
+		sb.append('(').append(selection).append(')');
+		for(String arg : args) {
+			mSelectionArgs.add(arg);
+		}
+		return this;
+	}
+
+	public @NonNull TypedQuery whereEquals(@NonNull Column column, long value) {
+		return where(column.getName() + "=?", Long.toString(value));
+	}
+
+	public @NonNull TypedQuery whereEquals(@NonNull Column column, @NonNull String value) {
+		return where(column.getName() + "=?", value);
+	}
+
+	/**
+	 * Adds the sort column
+	 * @param flags ORDER_* flags
+	 */
+	public @NonNull TypedQuery orderBy(@NonNull Column column, int flags) {
+		StringBuilder sb = mSortOrder;
+		if(sb == null) {
+			mSortOrder = sb = new StringBuilder();
+		} else {
+			sb.append(", ");
+		}
+		sb.append(column.getName());
+		if((flags & ORDER_NOCASE) != 0) {
+			sb.append(" COLLATE NOCASE");
+		}
+		if((flags & ORDER_DESC) != 0) {
+			sb.append(" DESC");
+		}
+		return this;
+	}
+
+	/**
+	 * @param limit max rows, 0 - no limit
+	 */
+	public @NonNull TypedQuery limit(int limit) {
+		mLimit = limit;
+		mUri = null;
+		return this;
+	}
+
+	/**
+	 * Sets {@link PowerampAPI#PARAM_FILTER}, used by the search uri
+	 */
+	public @NonNull TypedQuery filter(@Nullable String filter) {
+		mFilter = filter;
+		mUri = null;
+		return this;
+	}
+
+	/**
+	 * @return the uri with the limit/filter params
+	 */
+	public @NonNull Uri getUri() {
+		Uri uri = mUri;
+		if(uri == null) {
+			uri = getUri(mPath);
+			if(mLimit > 0 || mFilter != null) {
+				Uri.Builder builder = uri.buildUpon();
+				if(mLimit > 0) {
+					builder.appendQueryParameter(PowerampAPI.PARAM_LIMIT, Integer.toString(mLimit));
+				}
+				if(mFilter != null) {
+					builder.appendQueryParameter(PowerampAPI.PARAM_FILTER, mFilter);
+				}
+				uri = builder.build();
+			}
+			mUri = uri;
+		}
+		return uri;
+	}
+
+	public @NonNull String[] getProjection() {
+		String[] projection = mProjection;
+		if(projection == null) {
+			int size = mColumns.size();
+			projection = new String[size];
+			for(int i = 0; i < size; i++) {
+				String alias = mAliases.get(i);
+				String name = mColumns.get(i).getName();
+				projection[i] = alias != null ? name + " AS " + alias : name;
+			}
+			mProjection = projection;
+		}
+		return projection;
+	}
+
+	public @Nullable String getSelection() {
+		return mSelection != null ? mSelection.toString() : null;
+	}
+
+	public @Nullable String[] getSelectionArgs() {
+		return mSelectionArgs.isEmpty() ? null : mSelectionArgs.toArray(new String[mSelectionArgs.size()]);
+	}
+
+	public @Nullable String getSortOrder() {
+		return mSortOrder != null ? mSortOrder.toString() : null;
+	}
+
+	/**
+	 * @return the column index in the cursor, or -1 if not selected. The first occurrence for the column selected with several aliases
+	 */
+	public int getColumnIndex(@NonNull Column column) {
+		return mColumns.indexOf(column);
+	}
+
+	/**
+	 * @return the cursor or null on failure
+	 */
+	public @Nullable Cursor query(@NonNull Context context) {
+		checkHeavy(context);
+		try {
+			return context.getContentResolver().query(getUri(), getProjection(), getSelection(), getSelectionArgs(), getSortOrder());
+		} catch(Throwable th) {
+			Log.e(TAG, "uri=" + getUri(), th);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the cached or freshly loaded snapshot, or null on failure
+	 */
+	public @Nullable QueryCache.Snapshot query(@NonNull QueryCache cache, @NonNull Context context) {
+		checkHeavy(context);
+		return cache.query(getUri(), getProjection(), getSelection(), getSelectionArgs(), getSortOrder());
+	}
+
+	/**
+	 * @return the columnar table or null on failure. Blob columns are not supported
+	 */
+	public @Nullable ColumnarTable queryColumnar(@NonNull Context context) {
+		checkHeavy(context);
+		return ColumnarTable.query(context, getUri(), toColumnarProjection(), getSelection(), getSelectionArgs(), getSortOrder());
+	}
+
+	/**
+	 * @return {@link ColumnarTable} projection with the column indexes matching {@link #getColumnIndex(Column)}
+	 */
+	public @NonNull ColumnarTable.Projection toColumnarProjection() {
+		ColumnarTable.Projection p = new ColumnarTable.Projection();
+		String[] projection = getProjection();
+		for(int i = 0, size = mColumns.size(); i < size; i++) {
+			switch(mColumns.get(i).getType()) {
+				case Column.TYPE_LONG:
+					p.addLong(projection[i]);
+					break;
+				case Column.TYPE_INT:
+					p.addInt(projection[i]);
+					break;
+				case Column.TYPE_STRING:
+					p.addString(projection[i]);
+					break;
+				default:
+					throw new IllegalArgumentException("unsupported column=" + mColumns.get(i));
+			}
+		}
+		return p;
+	}
+
+	private void add(@NonNull Column column, @Nullable String alias) {
+		for(int i = 0, size = mColumns.size(); i < size; i++) {
+			if(mColumns.get(i) == column && (alias == null ? mAliases.get(i) == null : alias.equals(mAliases.get(i)))) {
+				return;
+			}
+		}
+		mColumns.add(column);
+		mAliases.add(alias);
+		mProjection = null;
+		if(column.isHeavy()) {
+			mHasHeavy = true;
+		}
+	}
+
+	private void checkHeavy(@NonNull Context context) {
+		if(!mHasHeavy || mAllowHeavy || !isDebuggable(context)) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for(Column column : mColumns) {
+			if(column.isHeavy()) {
+				if(sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(column.getName());
+			}
+		}
+		Log.w(TAG, "heavy columns selected=" + sb + " uri=" + getUri() + ", use allowHeavy() if intended", new Exception());
+	}
+
+	private static boolean isDebuggable(@NonNull Context context) {
+		int debuggable = sDebuggable;
+		if(debuggable < 0) {
+			ApplicationInfo info = context.getApplicationInfo();
+			sDebuggable = debuggable = info != null && (info.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0 ? 1 : 0;
+		}
+		return debuggable != 0;
+	}
+}